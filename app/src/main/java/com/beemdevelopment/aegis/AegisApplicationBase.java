@@ -114,10 +114,15 @@ public abstract class AegisApplicationBase extends Application {
     private class AppLifecycleObserver implements LifecycleEventObserver {
         @Override
         public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
-            if (event == Lifecycle.Event.ON_STOP
-                    && _vaultManager.isAutoLockEnabled(Preferences.AUTO_LOCK_ON_MINIMIZE)
+            if (event != Lifecycle.Event.ON_STOP) {
+                return;
+            }
+
+            if (_vaultManager.isAutoLockEnabled(Preferences.AUTO_LOCK_ON_MINIMIZE)
                     && !_vaultManager.isAutoLockBlocked()) {
                 _vaultManager.lock(false);
+            } else {
+                _vaultManager.runPendingBackup();
             }
         }
     }
@@ -12,6 +12,7 @@ import com.beemdevelopment.aegis.database.AppDatabase;
 import com.beemdevelopment.aegis.database.AuditLogRepository;
 import com.beemdevelopment.aegis.util.IOUtils;
 import com.beemdevelopment.aegis.vault.VaultFile;
+import com.beemdevelopment.aegis.vault.VaultJournal;
 import com.beemdevelopment.aegis.vault.VaultRepository;
 import com.beemdevelopment.aegis.vault.VaultRepositoryException;
 
@@ -83,6 +84,19 @@ public class AegisBackupAgent extends BackupAgent {
             throw new IOException(e);
         }
 
+        // The journal contains the changes made since the vault file was last written in full.
+        // It can't be merged into the vault file here, because it's encrypted with the master key.
+        File journalFile = VaultJournal.getFile(this);
+        if (journalFile.exists()) {
+            try (InputStream inStream = new FileInputStream(journalFile);
+                 OutputStream outStream = new FileOutputStream(getJournalBackupFile())) {
+                IOUtils.copy(inStream, outStream);
+            } catch (IOException e) {
+                deleteBackupDir();
+                throw e;
+            }
+        }
+
         // Then call the original implementation so that fullBackupContent specified in AndroidManifest is read
         try {
             super.onFullBackup(data);
@@ -108,6 +122,19 @@ public class AegisBackupAgent extends BackupAgent {
             }
         }
 
+        File journalBackupFile = getJournalBackupFile();
+        if (destination.getCanonicalFile().equals(journalBackupFile.getCanonicalFile())) {
+            try (InputStream inStream = new FileInputStream(journalBackupFile);
+                 OutputStream outStream = new FileOutputStream(VaultJournal.getFile(this))) {
+                IOUtils.copy(inStream, outStream);
+            } catch (IOException e) {
+                Log.e(TAG, String.format("onRestoreFile() failed: dest=%s, error=%s", destination, e));
+                throw e;
+            } finally {
+                journalBackupFile.delete();
+            }
+        }
+
         Log.i(TAG, String.format("onRestoreFile() finished: dest=%s", destination));
     }
 
@@ -144,4 +171,8 @@ public class AegisBackupAgent extends BackupAgent {
     private File getVaultBackupFile() {
         return new File(new File(getFilesDir(), "backup"), VaultRepository.FILENAME);
     }
+
+    private File getJournalBackupFile() {
+        return new File(new File(getFilesDir(), "backup"), VaultJournal.FILENAME);
+    }
 }
@@ -0,0 +1,30 @@
+package com.beemdevelopment.aegis;
+
+/**
+ * The size of the memory cache of decoded icons, in screens worth of icons.
+ */
+public enum IconCacheSize {
+    SMALL(2),
+    NORMAL(4),
+    LARGE(8);
+
+    private static IconCacheSize[] _values;
+
+    static {
+        _values = values();
+    }
+
+    private final float _screens;
+
+    IconCacheSize(float screens) {
+        _screens = screens;
+    }
+
+    public float getScreens() {
+        return _screens;
+    }
+
+    public static IconCacheSize fromInteger(int x) {
+        return _values[x];
+    }
+}
@@ -49,6 +49,9 @@ public class Preferences {
             AUTO_LOCK_ON_DEVICE_LOCK
     };
 
+    // the amount of minutes the key of the password slot may be cached for after unlocking
+    public static final int[] PASSWORD_KEY_CACHE_TIMEOUTS = {0, 1, 5, 15};
+
     public static final int[] SEARCH_BEHAVIOR_SETTINGS = {
             SEARCH_IN_ISSUER,
             SEARCH_IN_NAME,
@@ -104,6 +107,38 @@ public class Preferences {
         _prefs.edit().putBoolean("pref_panic_trigger", enabled).apply();
     }
 
+    /**
+     * Reports whether the keys of new password slots should be derived with Argon2id
+     * instead of scrypt.
+     */
+    public boolean isArgon2Enabled() {
+        return _prefs.getBoolean("pref_password_argon2", false);
+    }
+
+    /**
+     * Reports whether the vault should be stored in the binary format instead of JSON.
+     * Exports and backups are always in the JSON format.
+     */
+    public boolean isBinaryVaultEnabled() {
+        return _prefs.getBoolean("pref_vault_binary", false);
+    }
+
+    /**
+     * Reports whether the content of the vault and its backups should be compressed before
+     * it's encrypted.
+     */
+    public boolean isVaultCompressionEnabled() {
+        return _prefs.getBoolean("pref_vault_compression", false);
+    }
+
+    public int getPasswordKeyCacheTimeout() {
+        return _prefs.getInt("pref_password_key_cache_timeout", 0);
+    }
+
+    public void setPasswordKeyCacheTimeout(int minutes) {
+        _prefs.edit().putInt("pref_password_key_cache_timeout", minutes).apply();
+    }
+
     public boolean isSecureScreenEnabled() {
         // screen security should be enabled by default, but not for debug builds
         return _prefs.getBoolean("pref_secure_screen", !BuildConfig.DEBUG);
@@ -149,6 +184,18 @@ public class Preferences {
         setPasswordReminderTimestamp(new Date().getTime());
     }
 
+    /**
+     * Returns the cost of scrypt on this device in nanoseconds per block, as measured by
+     * SCryptCalibration, or 0 if it hasn't been measured yet.
+     */
+    public long getSCryptBlockNanos() {
+        return _prefs.getLong("pref_scrypt_block_nanos", 0);
+    }
+
+    public void setSCryptBlockNanos(long nanos) {
+        _prefs.edit().putLong("pref_scrypt_block_nanos", nanos).apply();
+    }
+
     public boolean onlyShowNecessaryAccountNames() { return _prefs.getBoolean("pref_shared_issuer_account_name", false); }
 
     public boolean isIconVisible() {
@@ -260,6 +307,14 @@ public class Preferences {
         _prefs.edit().putInt("pref_account_name_position", accountNamePosition.ordinal()).apply();
     }
 
+    public IconCacheSize getIconCacheSize() {
+        return IconCacheSize.fromInteger(_prefs.getInt("pref_icon_cache_size", IconCacheSize.NORMAL.ordinal()));
+    }
+
+    public void setIconCacheSize(IconCacheSize iconCacheSize) {
+        _prefs.edit().putInt("pref_icon_cache_size", iconCacheSize.ordinal()).apply();
+    }
+
     public Integer getUsageCount(UUID uuid) {
         Integer usageCount = getUsageCounts().get(uuid);
 
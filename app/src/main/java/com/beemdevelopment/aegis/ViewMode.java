@@ -47,6 +47,22 @@ public enum ViewMode {
         return 8;
     }
 
+    /**
+     * Retrieves the size (in dp) of the icon of an entry in this view mode. This should
+     * match the size of the icon in the layout of this view mode.
+     */
+    public float getIconSize() {
+        switch (this) {
+            case COMPACT:
+            case SMALL:
+                return 45;
+            case TILES:
+                return 24;
+            default:
+                return 60;
+        }
+    }
+
     public int getSpanCount() {
         if (this == ViewMode.TILES) {
             return 2;
@@ -0,0 +1,49 @@
+package com.beemdevelopment.aegis.crypto;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+
+/**
+ * Derives keys with Argon2id (version 0x13), as specified in RFC 9106, using
+ * Argon2BytesGenerator of Bouncy Castle. The lanes are filled one after another on the
+ * calling thread, which is fast enough at the default parameters to be on par with scrypt.
+ */
+public class Argon2id {
+    private Argon2id() {
+
+    }
+
+    /**
+     * Derives a key from the given password and salt.
+     *
+     * @param memory the memory cost, in KiB.
+     * @param passes the number of passes over the memory.
+     * @param lanes the degree of parallelism.
+     * @param length the length of the key, in bytes.
+     */
+    public static byte[] generate(byte[] password, byte[] salt, int memory, int passes, int lanes, int length) {
+        return generate(password, salt, null, null, memory, passes, lanes, length);
+    }
+
+    static byte[] generate(byte[] password, byte[] salt, byte[] secret, byte[] additional,
+                           int memory, int passes, int lanes, int length) {
+        Argon2Parameters.Builder builder = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                .withMemoryAsKB(memory)
+                .withIterations(passes)
+                .withParallelism(lanes)
+                .withSalt(salt);
+        if (secret != null) {
+            builder.withSecret(secret);
+        }
+        if (additional != null) {
+            builder.withAdditional(additional);
+        }
+
+        Argon2BytesGenerator gen = new Argon2BytesGenerator();
+        gen.init(builder.build());
+        byte[] key = new byte[length];
+        gen.generateBytes(password, key);
+        return key;
+    }
+}
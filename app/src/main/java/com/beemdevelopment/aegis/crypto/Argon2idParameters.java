@@ -0,0 +1,67 @@
+package com.beemdevelopment.aegis.crypto;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import javax.crypto.SecretKey;
+
+public class Argon2idParameters implements KdfParameters {
+    private int _m;
+    private int _t;
+    private int _p;
+    private byte[] _salt;
+
+    /**
+     * @param m the memory cost, in KiB.
+     * @param t the number of passes over the memory.
+     * @param p the degree of parallelism.
+     */
+    public Argon2idParameters(int m, int t, int p, byte[] salt) {
+        _m = m;
+        _t = t;
+        _p = p;
+        _salt = salt;
+    }
+
+    @Override
+    public byte[] getSalt() {
+        return _salt;
+    }
+
+    public int getM() {
+        return _m;
+    }
+
+    public int getT() {
+        return _t;
+    }
+
+    public int getP() {
+        return _p;
+    }
+
+    @Override
+    public long getMemory() {
+        return _m * 1024L;
+    }
+
+    @Override
+    public SecretKey deriveKey(byte[] input) {
+        return CryptoUtils.deriveKey(input, this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Argon2idParameters)) {
+            return false;
+        }
+
+        Argon2idParameters params = (Argon2idParameters) o;
+        return _m == params._m && _t == params._t && _p == params._p && Arrays.equals(_salt, params._salt);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(_m, _t, _p, Arrays.hashCode(_salt));
+    }
+}
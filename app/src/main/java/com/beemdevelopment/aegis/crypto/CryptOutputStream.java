@@ -0,0 +1,81 @@
+package com.beemdevelopment.aegis.crypto;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+
+/**
+ * An OutputStream that encrypts everything written to it with the given AEAD cipher and
+ * writes the resulting ciphertext to the underlying stream. Contrary to CipherOutputStream,
+ * the authentication tag is not written to the underlying stream. Instead, it is split off
+ * and returned by finish(), so that it can be stored separately like CryptoUtils.encrypt() does.
+ */
+public class CryptOutputStream extends FilterOutputStream {
+    private final Cipher _cipher;
+    private final byte[] _single = new byte[1];
+    private CryptParameters _params;
+
+    public CryptOutputStream(Cipher cipher, OutputStream stream) {
+        super(stream);
+        _cipher = cipher;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        _single[0] = (byte) b;
+        write(_single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (_params != null) {
+            throw new IOException("Stream has already been finished");
+        }
+
+        byte[] output = _cipher.update(b, off, len);
+        if (output != null && output.length > 0) {
+            out.write(output);
+        }
+    }
+
+    /**
+     * Finalizes the encryption, writes any remaining ciphertext to the underlying stream
+     * and returns the parameters (nonce and tag) needed to decrypt the ciphertext. The
+     * underlying stream is flushed, but not closed.
+     */
+    public CryptParameters finish() throws IOException {
+        if (_params != null) {
+            return _params;
+        }
+
+        byte[] output;
+        try {
+            output = _cipher.doFinal();
+        } catch (BadPaddingException | IllegalBlockSizeException e) {
+            throw new IOException(e);
+        }
+
+        int tagOffset = output.length - CryptoUtils.CRYPTO_AEAD_TAG_SIZE;
+        if (tagOffset < 0) {
+            throw new IOException("Cipher output is too short to contain a tag");
+        }
+
+        out.write(output, 0, tagOffset);
+        out.flush();
+
+        byte[] tag = Arrays.copyOfRange(output, tagOffset, output.length);
+        _params = new CryptParameters(_cipher.getIV(), tag);
+        return _params;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        super.close();
+    }
+}
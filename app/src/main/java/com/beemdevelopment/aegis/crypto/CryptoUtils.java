@@ -4,7 +4,6 @@ import android.os.Build;
 
 import com.beemdevelopment.aegis.crypto.bc.SCrypt;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
@@ -22,6 +21,7 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -36,14 +36,25 @@ public class CryptoUtils {
     public static final int CRYPTO_SCRYPT_r = 8;
     public static final int CRYPTO_SCRYPT_p = 1;
 
+    // RFC 9106 recommends these for memory-constrained environments, save for the memory
+    // cost, which matches that of the scrypt parameters above
+    public static final int CRYPTO_ARGON2_m = 1 << 15;
+    public static final int CRYPTO_ARGON2_t = 3;
+    public static final int CRYPTO_ARGON2_p = 4;
+
     public static SecretKey deriveKey(byte[] input, SCryptParameters params) {
         byte[] keyBytes = SCrypt.generate(input, params.getSalt(), params.getN(), params.getR(), params.getP(), CRYPTO_AEAD_KEY_SIZE);
         return new SecretKeySpec(keyBytes, 0, keyBytes.length, "AES");
     }
 
-    public static SecretKey deriveKey(char[] password, SCryptParameters params) {
+    public static SecretKey deriveKey(byte[] input, Argon2idParameters params) {
+        byte[] keyBytes = Argon2id.generate(input, params.getSalt(), params.getM(), params.getT(), params.getP(), CRYPTO_AEAD_KEY_SIZE);
+        return new SecretKeySpec(keyBytes, 0, keyBytes.length, "AES");
+    }
+
+    public static SecretKey deriveKey(char[] password, KdfParameters params) {
         byte[] bytes = toBytes(password);
-        return deriveKey(bytes, params);
+        return params.deriveKey(bytes);
     }
 
     public static Cipher createEncryptCipher(SecretKey key)
@@ -83,12 +94,38 @@ public class CryptoUtils {
 
     public static CryptResult encrypt(byte[] data, Cipher cipher)
             throws BadPaddingException, IllegalBlockSizeException {
-        // split off the tag to store it separately
-        byte[] result = cipher.doFinal(data);
-        byte[] tag = Arrays.copyOfRange(result, result.length - CRYPTO_AEAD_TAG_SIZE, result.length);
-        byte[] encrypted = Arrays.copyOfRange(result, 0, result.length - CRYPTO_AEAD_TAG_SIZE);
+        // like decrypt(), let the cipher split its output: update() typically returns most of the
+        // ciphertext and doFinal() ends with the tag, so the ciphertext doesn't have to be copied
+        byte[] head = cipher.update(data);
+        byte[] tail = cipher.doFinal();
+        int tailLen = tail.length - CRYPTO_AEAD_TAG_SIZE;
+        CryptParameters params = new CryptParameters(cipher.getIV(), Arrays.copyOfRange(tail, tailLen, tail.length));
+        if (head == null || head.length == 0) {
+            return new CryptResult(Arrays.copyOf(tail, tailLen), params);
+        }
+        if (tailLen == 0) {
+            return new CryptResult(head, params);
+        }
+
+        byte[] encrypted = Arrays.copyOf(head, head.length + tailLen);
+        System.arraycopy(tail, 0, encrypted, head.length, tailLen);
+        return new CryptResult(encrypted, params);
+    }
 
-        return new CryptResult(encrypted, new CryptParameters(cipher.getIV(), tag));
+    /**
+     * Encrypts dataLen bytes of the given data, starting at dataOffset, directly into the
+     * given output buffer, starting at outputOffset. The buffer needs room for the tag as
+     * well, but the tag is split off and returned as part of the parameters. Afterwards, the
+     * ciphertext takes up exactly dataLen bytes of the buffer.
+     */
+    public static CryptParameters encrypt(byte[] data, int dataOffset, int dataLen, Cipher cipher, byte[] output, int outputOffset)
+            throws BadPaddingException, IllegalBlockSizeException, ShortBufferException {
+        int outputLen = cipher.doFinal(data, dataOffset, dataLen, output, outputOffset);
+        int tagOffset = outputOffset + outputLen - CRYPTO_AEAD_TAG_SIZE;
+        byte[] tag = Arrays.copyOfRange(output, tagOffset, tagOffset + CRYPTO_AEAD_TAG_SIZE);
+        Arrays.fill(output, tagOffset, tagOffset + CRYPTO_AEAD_TAG_SIZE, (byte) 0);
+
+        return new CryptParameters(cipher.getIV(), tag);
     }
 
     public static CryptResult decrypt(byte[] encrypted, Cipher cipher, CryptParameters params)
@@ -98,14 +135,18 @@ public class CryptoUtils {
 
     public static CryptResult decrypt(byte[] encrypted, int encryptedOffset, int encryptedLen, Cipher cipher, CryptParameters params)
             throws IOException, BadPaddingException, IllegalBlockSizeException {
-        // append the tag to the ciphertext
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        stream.write(encrypted, encryptedOffset, encryptedLen);
-        stream.write(params.getTag());
-
-        encrypted = stream.toByteArray();
-        byte[] decrypted = cipher.doFinal(encrypted);
+        // feed the tag to the cipher after the ciphertext, instead of appending it to a copy of the ciphertext
+        // GCM implementations typically hold back all plaintext until the tag has been verified in doFinal
+        byte[] head = cipher.update(encrypted, encryptedOffset, encryptedLen);
+        byte[] tail = cipher.doFinal(params.getTag());
+        if (head == null || head.length == 0) {
+            return new CryptResult(tail, params);
+        }
 
+        byte[] decrypted = Arrays.copyOf(head, head.length + tail.length);
+        System.arraycopy(tail, 0, decrypted, head.length, tail.length);
+        Arrays.fill(head, (byte) 0);
+        Arrays.fill(tail, (byte) 0);
         return new CryptResult(decrypted, params);
     }
 
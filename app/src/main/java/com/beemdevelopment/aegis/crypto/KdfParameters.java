@@ -0,0 +1,19 @@
+package com.beemdevelopment.aegis.crypto;
+
+import java.io.Serializable;
+
+import javax.crypto.SecretKey;
+
+/**
+ * The parameters of a password-based key derivation function.
+ */
+public interface KdfParameters extends Serializable {
+    byte[] getSalt();
+
+    /**
+     * Returns the amount of memory a key derivation with these parameters needs, in bytes.
+     */
+    long getMemory();
+
+    SecretKey deriveKey(byte[] input);
+}
@@ -45,6 +45,15 @@ public class KeyStoreHandle {
     }
 
     public SecretKey generateKey(String id) throws KeyStoreHandleException {
+        return generateKey(id, true);
+    }
+
+    /**
+     * Generates a new AES key with the given id, replacing any key with the same id.
+     * @param userAuthenticationRequired whether the key can only be used after the user has
+     *                                   authenticated with biometrics.
+     */
+    public SecretKey generateKey(String id, boolean userAuthenticationRequired) throws KeyStoreHandleException {
         if (!isSupported()) {
             throw new KeyStoreHandleException("Symmetric KeyStore keys are not supported in this version of Android");
         }
@@ -55,7 +64,7 @@ public class KeyStoreHandle {
                     KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
                     .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
                     .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
-                    .setUserAuthenticationRequired(true)
+                    .setUserAuthenticationRequired(userAuthenticationRequired)
                     .setRandomizedEncryptionRequired(true)
                     .setKeySize(CryptoUtils.CRYPTO_AEAD_KEY_SIZE * 8)
                     .build());
@@ -1,6 +1,7 @@
 package com.beemdevelopment.aegis.crypto;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -11,6 +12,7 @@ import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 
 public class MasterKey implements Serializable {
     private SecretKey _key;
@@ -40,10 +42,53 @@ public class MasterKey implements Serializable {
         }
     }
 
+    /**
+     * Encrypts length bytes of the given data, starting at offset, directly into the given
+     * output buffer, starting at outputOffset. The buffer needs CryptoUtils.CRYPTO_AEAD_TAG_SIZE
+     * bytes of room beyond the ciphertext for the tag, which is returned as part of the
+     * parameters instead.
+     */
+    public CryptParameters encrypt(byte[] bytes, int offset, int length, byte[] output, int outputOffset)
+            throws MasterKeyException {
+        try {
+            Cipher cipher = CryptoUtils.createEncryptCipher(_key);
+            return CryptoUtils.encrypt(bytes, offset, length, cipher, output, outputOffset);
+        } catch (NoSuchPaddingException
+                | NoSuchAlgorithmException
+                | InvalidAlgorithmParameterException
+                | InvalidKeyException
+                | BadPaddingException
+                | IllegalBlockSizeException
+                | ShortBufferException e) {
+            throw new MasterKeyException(e);
+        }
+    }
+
+    /**
+     * Returns a stream that encrypts everything written to it with this key and writes the
+     * ciphertext to the given OutputStream. Call finish() on the returned stream to obtain
+     * the parameters needed for decryption.
+     */
+    public CryptOutputStream encrypt(OutputStream stream) throws MasterKeyException {
+        try {
+            Cipher cipher = CryptoUtils.createEncryptCipher(_key);
+            return new CryptOutputStream(cipher, stream);
+        } catch (NoSuchPaddingException
+                | NoSuchAlgorithmException
+                | InvalidAlgorithmParameterException
+                | InvalidKeyException e) {
+            throw new MasterKeyException(e);
+        }
+    }
+
     public CryptResult decrypt(byte[] bytes, CryptParameters params) throws MasterKeyException {
+        return decrypt(bytes, 0, bytes.length, params);
+    }
+
+    public CryptResult decrypt(byte[] bytes, int offset, int length, CryptParameters params) throws MasterKeyException {
         try {
             Cipher cipher = CryptoUtils.createDecryptCipher(_key, params.getNonce());
-            return CryptoUtils.decrypt(bytes, cipher, params);
+            return CryptoUtils.decrypt(bytes, offset, length, cipher, params);
         } catch (NoSuchPaddingException
                 | NoSuchAlgorithmException
                 | InvalidAlgorithmParameterException
@@ -0,0 +1,110 @@
+package com.beemdevelopment.aegis.crypto;
+
+import com.beemdevelopment.aegis.crypto.bc.SCrypt;
+
+/**
+ * Picks scrypt parameters for password slots based on how fast the device is. The cost of
+ * scrypt is measured once with a small N, expressed as the time it takes to process a
+ * single block (the product of N, r and p). It grows linearly with the number of blocks,
+ * so the cost of any other set of parameters can be estimated from it.
+ */
+public class SCryptCalibration {
+    // the time a key derivation should take on this device
+    public static final long TARGET_MILLIS = 1000;
+    // slots that are this many times faster or slower than the target are re-wrapped
+    private static final int REWRAP_FACTOR = 4;
+    // the upper bound of the memory used by a key derivation
+    private static final long MAX_MEMORY = 64 * 1024 * 1024;
+
+    private static final int MIN_N = 1 << 14;
+    private static final int MAX_N = 1 << 20;
+    private static final int BENCH_N = 1 << 12;
+    private static final int BENCH_ROUNDS = 3;
+
+    private SCryptCalibration() {
+
+    }
+
+    /**
+     * Measures the cost of scrypt on this device, in nanoseconds per block. This can take
+     * up to a second, so it should not be called on the UI thread.
+     */
+    public static long measure() {
+        byte[] password = new byte[CryptoUtils.CRYPTO_AEAD_KEY_SIZE];
+        byte[] salt = CryptoUtils.generateSalt();
+        int r = CryptoUtils.CRYPTO_SCRYPT_r;
+
+        // the first rounds also warm up the JIT, so only keep the fastest
+        long best = Long.MAX_VALUE;
+        SCrypt.retainScratch();
+        try {
+            for (int i = 0; i < BENCH_ROUNDS; i++) {
+                long start = System.nanoTime();
+                SCrypt.generate(password, salt, BENCH_N, r, 1, CryptoUtils.CRYPTO_AEAD_KEY_SIZE);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        } finally {
+            SCrypt.releaseScratch();
+        }
+
+        return Math.max(1, best / ((long) BENCH_N * r));
+    }
+
+    /**
+     * Returns new scrypt parameters with a random salt. N is the largest power of 2 that
+     * keeps the derivation within the target time and memory ceiling on a device with the
+     * given cost.
+     */
+    public static SCryptParameters getParameters(long blockNanos) {
+        return new SCryptParameters(
+                getN(blockNanos),
+                CryptoUtils.CRYPTO_SCRYPT_r,
+                CryptoUtils.CRYPTO_SCRYPT_p,
+                CryptoUtils.generateSalt()
+        );
+    }
+
+    /**
+     * Reports whether a slot with the given parameters should be re-wrapped with new ones,
+     * because deriving its key is much faster or slower than the target on a device with
+     * the given cost, or because it needs more memory than is allowed.
+     */
+    public static boolean shouldRewrap(SCryptParameters params, long blockNanos) {
+        if (params.getN() == getN(blockNanos)
+                && params.getR() == CryptoUtils.CRYPTO_SCRYPT_r
+                && params.getP() == CryptoUtils.CRYPTO_SCRYPT_p) {
+            return false;
+        }
+
+        long blocks = (long) params.getN() * params.getR() * params.getP();
+        long millis = blocks * blockNanos / 1_000_000;
+        return millis > TARGET_MILLIS * REWRAP_FACTOR
+                || millis < TARGET_MILLIS / REWRAP_FACTOR
+                || getMemory(params.getN(), params.getR()) > getMaxMemory();
+    }
+
+    private static int getN(long blockNanos) {
+        int r = CryptoUtils.CRYPTO_SCRYPT_r;
+        int p = CryptoUtils.CRYPTO_SCRYPT_p;
+        long targetNanos = TARGET_MILLIS * 1_000_000;
+        long maxMemory = getMaxMemory();
+
+        int n = MIN_N;
+        while (n < MAX_N
+                && (long) n * 2 * r * p * blockNanos <= targetNanos
+                && getMemory(n * 2, r) <= maxMemory) {
+            n *= 2;
+        }
+
+        return n;
+    }
+
+    private static long getMemory(int n, int r) {
+        return 128L * n * r;
+    }
+
+    private static long getMaxMemory() {
+        // the heap limit of some devices is low enough for MAX_MEMORY to be too much
+        return Math.min(MAX_MEMORY, Runtime.getRuntime().maxMemory() / 4);
+    }
+}
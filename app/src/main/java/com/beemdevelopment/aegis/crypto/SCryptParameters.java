@@ -1,8 +1,11 @@
 package com.beemdevelopment.aegis.crypto;
 
-import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Objects;
 
-public class SCryptParameters implements Serializable {
+import javax.crypto.SecretKey;
+
+public class SCryptParameters implements KdfParameters {
     private int _n;
     private int _r;
     private int _p;
@@ -15,6 +18,7 @@ public class SCryptParameters implements Serializable {
         _salt = salt;
     }
 
+    @Override
     public byte[] getSalt() {
         return _salt;
     }
@@ -30,4 +34,30 @@ public class SCryptParameters implements Serializable {
     public int getP() {
         return _p;
     }
+
+    @Override
+    public long getMemory() {
+        // the lanes may run concurrently, so all of them can be in memory at the same time
+        return 128L * _n * _r * _p;
+    }
+
+    @Override
+    public SecretKey deriveKey(byte[] input) {
+        return CryptoUtils.deriveKey(input, this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SCryptParameters)) {
+            return false;
+        }
+
+        SCryptParameters params = (SCryptParameters) o;
+        return _n == params._n && _r == params._r && _p == params._p && Arrays.equals(_salt, params._salt);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(_n, _r, _p, Arrays.hashCode(_salt));
+    }
 }
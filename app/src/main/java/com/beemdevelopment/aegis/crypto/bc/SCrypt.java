@@ -28,14 +28,37 @@ import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.Integers;
 import org.bouncycastle.util.Pack;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Implementation of the scrypt a password-based key derivation function.
  * <p>
  * Scrypt was created by Colin Percival and is specified in <a
  * href="https://tools.ietf.org/html/rfc7914">RFC 7914 - The scrypt Password-Based Key Derivation Function</a>
+ * <p>
+ * Modified to run the SMix lanes concurrently if p &gt; 1, to stop with a
+ * CancellationException if the calling thread is interrupted, and to reuse the memory of V
+ * across derivations while the caller retains it (see {@link #retainScratch()}).
  */
 public class SCrypt
 {
+    // the number of threads the SMix lanes are run on, besides the calling thread
+    private static final int LANE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    // the lanes are part of a derivation that runs in the background, so they shouldn't compete with the UI thread
+    private static final int LANE_PRIORITY = Thread.NORM_PRIORITY - 1;
+    // the interval (in iterations of the mixing loop) to check for interruption at
+    private static final int INTERRUPT_CHECK_INTERVAL = 1024;
+    // the upper bound of the memory (in bytes) that is kept around for reuse between derivations
+    private static final long SCRATCH_BUDGET = Math.min(128L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 4);
+
     private SCrypt()
     {
         // not used.
@@ -90,6 +113,27 @@ public class SCrypt
         return MFcrypt(P, S, N, r, p, dkLen);
     }
 
+    /**
+     * Keeps the chunks of V that are allocated by the derivations that follow around for
+     * reuse, up to a fixed memory budget, until a matching call to {@link #releaseScratch()}.
+     * This avoids allocating (and later collecting) the same amount of memory over and over
+     * when several keys with the same parameters are derived in a row. The chunks are always
+     * wiped before they are handed back.
+     */
+    public static void retainScratch()
+    {
+        Scratch.INSTANCE.retain();
+    }
+
+    /**
+     * Releases the memory kept around after a call to {@link #retainScratch()}, once every
+     * such call has been matched.
+     */
+    public static void releaseScratch()
+    {
+        Scratch.INSTANCE.release();
+    }
+
     private static byte[] MFcrypt(byte[] P, byte[] S, int N, int r, int p, int dkLen)
     {
         int MFLenBytes = r * 128;
@@ -116,11 +160,7 @@ public class SCrypt
             }
 
             int MFLenWords = MFLenBytes >>> 2;
-            for (int BOff = 0; BOff < BLen; BOff += MFLenWords)
-            {
-                // TODO These can be done in parallel threads
-                SMix(B, BOff, N, d, r);
-            }
+            SMixLanes(B, MFLenWords, N, d, r);
 
             Pack.intToLittleEndian(B, bytes, 0);
 
@@ -141,7 +181,104 @@ public class SCrypt
         return key.getKey();
     }
 
-    private static void SMix(int[] B, int BOff, int N, int d, int r)
+    /**
+     * Runs SMix on every lane of B. The lanes are independent of each other, so all lanes
+     * but the last are handed to a bounded pool, while the last one runs on the calling thread.
+     * Lanes that run out of memory while running alongside each other are retried one at a
+     * time on the calling thread afterwards. SMix only writes to its lane of B once it's
+     * done, so a lane that failed can safely be run again.
+     * <p>
+     * The threads of the pool don't see the interrupt flag of the calling thread, so if the
+     * calling thread is interrupted, the other lanes are cancelled through a shared flag.
+     */
+    private static void SMixLanes(final int[] B, int MFLenWords, final int N, final int d, final int r)
+    {
+        int lastOff = B.length - MFLenWords;
+        List<ForkJoinTask<?>> lanes = new ArrayList<ForkJoinTask<?>>();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        boolean retryLast = false;
+        boolean finished = false;
+
+        try
+        {
+            for (int BOff = 0; BOff < lastOff; BOff += MFLenWords)
+            {
+                final int off = BOff;
+                lanes.add(LanePool.INSTANCE.submit(new Runnable()
+                {
+                    public void run()
+                    {
+                        SMix(B, off, N, d, r, cancelled);
+                    }
+                }));
+            }
+
+            try
+            {
+                SMix(B, lastOff, N, d, r, cancelled);
+            }
+            catch (OutOfMemoryError e)
+            {
+                if (lanes.isEmpty())
+                {
+                    throw e;
+                }
+                retryLast = true;
+            }
+
+            // wait for the other lanes in a way that can still be interrupted
+            for (int i = 0; i < lanes.size(); ++i)
+            {
+                try
+                {
+                    lanes.get(i).get();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("Key derivation was interrupted");
+                }
+                catch (ExecutionException e)
+                {
+                    // dealt with below
+                }
+            }
+            finished = true;
+        }
+        finally
+        {
+            if (!finished)
+            {
+                cancelled.set(true);
+            }
+
+            // B is cleared by the caller, so it must not be in use by any of the lanes anymore
+            for (int i = 0; i < lanes.size(); ++i)
+            {
+                lanes.get(i).quietlyJoin();
+            }
+        }
+
+        for (int i = 0; i < lanes.size(); ++i)
+        {
+            ForkJoinTask<?> lane = lanes.get(i);
+            if (lane.getException() instanceof OutOfMemoryError)
+            {
+                SMix(B, i * MFLenWords, N, d, r, cancelled);
+            }
+            else
+            {
+                lane.join();
+            }
+        }
+
+        if (retryLast)
+        {
+            SMix(B, lastOff, N, d, r, cancelled);
+        }
+    }
+
+    private static void SMix(int[] B, int BOff, int N, int d, int r, AtomicBoolean cancelled)
     {
         int powN = Integers.numberOfTrailingZeros(N);
         int blocksPerChunk = N >>> d;
@@ -155,6 +292,7 @@ public class SCrypt
 
         int[] X = new int[BCount];
         int[][] VV = new int[chunkCount][];
+        int VLen = blocksPerChunk * BCount;
 
         try
         {
@@ -162,7 +300,9 @@ public class SCrypt
 
             for (int c = 0; c < chunkCount; ++c)
             {
-                int[] V = new int[blocksPerChunk * BCount];
+                checkCancelled(cancelled);
+
+                int[] V = Scratch.INSTANCE.acquire(VLen);
                 VV[c] = V;
 
                 int off = 0;
@@ -180,6 +320,11 @@ public class SCrypt
             int mask = N - 1;
             for (int i = 0; i < N; ++i)
             {
+                if (i % INTERRUPT_CHECK_INTERVAL == 0)
+                {
+                    checkCancelled(cancelled);
+                }
+
                 int j = X[BCount - 16] & mask;
                 int[] V = VV[j >>> chunkPow];
                 int VOff = (j & chunkMask) * BCount;
@@ -194,6 +339,7 @@ public class SCrypt
         {
             ClearAll(VV);
             ClearAll(new int[][]{X, blockX1, blockX2, blockY});
+            Scratch.INSTANCE.recycle(VV);
         }
     }
 
@@ -247,9 +393,106 @@ public class SCrypt
         }
     }
 
+    private static void checkCancelled(AtomicBoolean cancelled)
+    {
+        if (cancelled.get() || Thread.currentThread().isInterrupted())
+        {
+            throw new CancellationException("Key derivation was interrupted");
+        }
+    }
+
     // note: we know X is non-zero
     private static boolean isPowerOf2(int x)
     {
         return ((x & (x - 1)) == 0);
     }
+
+    // the pool is only created once a key is derived with p > 1
+    private static class LanePool
+    {
+        private static final ForkJoinPool INSTANCE = new ForkJoinPool(LANE_THREADS, new ForkJoinPool.ForkJoinWorkerThreadFactory()
+        {
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+            {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setPriority(LANE_PRIORITY);
+                return thread;
+            }
+        }, null, false);
+    }
+
+    /**
+     * The chunks of V that are kept around for reuse. Only chunks of a single length are
+     * kept, as consecutive derivations nearly always use the same parameters. All chunks
+     * in here have been wiped.
+     */
+    private static class Scratch
+    {
+        private static final Scratch INSTANCE = new Scratch();
+
+        private final ArrayDeque<int[]> chunks = new ArrayDeque<int[]>();
+        private int chunkLength;
+        private int retainers;
+
+        synchronized void retain()
+        {
+            ++retainers;
+        }
+
+        synchronized void release()
+        {
+            if (retainers > 0 && --retainers == 0)
+            {
+                chunks.clear();
+            }
+        }
+
+        int[] acquire(int length)
+        {
+            synchronized (this)
+            {
+                if (length == chunkLength && !chunks.isEmpty())
+                {
+                    return chunks.pop();
+                }
+            }
+
+            try
+            {
+                return new int[length];
+            }
+            catch (OutOfMemoryError e)
+            {
+                // chunks of a different length are of no use, so give them up and try once more
+                synchronized (this)
+                {
+                    chunks.clear();
+                }
+                return new int[length];
+            }
+        }
+
+        synchronized void recycle(int[][] VV)
+        {
+            if (retainers == 0)
+            {
+                return;
+            }
+
+            for (int i = 0; i < VV.length && VV[i] != null; ++i)
+            {
+                int[] V = VV[i];
+                if (V.length != chunkLength)
+                {
+                    chunks.clear();
+                    chunkLength = V.length;
+                }
+                if ((long)(chunks.size() + 1) * chunkLength * 4 > SCRATCH_BUDGET)
+                {
+                    return;
+                }
+                chunks.push(V);
+            }
+        }
+    }
 }
@@ -0,0 +1,55 @@
+package com.beemdevelopment.aegis.crypto.otp;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A reusable HOTP generator for a single secret. Contrary to HOTP.generateOTP(), it keeps
+ * its Mac initialized with the secret and reuses its buffers, so that generating a code
+ * doesn't allocate anything. Instances are not thread-safe.
+ */
+public class HOTPGenerator {
+    private final Mac _mac;
+    private final byte[] _counter = new byte[8];
+    private final byte[] _hash;
+
+    public HOTPGenerator(byte[] secret, String algo)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        _mac = Mac.getInstance(algo);
+        _mac.init(new SecretKeySpec(secret, "RAW"));
+        _hash = new byte[_mac.getMacLength()];
+    }
+
+    /**
+     * Calculates the hash of the given counter. The returned array is reused by the next
+     * call to this method, so callers must not hold on to it.
+     */
+    public byte[] getHash(long counter) {
+        // encode counter in big endian
+        for (int i = _counter.length - 1; i >= 0; i--) {
+            _counter[i] = (byte) counter;
+            counter >>>= 8;
+        }
+
+        _mac.update(_counter);
+        try {
+            _mac.doFinal(_hash, 0);
+        } catch (ShortBufferException e) {
+            throw new AssertionError(e);
+        }
+
+        return _hash;
+    }
+
+    /**
+     * Generates the HOTP value for the given counter, before it is reduced to a
+     * number of digits. See OTP.toString(int, int) to format it.
+     */
+    public int generate(long counter) {
+        return HOTP.truncate(getHash(counter));
+    }
+}
@@ -24,27 +24,36 @@ public class OTP {
     @NonNull
     @Override
     public String toString() {
-        int code = _code % (int) Math.pow(10, _digits);
+        return toString(_code, _digits);
+    }
+
+    public String toSteamString() {
+        return toSteamString(_code, _digits);
+    }
 
-        // prepend zeroes if needed
-        StringBuilder res = new StringBuilder(Long.toString(code));
-        while (res.length() < _digits) {
-            res.insert(0, "0");
+    /**
+     * Formats the given HOTP value as a code with the given amount of digits, prepended
+     * with zeroes if needed.
+     */
+    @NonNull
+    public static String toString(int code, int digits) {
+        char[] chars = new char[digits];
+        for (int i = digits - 1; i >= 0; i--) {
+            chars[i] = (char) ('0' + code % 10);
+            code /= 10;
         }
 
-        return res.toString();
+        return new String(chars);
     }
 
-    public String toSteamString() {
-        int code = _code;
-        StringBuilder res = new StringBuilder();
-
-        for (int i = 0; i < _digits; i++) {
-            char c = STEAM_ALPHABET.charAt(code % STEAM_ALPHABET.length());
-            res.append(c);
+    @NonNull
+    public static String toSteamString(int code, int digits) {
+        char[] chars = new char[digits];
+        for (int i = 0; i < digits; i++) {
+            chars[i] = STEAM_ALPHABET.charAt(code % STEAM_ALPHABET.length());
             code /= STEAM_ALPHABET.length();
         }
 
-        return res.toString();
+        return new String(chars);
     }
 }
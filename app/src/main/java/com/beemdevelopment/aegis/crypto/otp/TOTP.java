@@ -10,8 +10,11 @@ public class TOTP {
 
     public static OTP generateOTP(byte[] secret, String algo, int digits, long period, long seconds)
             throws InvalidKeyException, NoSuchAlgorithmException {
-        long counter = (long) Math.floor((double) seconds / period);
-        return HOTP.generateOTP(secret, algo, digits, counter);
+        return HOTP.generateOTP(secret, algo, digits, getCounter(period, seconds));
+    }
+
+    public static long getCounter(long period, long seconds) {
+        return (long) Math.floor((double) seconds / period);
     }
 
     public static OTP generateOTP(byte[] secret, String algo, int digits, long period)
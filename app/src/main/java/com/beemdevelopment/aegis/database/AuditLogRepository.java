@@ -26,6 +26,11 @@ public class AuditLogRepository {
         insert(auditLogEntry);
     }
 
+    public void addVaultUnlockedCachedKeyEvent() {
+        AuditLogEntry auditLogEntry = new AuditLogEntry(EventType.VAULT_UNLOCKED_CACHED_KEY);
+        insert(auditLogEntry);
+    }
+
     public void addBackupCreatedEvent() {
         AuditLogEntry auditLogEntry = new AuditLogEntry(EventType.VAULT_BACKUP_CREATED);
         insert(auditLogEntry);
@@ -21,7 +21,18 @@ public class Base64 {
         return decode(new String(s, StandardCharsets.UTF_8));
     }
 
+    /**
+     * Reports whether the given string is valid Base64, without actually decoding it.
+     */
+    public static boolean canDecode(String s) {
+        return BaseEncoding.base64().canDecode(s);
+    }
+
     public static String encode(byte[] data) {
         return BaseEncoding.base64().encode(data);
     }
+
+    public static String encode(byte[] data, int offset, int length) {
+        return BaseEncoding.base64().encode(data, offset, length);
+    }
 }
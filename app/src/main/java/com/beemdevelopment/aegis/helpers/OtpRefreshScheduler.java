@@ -0,0 +1,240 @@
+package com.beemdevelopment.aegis.helpers;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+
+import com.beemdevelopment.aegis.crypto.otp.TOTP;
+import com.beemdevelopment.aegis.otp.OtpInfoException;
+import com.beemdevelopment.aegis.otp.TotpInfo;
+import com.beemdevelopment.aegis.vault.VaultEntry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Refreshes the codes of TOTP entries in batches. Instead of running a timer for every
+ * entry, a single tick is scheduled for every period that is in use. Shortly before every
+ * period boundary, the codes of all entries with that period are generated on a
+ * background thread for the upcoming period and the ones after it. At the boundary, the
+ * precomputed codes are handed to the listener on the UI thread in one go.
+ */
+public class OtpRefreshScheduler {
+    // how long before the period boundary to start generating the codes
+    private static final long LOOKAHEAD_MILLIS = 2000;
+    // the number of periods after the upcoming one to generate codes for
+    private static final int LOOKAHEAD_PERIODS = 2;
+
+    private final Listener _listener;
+    private final Handler _handler;
+    private final ExecutorService _executor;
+    private final Map<Integer, Tick> _ticks = new HashMap<>();
+
+    public OtpRefreshScheduler(Listener listener) {
+        _listener = listener;
+        _handler = new Handler(Looper.getMainLooper());
+        _executor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Sets the periods that ticks should be scheduled for. Ticks for periods that are no
+     * longer in use are cancelled, including any batch that is still in flight for them.
+     */
+    public void setPeriods(Set<Integer> periods) {
+        Iterator<Tick> it = _ticks.values().iterator();
+        while (it.hasNext()) {
+            Tick tick = it.next();
+            if (!periods.contains(tick._period)) {
+                tick.cancel();
+                it.remove();
+            }
+        }
+
+        for (int period : periods) {
+            if (!_ticks.containsKey(period)) {
+                Tick tick = new Tick(period);
+                _ticks.put(period, tick);
+                tick.schedule();
+            }
+        }
+    }
+
+    public void destroy() {
+        setPeriods(Collections.emptySet());
+        _executor.shutdownNow();
+    }
+
+    private class Tick {
+        private final int _period;
+        private final Runnable _prepare = this::prepare;
+        private final Runnable _publish = this::publish;
+        private long _boundary;
+        private Map<UUID, Codes> _codes;
+        private boolean _due;
+        private boolean _cancelled;
+
+        public Tick(int period) {
+            _period = period;
+        }
+
+        public void schedule() {
+            long periodMillis = _period * 1000L;
+            long now = System.currentTimeMillis();
+            _boundary = (now / periodMillis + 1) * periodMillis;
+            _codes = null;
+            _due = false;
+
+            long lookahead = Math.min(LOOKAHEAD_MILLIS, periodMillis / 2);
+            _handler.postDelayed(_prepare, Math.max(0, _boundary - lookahead - now));
+            _handler.postDelayed(_publish, _boundary - now);
+        }
+
+        public void cancel() {
+            _cancelled = true;
+            _handler.removeCallbacks(_prepare);
+            _handler.removeCallbacks(_publish);
+        }
+
+        private void prepare() {
+            // copy the OTP info of the entries on the UI thread, so that the background
+            // thread never touches the entries or their OTP info themselves
+            List<Job> jobs = new ArrayList<>();
+            for (VaultEntry entry : _listener.getEntries(_period)) {
+                if (entry.getInfo() instanceof TotpInfo) {
+                    jobs.add(new Job(entry.getUUID(), (TotpInfo) entry.getInfo()));
+                }
+            }
+
+            long boundary = _boundary;
+            if (jobs.isEmpty()) {
+                onPrepared(boundary, Collections.emptyMap());
+                return;
+            }
+
+            _executor.execute(() -> {
+                Map<UUID, Codes> codes = new HashMap<>(jobs.size() * 2);
+                for (Job job : jobs) {
+                    codes.put(job._uuid, job.compute(boundary / 1000));
+                }
+
+                _handler.post(() -> onPrepared(boundary, codes));
+            });
+        }
+
+        private void onPrepared(long boundary, Map<UUID, Codes> codes) {
+            if (_cancelled || boundary != _boundary) {
+                return;
+            }
+
+            _codes = codes;
+            if (_due) {
+                deliver();
+            }
+        }
+
+        private void publish() {
+            // if the codes are not ready yet, they're delivered as soon as they are
+            _due = true;
+            if (_codes != null) {
+                deliver();
+            }
+        }
+
+        private void deliver() {
+            Map<UUID, Codes> codes = _codes;
+            schedule();
+            _listener.onCodesRefreshed(_period, codes);
+        }
+    }
+
+    private static class Job {
+        private final UUID _uuid;
+        // only handed back through Codes, so that the UI thread can check that the entry still refers to it
+        private final TotpInfo _info;
+        private final TotpInfo _copy;
+
+        public Job(UUID uuid, TotpInfo info) {
+            _uuid = uuid;
+            _info = info;
+            _copy = (TotpInfo) info.clone();
+        }
+
+        public Codes compute(long time) {
+            String[] codes = new String[LOOKAHEAD_PERIODS + 1];
+            for (int i = 0; i < codes.length; i++) {
+                try {
+                    codes[i] = _copy.getOtp(time + (long) i * _copy.getPeriod());
+                } catch (OtpInfoException e) {
+                    codes[i] = null;
+                }
+            }
+
+            return new Codes(_info, time, codes);
+        }
+    }
+
+    public static class Codes {
+        private final TotpInfo _info;
+        private final long _time;
+        private final String[] _codes;
+
+        private Codes(TotpInfo info, long time, String[] codes) {
+            _info = info;
+            _time = time;
+            _codes = codes;
+        }
+
+        /**
+         * Returns the OTP info the codes were generated with. The codes should be
+         * discarded if the entry no longer refers to this instance.
+         */
+        public TotpInfo getInfo() {
+            return _info;
+        }
+
+        /**
+         * Returns the time (in seconds) at the start of the first period codes were
+         * generated for.
+         */
+        public long getTime() {
+            return _time;
+        }
+
+        /**
+         * Returns the code for the given time (in seconds) or null if it's outside the
+         * range that was generated or the code could not be generated.
+         */
+        @Nullable
+        public String getCode(long time) {
+            long index = TOTP.getCounter(_info.getPeriod(), time) - TOTP.getCounter(_info.getPeriod(), _time);
+            if (index < 0 || index >= _codes.length) {
+                return null;
+            }
+
+            return _codes[(int) index];
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Returns the entries with the given period that need a new code. This is
+         * called on the UI thread.
+         */
+        Collection<VaultEntry> getEntries(int period);
+
+        /**
+         * Called on the UI thread with the codes of all entries of a tick, mapped by UUID.
+         */
+        void onCodesRefreshed(int period, Map<UUID, Codes> codes);
+    }
+}
@@ -24,10 +24,12 @@ public class IconPack {
     private String _name;
     private int _version;
     private List<Icon> _icons;
+    // published once it's loaded, so that the UI thread never waits for the lock of getIndex()
+    private volatile IconPackIndex _index;
 
     private File _dir;
 
-    private IconPack(UUID uuid, String name, int version, List<Icon> icons) {
+    IconPack(UUID uuid, String name, int version, List<Icon> icons) {
         _uuid = uuid;
         _name = name;
         _version = version;
@@ -51,30 +53,86 @@ public class IconPack {
     }
 
     /**
-     * Retrieves a list of icons suggested for the given issuer.
+     * Removes the icons that don't have a file, e.g. because they were invalid and were
+     * skipped during the import. Must be called before the index is built.
+     */
+    void removeIconsWithoutFile() {
+        _icons.removeIf(icon -> icon.getFile() == null);
+    }
+
+    /**
+     * Retrieves a list of icons suggested for the given issuer. If the index isn't loaded
+     * yet, the icons are scanned one by one instead, so that the caller never has to wait
+     * for the index.
      */
     public List<Icon> getSuggestedIcons(String issuer) {
         if (issuer == null || issuer.isEmpty()) {
             return new ArrayList<>();
         }
 
+        IconPackIndex index = _index;
+        if (index == null) {
+            return getSuggestedIconsLinear(issuer);
+        }
+
+        // Inverse matches (entry issuer contains icon name) are less likely
+        // to be good, so they're positioned at the end of the list.
+        int[] positions = index.getSuggestions(issuer);
+        List<Icon> icons = new ArrayList<>(positions.length);
+        for (int pos : positions) {
+            icons.add(_icons.get(pos));
+        }
+
+        return icons;
+    }
+
+    private List<Icon> getSuggestedIconsLinear(String issuer) {
         List<Icon> icons = new ArrayList<>();
+        String lowerEntryIssuer = issuer.toLowerCase();
         for (Icon icon : _icons) {
-            MatchType matchType = icon.getMatchFor(issuer);
-            if (matchType != null) {
-                // Inverse matches (entry issuer contains icon name) are less likely
-                // to be good, so position them at the end of the list.
-                if (matchType.equals(MatchType.NORMAL)) {
-                    icons.add(0, icon);
-                } else if (matchType.equals(MatchType.INVERSE)) {
-                    icons.add(icon);
+            boolean normalMatch = false;
+            boolean inverseMatch = false;
+            for (String is : icon.getIssuers()) {
+                String lowerIconIssuer = is.toLowerCase();
+                if (lowerIconIssuer.contains(lowerEntryIssuer)) {
+                    normalMatch = true;
+                    break;
+                }
+                if (lowerEntryIssuer.contains(lowerIconIssuer)) {
+                    inverseMatch = true;
                 }
             }
+
+            if (normalMatch) {
+                icons.add(0, icon);
+            } else if (inverseMatch) {
+                icons.add(icon);
+            }
         }
 
         return icons;
     }
 
+    /**
+     * Returns the index over the issuers of the icons in this pack. It's loaded from the
+     * directory of the pack, or built if it wasn't stored there. This blocks until the index
+     * is available, so it must not be called on the UI thread. IconPackManager calls this on
+     * a background thread for every pack it finds.
+     */
+    synchronized IconPackIndex getIndex() {
+        if (_index == null) {
+            _index = _dir != null ? IconPackIndex.load(_dir, _icons) : IconPackIndex.build(_icons);
+        }
+        return _index;
+    }
+
+    synchronized void setIndex(@NonNull IconPackIndex index) {
+        if (index.getIconCount() != _icons.size()) {
+            throw new IllegalArgumentException("The index was built for a different icon pack");
+        }
+        _index = index;
+    }
+
     @Nullable
     public File getDirectory() {
         return _dir;
@@ -173,24 +231,16 @@ public class IconPack {
             return _category;
         }
 
-        private MatchType getMatchFor(String issuer) {
-            String lowerEntryIssuer = issuer.toLowerCase();
-
-            boolean inverseMatch = false;
-            for (String is : _issuers) {
-                String lowerIconIssuer = is.toLowerCase();
-                if (lowerIconIssuer.contains(lowerEntryIssuer)) {
-                    return MatchType.NORMAL;
-                }
-                if (lowerEntryIssuer.contains(lowerIconIssuer)) {
-                    inverseMatch = true;
-                }
-            }
-            if (inverseMatch) {
-                return MatchType.INVERSE;
-            }
+        /**
+         * Returns the name of the icon as specified in the icon pack definition, if any.
+         */
+        @Nullable
+        String getRawName() {
+            return _name;
+        }
 
-            return null;
+        public List<String> getIssuers() {
+            return Collections.unmodifiableList(_issuers);
         }
 
         public static Icon fromJson(JSONObject obj) throws JSONException {
@@ -208,9 +258,4 @@ public class IconPack {
             return new Icon(filename, name, category, issuers);
         }
     }
-
-    private enum MatchType {
-        NORMAL,
-        INVERSE
-    }
 }
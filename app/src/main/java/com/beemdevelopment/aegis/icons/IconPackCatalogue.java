@@ -0,0 +1,289 @@
+package com.beemdevelopment.aegis.icons;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.UUID;
+
+/**
+ * A compact binary copy of the definition of an icon pack, stored alongside its pack.json.
+ * Icon packs never change after they've been imported, so IconPackManager memory-maps the
+ * catalogue on startup instead of parsing pack.json. Icons are only decoded when they're
+ * first accessed. The catalogue consists of:
+ *
+ * - A header: MAGIC, VERSION, the UUID, version and name of the pack, the number of icons
+ * - A table with the filename, name, category and issuer list of every icon
+ * - The issuer lists: the number of issuers, followed by the issuers
+ * - The strings: the length of the UTF-8 encoded string, followed by the string
+ *
+ * Strings and issuer lists are referred to by their offset in the file, or NULL_REF. Every
+ * offset is validated when the catalogue is read, so that a corrupt catalogue is rejected
+ * up front instead of failing when one of its icons is first accessed.
+ */
+class IconPackCatalogue {
+    static final String FILENAME = "catalogue.bin";
+
+    private static final int MAGIC = 0x41494343;
+    private static final int VERSION = 1;
+    private static final int NULL_REF = -1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+    private static final int ICON_SIZE = 4 * 4;
+
+    private IconPackCatalogue() {
+
+    }
+
+    /**
+     * Writes a catalogue of the given icon pack to the given file. The file is replaced
+     * atomically, so that a catalogue is never left half-written.
+     */
+    static void write(IconPack pack, File file) throws IOException {
+        List<IconPack.Icon> icons = pack.getIcons();
+
+        // the strings and issuer lists are written after the table, so their offsets are known up front
+        Map<String, Integer> stringRefs = new HashMap<>();
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        DataOutputStream stringStream = new DataOutputStream(strings);
+        ByteArrayOutputStream lists = new ByteArrayOutputStream();
+        DataOutputStream listStream = new DataOutputStream(lists);
+        int[][] table = new int[icons.size()][];
+
+        for (int i = 0; i < icons.size(); i++) {
+            IconPack.Icon icon = icons.get(i);
+            List<String> issuers = icon.getIssuers();
+            int[] issuerRefs = new int[issuers.size()];
+            for (int j = 0; j < issuers.size(); j++) {
+                issuerRefs[j] = putString(issuers.get(j), stringRefs, stringStream);
+            }
+
+            table[i] = new int[]{
+                    putString(icon.getRelativeFilename(), stringRefs, stringStream),
+                    putString(icon.getRawName(), stringRefs, stringStream),
+                    putString(icon.getCategory(), stringRefs, stringStream),
+                    lists.size()
+            };
+            listStream.writeInt(issuerRefs.length);
+            for (int ref : issuerRefs) {
+                listStream.writeInt(ref);
+            }
+        }
+        int nameRef = putString(pack.getName(), stringRefs, stringStream);
+
+        int listsOffset = HEADER_SIZE + icons.size() * ICON_SIZE;
+        int stringsOffset = listsOffset + lists.size();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(stringsOffset + strings.size());
+        DataOutputStream stream = new DataOutputStream(bytes);
+        stream.writeInt(MAGIC);
+        stream.writeInt(VERSION);
+        stream.writeLong(pack.getUUID().getMostSignificantBits());
+        stream.writeLong(pack.getUUID().getLeastSignificantBits());
+        stream.writeInt(pack.getVersion());
+        stream.writeInt(toOffset(nameRef, stringsOffset));
+        stream.writeInt(icons.size());
+        for (int[] icon : table) {
+            stream.writeInt(toOffset(icon[0], stringsOffset));
+            stream.writeInt(toOffset(icon[1], stringsOffset));
+            stream.writeInt(toOffset(icon[2], stringsOffset));
+            stream.writeInt(toOffset(icon[3], listsOffset));
+        }
+        stream.flush();
+
+        // the issuer refs in the lists are still relative to the start of the strings
+        ByteBuffer listBuf = ByteBuffer.wrap(lists.toByteArray());
+        while (listBuf.hasRemaining()) {
+            int count = listBuf.getInt();
+            for (int i = 0; i < count; i++) {
+                int pos = listBuf.position();
+                listBuf.putInt(pos, toOffset(listBuf.getInt(), stringsOffset));
+            }
+        }
+        bytes.write(listBuf.array());
+        strings.writeTo(bytes);
+
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream outStream = new FileOutputStream(tempFile)) {
+            bytes.writeTo(outStream);
+            outStream.getFD().sync();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException(String.format("Unable to rename %s to %s", tempFile, file));
+        }
+    }
+
+    /**
+     * Memory-maps the catalogue in the given file and returns the icon pack it describes.
+     * The files of the icons are resolved relative to the given directory.
+     */
+    static IconPack read(File file, File dir) throws IOException {
+        MappedByteBuffer buf;
+        try (FileInputStream inStream = new FileInputStream(file);
+             FileChannel channel = inStream.getChannel()) {
+            // the mapping stays valid after the channel is closed
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+                throw new IOException("Unsupported icon pack catalogue");
+            }
+
+            UUID uuid = new UUID(buf.getLong(8), buf.getLong(16));
+            int version = buf.getInt(24);
+            int nameOffset = buf.getInt(28);
+            checkString(buf, nameOffset);
+            String name = readString(buf, nameOffset);
+            int iconCount = buf.getInt(32);
+            if (iconCount < 0 || (long) HEADER_SIZE + (long) iconCount * ICON_SIZE > buf.limit()) {
+                throw new IOException("Corrupt icon pack catalogue");
+            }
+            for (int i = 0; i < iconCount; i++) {
+                checkIcon(buf, i);
+            }
+
+            return new IconPack(uuid, name, version, new IconList(buf, iconCount, dir));
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Corrupt icon pack catalogue", e);
+        }
+    }
+
+    private static int putString(@Nullable String s, Map<String, Integer> refs, DataOutputStream stream) throws IOException {
+        if (s == null) {
+            return NULL_REF;
+        }
+
+        Integer ref = refs.get(s);
+        if (ref == null) {
+            ref = stream.size();
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            stream.writeInt(bytes.length);
+            stream.write(bytes);
+            refs.put(s, ref);
+        }
+        return ref;
+    }
+
+    private static int toOffset(int ref, int base) {
+        return ref == NULL_REF ? NULL_REF : base + ref;
+    }
+
+    /**
+     * Checks that the table row of the icon at the given index and everything it refers to
+     * lie within the catalogue.
+     */
+    private static void checkIcon(ByteBuffer buf, int index) throws IOException {
+        int offset = HEADER_SIZE + index * ICON_SIZE;
+        if (buf.getInt(offset) == NULL_REF) {
+            throw new IOException(String.format("Icon %d has no filename", index));
+        }
+        for (int i = 0; i < 3; i++) {
+            checkString(buf, buf.getInt(offset + i * 4));
+        }
+
+        int listOffset = buf.getInt(offset + 12);
+        if (listOffset < 0 || (long) listOffset + 4 > buf.limit()) {
+            throw new IOException(String.format("Issuer list of icon %d out of bounds", index));
+        }
+        int count = buf.getInt(listOffset);
+        if (count < 0 || listOffset + 4 + (long) count * 4 > buf.limit()) {
+            throw new IOException(String.format("Issuer list of icon %d out of bounds", index));
+        }
+        for (int i = 0; i < count; i++) {
+            checkString(buf, buf.getInt(listOffset + 4 + i * 4));
+        }
+    }
+
+    private static void checkString(ByteBuffer buf, int offset) throws IOException {
+        if (offset == NULL_REF) {
+            return;
+        }
+
+        if (offset < 0 || (long) offset + 4 > buf.limit()) {
+            throw new IOException(String.format("String at %d out of bounds", offset));
+        }
+        int length = buf.getInt(offset);
+        if (length < 0 || (long) offset + 4 + length > buf.limit()) {
+            throw new IOException(String.format("String at %d out of bounds", offset));
+        }
+    }
+
+    @Nullable
+    private static String readString(ByteBuffer buf, int offset) {
+        if (offset == NULL_REF) {
+            return null;
+        }
+
+        int length = buf.getInt(offset);
+
+        byte[] bytes = new byte[length];
+        ByteBuffer dup = buf.duplicate();
+        dup.position(offset + 4);
+        dup.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A list of the icons in a catalogue that decodes every icon on first access. The
+     * catalogue must have been validated by read() already.
+     */
+    private static class IconList extends AbstractList<IconPack.Icon> implements RandomAccess {
+        private final ByteBuffer _buf;
+        private final File _dir;
+        private final IconPack.Icon[] _icons;
+
+        private IconList(ByteBuffer buf, int size, File dir) {
+            _buf = buf;
+            _dir = dir;
+            _icons = new IconPack.Icon[size];
+        }
+
+        @Override
+        public synchronized IconPack.Icon get(int index) {
+            IconPack.Icon icon = _icons[index];
+            if (icon == null) {
+                icon = decode(index);
+                _icons[index] = icon;
+            }
+            return icon;
+        }
+
+        @Override
+        public int size() {
+            return _icons.length;
+        }
+
+        private IconPack.Icon decode(int index) {
+            int offset = HEADER_SIZE + index * ICON_SIZE;
+            String filename = readString(_buf, _buf.getInt(offset));
+            String name = readString(_buf, _buf.getInt(offset + 4));
+            String category = readString(_buf, _buf.getInt(offset + 8));
+
+            int listOffset = _buf.getInt(offset + 12);
+            int count = _buf.getInt(listOffset);
+            List<String> issuers = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                issuers.add(readString(_buf, _buf.getInt(listOffset + 4 + i * 4)));
+            }
+
+            IconPack.Icon icon = new IconPack.Icon(filename, name, category, issuers);
+            icon.setFile(new File(_dir, filename));
+            return icon;
+        }
+    }
+}
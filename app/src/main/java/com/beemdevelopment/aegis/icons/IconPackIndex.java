@@ -0,0 +1,378 @@
+package com.beemdevelopment.aegis.icons;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An index over the issuers of the icons in an icon pack. It suggests icons for an issuer
+ * without having to lowercase and compare every issuer of every icon. The distinct
+ * lowercased issuers are concatenated, each followed by a NUL character, and the icons
+ * that have an issuer are kept in a posting list.
+ *
+ * An icon is a NORMAL match if one of its issuers contains the given issuer. Those are found
+ * with a binary search in a suffix array over the concatenated issuers. An icon is an INVERSE
+ * match if one of its issuers is contained in the given issuer. Those are found by looking up
+ * every substring of the given issuer that isn't longer than the longest issuer in a map.
+ *
+ * The index is built when an icon pack is imported and stored alongside its pack.json.
+ * IconPackManager loads it in the background after it has scanned the icon packs, so that
+ * suggesting icons doesn't have to read it from disk on the UI thread.
+ */
+class IconPackIndex {
+    static final String FILENAME = "index.bin";
+
+    private static final int MAGIC = 0x41494458;
+    private static final int VERSION = 1;
+    private static final char SEPARATOR = '\0';
+
+    private final int _iconCount;
+    private final Locale _locale;
+    private final char[] _text;
+    // the start of every issuer in _text
+    private final int[] _starts;
+    // the icons of issuer i are _postings[_postingOffsets[i]] up to _postings[_postingOffsets[i + 1]]
+    private final int[] _postingOffsets;
+    private final int[] _postings;
+    // the positions of the suffixes in _text, in lexicographic order
+    private final int[] _suffixes;
+
+    private final Map<String, Integer> _issuerIds;
+    private final int _maxIssuerLength;
+
+    private IconPackIndex(int iconCount, Locale locale, char[] text, int[] starts, int[] postingOffsets, int[] postings, int[] suffixes) {
+        _iconCount = iconCount;
+        _locale = locale;
+        _text = text;
+        _starts = starts;
+        _postingOffsets = postingOffsets;
+        _postings = postings;
+        _suffixes = suffixes;
+
+        _issuerIds = new HashMap<>(starts.length * 2);
+        int maxLength = 0;
+        for (int i = 0; i < starts.length; i++) {
+            int length = getIssuerLength(i);
+            _issuerIds.put(new String(text, starts[i], length), i);
+            maxLength = Math.max(maxLength, length);
+        }
+        _maxIssuerLength = maxLength;
+    }
+
+    /**
+     * Builds an index over the issuers of the given icons.
+     */
+    static IconPackIndex build(List<IconPack.Icon> icons) {
+        Locale locale = Locale.getDefault();
+
+        Map<String, List<Integer>> issuers = new LinkedHashMap<>();
+        for (int i = 0; i < icons.size(); i++) {
+            for (String issuer : icons.get(i).getIssuers()) {
+                List<Integer> postings = issuers.get(issuer.toLowerCase(locale));
+                if (postings == null) {
+                    postings = new ArrayList<>();
+                    issuers.put(issuer.toLowerCase(locale), postings);
+                }
+                if (postings.isEmpty() || postings.get(postings.size() - 1) != i) {
+                    postings.add(i);
+                }
+            }
+        }
+
+        StringBuilder text = new StringBuilder();
+        int[] starts = new int[issuers.size()];
+        int[] postingOffsets = new int[issuers.size() + 1];
+        List<Integer> postings = new ArrayList<>();
+        List<Integer> suffixes = new ArrayList<>();
+
+        int id = 0;
+        for (Map.Entry<String, List<Integer>> issuer : issuers.entrySet()) {
+            starts[id] = text.length();
+            for (int i = 0; i < issuer.getKey().length(); i++) {
+                suffixes.add(text.length() + i);
+            }
+            text.append(issuer.getKey()).append(SEPARATOR);
+
+            postings.addAll(issuer.getValue());
+            postingOffsets[++id] = postings.size();
+        }
+
+        char[] chars = new char[text.length()];
+        text.getChars(0, text.length(), chars, 0);
+        suffixes.sort((a, b) -> compareSuffixes(chars, a, b));
+
+        return new IconPackIndex(icons.size(), locale, chars, starts,
+                postingOffsets, toArray(postings), toArray(suffixes));
+    }
+
+    /**
+     * Loads the index of the icon pack in the given directory. If it's missing (e.g. because
+     * the pack was imported by an older version of Aegis) or stale, it's rebuilt from the
+     * given icons and stored again.
+     */
+    static IconPackIndex load(File dir, List<IconPack.Icon> icons) {
+        File file = new File(dir, FILENAME);
+        if (file.exists()) {
+            try (InputStream inStream = new BufferedInputStream(new FileInputStream(file))) {
+                return read(inStream, icons.size());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        IconPackIndex index = build(icons);
+        try {
+            index.write(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return index;
+    }
+
+    /**
+     * Returns the positions of the icons suggested for the given issuer: the NORMAL matches
+     * in reverse order, followed by the INVERSE matches.
+     */
+    int[] getSuggestions(String issuer) {
+        String query = issuer.toLowerCase(_locale);
+
+        BitSet normal = new BitSet(_iconCount);
+        BitSet seen = new BitSet(_starts.length);
+        int end = search(query, true);
+        for (int i = search(query, false); i < end; i++) {
+            int id = getIssuerId(_suffixes[i]);
+            if (!seen.get(id)) {
+                seen.set(id);
+                addPostings(id, normal);
+            }
+        }
+
+        BitSet inverse = new BitSet(_iconCount);
+        Integer emptyId = _issuerIds.get("");
+        if (emptyId != null) {
+            addPostings(emptyId, inverse);
+        }
+        for (int start = 0; start < query.length(); start++) {
+            int maxEnd = Math.min(query.length(), start + _maxIssuerLength);
+            for (int i = start + 1; i <= maxEnd; i++) {
+                Integer id = _issuerIds.get(query.substring(start, i));
+                if (id != null) {
+                    addPostings(id, inverse);
+                }
+            }
+        }
+        inverse.andNot(normal);
+
+        int[] res = new int[normal.cardinality() + inverse.cardinality()];
+        int n = 0;
+        for (int i = normal.previousSetBit(_iconCount - 1); i >= 0; i = normal.previousSetBit(i - 1)) {
+            res[n++] = i;
+        }
+        for (int i = inverse.nextSetBit(0); i >= 0; i = inverse.nextSetBit(i + 1)) {
+            res[n++] = i;
+        }
+
+        return res;
+    }
+
+    int getIconCount() {
+        return _iconCount;
+    }
+
+    /**
+     * Writes the index to the given file. The file is replaced atomically, so that an index
+     * is never left half-written.
+     */
+    void write(File file) throws IOException {
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream outStream = new FileOutputStream(tempFile)) {
+            write(new BufferedOutputStream(outStream));
+            outStream.getFD().sync();
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException(String.format("Unable to rename %s to %s", tempFile, file));
+        }
+    }
+
+    void write(OutputStream outStream) throws IOException {
+        DataOutputStream stream = new DataOutputStream(outStream);
+        stream.writeInt(MAGIC);
+        stream.writeInt(VERSION);
+        stream.writeUTF(_locale.toLanguageTag());
+        stream.writeInt(_iconCount);
+        stream.writeInt(_text.length);
+        for (char c : _text) {
+            stream.writeChar(c);
+        }
+        writeInts(stream, _starts);
+        writeInts(stream, _postingOffsets);
+        writeInts(stream, _postings);
+        writeInts(stream, _suffixes);
+        stream.flush();
+    }
+
+    /**
+     * Reads an index that was previously written with write(OutputStream). An IOException is
+     * thrown if the index is corrupt, or if it was built for a different number of icons or
+     * with a different locale, in which case it should be rebuilt.
+     */
+    static IconPackIndex read(InputStream inStream, int iconCount) throws IOException {
+        DataInputStream stream = new DataInputStream(inStream);
+        if (stream.readInt() != MAGIC || stream.readInt() != VERSION) {
+            throw new IOException("Unsupported icon pack index");
+        }
+
+        Locale locale = Locale.forLanguageTag(stream.readUTF());
+        if (!locale.equals(Locale.getDefault()) || stream.readInt() != iconCount) {
+            throw new IOException("Stale icon pack index");
+        }
+
+        char[] text = new char[checkLength(stream.readInt())];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = stream.readChar();
+        }
+        int[] starts = readInts(stream);
+        int[] postingOffsets = readInts(stream);
+        int[] postings = readInts(stream);
+        int[] suffixes = readInts(stream);
+
+        // make sure that a corrupt index can't cause out of bounds reads later on
+        if (postingOffsets.length != starts.length + 1
+                || postingOffsets[0] != 0
+                || postingOffsets[starts.length] != postings.length
+                || (text.length > 0 && text[text.length - 1] != SEPARATOR)) {
+            throw new IOException("Corrupt icon pack index");
+        }
+        for (int i = 0; i < starts.length; i++) {
+            if (starts[i] < 0 || starts[i] >= text.length || (i > 0 && starts[i] <= starts[i - 1])
+                    || postingOffsets[i] > postingOffsets[i + 1]) {
+                throw new IOException("Corrupt icon pack index");
+            }
+        }
+        for (int posting : postings) {
+            if (posting < 0 || posting >= iconCount) {
+                throw new IOException("Corrupt icon pack index");
+            }
+        }
+        for (int suffix : suffixes) {
+            if (suffix < 0 || suffix >= text.length) {
+                throw new IOException("Corrupt icon pack index");
+            }
+        }
+
+        return new IconPackIndex(iconCount, locale, text, starts, postingOffsets, postings, suffixes);
+    }
+
+    /**
+     * Returns the position in _suffixes of the first suffix that starts with the given query
+     * (or the first one after it if upper is true).
+     */
+    private int search(String query, boolean upper) {
+        int lo = 0;
+        int hi = _suffixes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = comparePrefix(_suffixes[mid], query);
+            if (cmp < 0 || (upper && cmp == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo;
+    }
+
+    private int comparePrefix(int pos, String query) {
+        for (int i = 0; i < query.length(); i++) {
+            char c = _text[pos + i];
+            if (c == SEPARATOR) {
+                return -1;
+            }
+            if (c != query.charAt(i)) {
+                return c < query.charAt(i) ? -1 : 1;
+            }
+        }
+
+        return 0;
+    }
+
+    private int getIssuerId(int pos) {
+        int i = Arrays.binarySearch(_starts, pos);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    private int getIssuerLength(int id) {
+        int end = id + 1 < _starts.length ? _starts[id + 1] : _text.length;
+        return end - _starts[id] - 1;
+    }
+
+    private void addPostings(int id, BitSet icons) {
+        for (int i = _postingOffsets[id]; i < _postingOffsets[id + 1]; i++) {
+            icons.set(_postings[i]);
+        }
+    }
+
+    private static int compareSuffixes(char[] text, int a, int b) {
+        while (true) {
+            char ca = text[a++];
+            char cb = text[b++];
+            if (ca != cb) {
+                return Character.compare(ca, cb);
+            }
+            if (ca == SEPARATOR) {
+                return 0;
+            }
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static void writeInts(DataOutputStream stream, int[] array) throws IOException {
+        stream.writeInt(array.length);
+        for (int i : array) {
+            stream.writeInt(i);
+        }
+    }
+
+    private static int[] readInts(DataInputStream stream) throws IOException {
+        int[] array = new int[checkLength(stream.readInt())];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = stream.readInt();
+        }
+        return array;
+    }
+
+    private static int checkLength(int length) throws IOException {
+        // nothing in an icon pack comes close to this, so don't allocate it
+        if (length < 0 || length > 64 * 1024 * 1024) {
+            throw new IOException("Corrupt icon pack index");
+        }
+        return length;
+    }
+}
@@ -1,10 +1,16 @@
 package com.beemdevelopment.aegis.icons;
 
 import android.content.Context;
+import android.system.ErrnoException;
+import android.system.Os;
 
 import androidx.annotation.Nullable;
 
 import com.beemdevelopment.aegis.util.IOUtils;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Bytes;
 
 import net.lingala.zip4j.ZipFile;
 import net.lingala.zip4j.io.inputstream.ZipInputStream;
@@ -16,16 +22,38 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class IconPackManager {
     private static final String _packDefFilename = "pack.json";
+    private static final int MAX_IMPORT_THREADS = 4;
+    // icons are read into memory to validate them, so anything larger than this is rejected
+    private static final int MAX_ICON_SIZE = 4 * 1024 * 1024;
+
+    private static final byte[] UTF8_BOM = new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] SVG_TAG = "<svg".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PNG_SIGNATURE = new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] JPEG_SIGNATURE = new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
 
     private File _iconsBaseDir;
     private List<IconPack> _iconPacks;
+    // loads the issuer indexes of the icon packs off the UI thread
+    private final ExecutorService _indexExecutor = Executors.newSingleThreadExecutor();
 
     public IconPackManager(Context context) {
         _iconPacks = new ArrayList<>();
@@ -62,57 +90,56 @@ public class IconPackManager {
     }
 
     public IconPack importPack(File inFile) throws IconPackException {
+        return importPack(inFile, null);
+    }
+
+    /**
+     * Imports the icon pack in the given ZIP file. The icons are validated and extracted in
+     * parallel. If a listener is given, it's notified of the progress and can cancel the
+     * import. If the import fails or is cancelled, the directory of the new icon pack is
+     * removed again.
+     */
+    public IconPack importPack(File inFile, @Nullable ImportListener listener) throws IconPackException {
+        File packDir = null;
+        boolean success = false;
+
         try {
             // read and parse the icon pack definition file of the icon pack
-            ZipFile zipFile = new ZipFile(inFile);
-            FileHeader packHeader = zipFile.getFileHeader(_packDefFilename);
-            if (packHeader == null) {
-                throw new IOException("Unable to find pack.json in the root of the ZIP file");
-            }
             IconPack pack;
             byte[] defBytes;
-            try (ZipInputStream inStream = zipFile.getInputStream(packHeader)) {
-                defBytes = IOUtils.readAll(inStream);
-                pack = IconPack.fromBytes(defBytes);
+            try (ZipFile zipFile = new ZipFile(inFile)) {
+                FileHeader packHeader = zipFile.getFileHeader(_packDefFilename);
+                if (packHeader == null) {
+                    throw new IOException("Unable to find pack.json in the root of the ZIP file");
+                }
+                try (ZipInputStream inStream = zipFile.getInputStream(packHeader)) {
+                    defBytes = IOUtils.readAll(inStream);
+                    pack = IconPack.fromBytes(defBytes);
+                }
             }
 
             // create a new directory to store the icon pack, based on the UUID and version
-            File packDir = getIconPackDir(pack);
-            if (!packDir.getCanonicalPath().startsWith(_iconsBaseDir.getCanonicalPath() + File.separator)) {
+            File dir = getIconPackDir(pack);
+            if (!dir.getCanonicalPath().startsWith(_iconsBaseDir.getCanonicalPath() + File.separator)) {
                 throw new IOException("Attempted to write outside of the parent directory");
             }
-            if (packDir.exists()) {
+            if (dir.exists()) {
                 throw new IconPackExistsException(pack);
             }
             IconPack existingPack = getIconPackByUUID(pack.getUUID());
             if (existingPack != null) {
                 throw new IconPackExistsException(existingPack);
             }
-            if (!packDir.exists() && !packDir.mkdirs()) {
-                throw new IOException(String.format("Unable to create directories: %s", packDir.toString()));
+            if (!dir.mkdirs()) {
+                throw new IOException(String.format("Unable to create directories: %s", dir.toString()));
             }
+            packDir = dir;
 
-            // extract each of the defined icons to the icon pack directory
-            for (IconPack.Icon icon : pack.getIcons()) {
-                File destFile = new File(packDir, icon.getRelativeFilename());
-                FileHeader iconHeader = zipFile.getFileHeader(icon.getRelativeFilename());
-                if (iconHeader == null) {
-                    throw new IOException(String.format("Unable to find %s relative to the root of the ZIP file", icon.getRelativeFilename()));
-                }
-
-                // create new directories for this file if needed
-                File parent = destFile.getParentFile();
-                if (parent != null && !parent.exists() && !parent.mkdirs()) {
-                    throw new IOException(String.format("Unable to create directories: %s", packDir.toString()));
-                }
-
-                try (ZipInputStream inStream = zipFile.getInputStream(iconHeader);
-                     FileOutputStream outStream = new FileOutputStream(destFile)) {
-                    IOUtils.copy(inStream, outStream);
-                }
-
-                // after successful copy of the icon, store the new filename
-                icon.setFile(destFile);
+            // extract each of the defined icons to the icon pack directory, and leave out the invalid ones
+            extractIcons(inFile, pack, packDir, listener);
+            pack.removeIconsWithoutFile();
+            if (pack.getIcons().isEmpty()) {
+                throw new IOException("The icon pack doesn't contain any valid icons");
             }
 
             // write the icon pack definition file to the newly created directory
@@ -120,12 +147,228 @@ public class IconPackManager {
                 outStream.write(defBytes);
             }
 
+            // build the catalogue and issuer index once, so that they don't have to be built on every startup
+            IconPackCatalogue.write(pack, new File(packDir, IconPackCatalogue.FILENAME));
+            pack.getIndex().write(new File(packDir, IconPackIndex.FILENAME));
+
             // after successful extraction of the icon pack, store the new directory
             pack.setDirectory(packDir);
             _iconPacks.add(pack);
+            success = true;
             return pack;
         } catch (IOException | JSONException e) {
             throw new IconPackException(e);
+        } finally {
+            if (!success && packDir != null) {
+                removeHalfImportedPack(packDir);
+            }
+        }
+    }
+
+    /**
+     * Extracts the icons of the given icon pack from the given ZIP file to the given directory,
+     * using a bounded number of threads. Every icon is validated before it's written, and
+     * icons with the same contents as an icon that was already extracted are hard linked to it.
+     * Invalid icons are skipped, so they're left without a file.
+     */
+    private static void extractIcons(File inFile, IconPack pack, File packDir, @Nullable ImportListener listener)
+            throws IOException {
+        // multiple icons may refer to the same file, which only has to be extracted once
+        Map<String, List<IconPack.Icon>> files = new LinkedHashMap<>();
+        for (IconPack.Icon icon : pack.getIcons()) {
+            List<IconPack.Icon> icons = files.get(icon.getRelativeFilename());
+            if (icons == null) {
+                icons = new ArrayList<>();
+                files.put(icon.getRelativeFilename(), icons);
+            }
+            icons.add(icon);
+        }
+
+        List<String> filenames = new ArrayList<>(files.keySet());
+        String packPath = packDir.getCanonicalPath() + File.separator;
+        Map<HashCode, File> extracted = new ConcurrentHashMap<>();
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        AtomicBoolean stop = new AtomicBoolean();
+
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), MAX_IMPORT_THREADS);
+        threads = Math.max(1, Math.min(threads, filenames.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    // every worker opens the ZIP file on its own, so that they don't share any state
+                    try (ZipFile zipFile = new ZipFile(inFile)) {
+                        int j;
+                        while (!stop.get() && (j = next.getAndIncrement()) < filenames.size()) {
+                            if (listener != null && listener.isCancelled()) {
+                                throw new InterruptedIOException("The import of the icon pack was cancelled");
+                            }
+
+                            String filename = filenames.get(j);
+                            try {
+                                File destFile = extractIcon(zipFile, filename, packDir, packPath, extracted);
+                                for (IconPack.Icon icon : files.get(filename)) {
+                                    icon.setFile(destFile);
+                                }
+                            } catch (InvalidIconException e) {
+                                e.printStackTrace();
+                            }
+
+                            if (listener != null) {
+                                listener.onIconExtracted(done.incrementAndGet(), filenames.size());
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        stop.set(true);
+                        throw e;
+                    }
+                    return null;
+                }));
+            }
+
+            // wait for all workers, so that none of them is still writing when the directory is cleaned up
+            Throwable error = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = e.getCause();
+                    }
+                } catch (InterruptedException e) {
+                    stop.set(true);
+                    Thread.currentThread().interrupt();
+                    if (error == null) {
+                        error = new InterruptedIOException("Interrupted while importing the icon pack");
+                    }
+                }
+            }
+
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            } else if (error != null) {
+                throw new IOException(error);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static File extractIcon(ZipFile zipFile, String filename, File packDir, String packPath, Map<HashCode, File> extracted)
+            throws IOException {
+        File destFile = new File(packDir, filename);
+        if (!destFile.getCanonicalPath().startsWith(packPath)) {
+            throw new IOException(String.format("Attempted to write %s outside of the icon pack directory", filename));
+        }
+
+        FileHeader iconHeader = zipFile.getFileHeader(filename);
+        if (iconHeader == null) {
+            throw new InvalidIconException(String.format("Unable to find %s relative to the root of the ZIP file", filename));
+        }
+
+        byte[] bytes;
+        try (ZipInputStream inStream = zipFile.getInputStream(iconHeader)) {
+            bytes = ByteStreams.toByteArray(ByteStreams.limit(inStream, MAX_ICON_SIZE + 1));
+        }
+        if (bytes.length > MAX_ICON_SIZE) {
+            throw new InvalidIconException(String.format("%s is too large", filename));
+        }
+        bytes = normalizeIcon(filename, bytes);
+
+        // create new directories for this file if needed, other workers may be doing the same
+        File parent = destFile.getParentFile();
+        if (parent != null && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException(String.format("Unable to create directories: %s", parent.toString()));
+        }
+
+        // if the other file isn't there yet, linking fails and the icon is simply written as well
+        File existing = extracted.putIfAbsent(Hashing.sha256().hashBytes(bytes), destFile);
+        if (existing != null && link(existing, destFile)) {
+            return destFile;
+        }
+
+        try (FileOutputStream outStream = new FileOutputStream(destFile)) {
+            outStream.write(bytes);
+        }
+        return destFile;
+    }
+
+    /**
+     * Checks whether the given icon is of a supported type and whether its contents match the
+     * type. Leading whitespace and byte order marks are stripped from SVG icons.
+     */
+    private static byte[] normalizeIcon(String filename, byte[] bytes) throws InvalidIconException {
+        switch (IconType.fromFilename(filename)) {
+            case SVG:
+                int start = 0;
+                if (startsWith(bytes, 0, UTF8_BOM)) {
+                    start = UTF8_BOM.length;
+                }
+                while (start < bytes.length && isXmlWhitespace(bytes[start])) {
+                    start++;
+                }
+                if (!startsWith(bytes, start, new byte[]{'<'}) || Bytes.indexOf(bytes, SVG_TAG) == -1) {
+                    throw new InvalidIconException(String.format("%s is not a valid SVG file", filename));
+                }
+                return start == 0 ? bytes : Arrays.copyOfRange(bytes, start, bytes.length);
+            case PNG:
+                if (!startsWith(bytes, 0, PNG_SIGNATURE)) {
+                    throw new InvalidIconException(String.format("%s is not a valid PNG file", filename));
+                }
+                return bytes;
+            case JPEG:
+                if (!startsWith(bytes, 0, JPEG_SIGNATURE)) {
+                    throw new InvalidIconException(String.format("%s is not a valid JPEG file", filename));
+                }
+                return bytes;
+            default:
+                throw new InvalidIconException(String.format("Unsupported icon type: %s", filename));
+        }
+    }
+
+    // the whitespace characters of XML, which are all ASCII, so they can be matched byte by byte
+    private static boolean isXmlWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, byte[] prefix) {
+        if (bytes.length - offset < prefix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean link(File target, File link) {
+        try {
+            Os.link(target.getPath(), link.getPath());
+            return true;
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+
+    private static void removeHalfImportedPack(File packDir) {
+        try {
+            deleteDir(packDir);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // remove the directory of the UUID as well if this was the only version
+        File uuidDir = packDir.getParentFile();
+        String[] children = uuidDir != null ? uuidDir.list() : null;
+        if (children != null && children.length == 0) {
+            uuidDir.delete();
         }
     }
 
@@ -153,25 +396,65 @@ public class IconPackManager {
             File versionDir = getLatestVersionDir(dir);
             if (versionDir != null) {
                 IconPack pack;
-                try (FileInputStream inStream = new FileInputStream(new File(versionDir, _packDefFilename))) {
-                    byte[] bytes = IOUtils.readAll(inStream);
-                    pack = IconPack.fromBytes(bytes);
-                    pack.setDirectory(versionDir);
+                try {
+                    pack = readIconPack(versionDir);
                 } catch (JSONException | IOException e) {
                     e.printStackTrace();
                     continue;
                 }
 
-                for (IconPack.Icon icon : pack.getIcons()) {
-                    icon.setFile(new File(versionDir, icon.getRelativeFilename()));
-                }
-
                 // do a sanity check on the UUID and version
                 if (pack.getUUID().equals(uuid) && pack.getVersion() == Integer.parseInt(versionDir.getName())) {
                     _iconPacks.add(pack);
                 }
             }
         }
+
+        for (IconPack pack : _iconPacks) {
+            _indexExecutor.execute(pack::getIndex);
+        }
+    }
+
+    /**
+     * Reads the icon pack in the given directory from its catalogue. If the catalogue is
+     * missing (e.g. because the pack was imported by an older version of Aegis) or can't be
+     * read, the icon pack definition file is parsed instead and the catalogue is rewritten.
+     */
+    private static IconPack readIconPack(File versionDir) throws IOException, JSONException {
+        IconPack pack;
+        File catalogueFile = new File(versionDir, IconPackCatalogue.FILENAME);
+        if (catalogueFile.exists()) {
+            try {
+                pack = IconPackCatalogue.read(catalogueFile, versionDir);
+                pack.setDirectory(versionDir);
+                return pack;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        try (FileInputStream inStream = new FileInputStream(new File(versionDir, _packDefFilename))) {
+            byte[] bytes = IOUtils.readAll(inStream);
+            pack = IconPack.fromBytes(bytes);
+            pack.setDirectory(versionDir);
+        }
+
+        // invalid icons were skipped during the import, so they don't have a file
+        for (IconPack.Icon icon : pack.getIcons()) {
+            File file = new File(versionDir, icon.getRelativeFilename());
+            if (file.exists()) {
+                icon.setFile(file);
+            }
+        }
+        pack.removeIconsWithoutFile();
+
+        try {
+            IconPackCatalogue.write(pack, catalogueFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return pack;
     }
 
     private File getIconPackDir(IconPack pack) {
@@ -220,4 +503,23 @@ public class IconPackManager {
             throw new IOException(String.format("Unable to delete directory: %s", dir));
         }
     }
+
+    /**
+     * Thrown for a single icon of an icon pack that is invalid, which is skipped instead
+     * of failing the import of the whole pack.
+     */
+    private static class InvalidIconException extends IOException {
+        private InvalidIconException(String message) {
+            super(message);
+        }
+    }
+
+    public interface ImportListener {
+        /**
+         * Called from the threads that extract the icons every time an icon was extracted.
+         */
+        void onIconExtracted(int count, int total);
+
+        boolean isCancelled();
+    }
 }
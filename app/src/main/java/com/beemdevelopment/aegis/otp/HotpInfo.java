@@ -1,6 +1,5 @@
 package com.beemdevelopment.aegis.otp;
 
-import com.beemdevelopment.aegis.crypto.otp.HOTP;
 import com.beemdevelopment.aegis.crypto.otp.OTP;
 
 import org.json.JSONException;
@@ -34,8 +33,8 @@ public class HotpInfo extends OtpInfo {
         checkSecret();
 
         try {
-            OTP otp = HOTP.generateOTP(getSecret(), getAlgorithm(true), getDigits(), getCounter());
-            return otp.toString();
+            int otp = generateHotp(getCounter());
+            return OTP.toString(otp, getDigits());
         } catch (NoSuchAlgorithmException | InvalidKeyException e) {
             throw new RuntimeException(e);
         }
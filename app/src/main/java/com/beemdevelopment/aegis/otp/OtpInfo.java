@@ -1,5 +1,8 @@
 package com.beemdevelopment.aegis.otp;
 
+import androidx.annotation.NonNull;
+
+import com.beemdevelopment.aegis.crypto.otp.HOTPGenerator;
 import com.beemdevelopment.aegis.encoding.Base32;
 import com.beemdevelopment.aegis.encoding.EncodingException;
 
@@ -7,10 +10,12 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.Serializable;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Locale;
 
-public abstract class OtpInfo implements Serializable {
+public abstract class OtpInfo implements Serializable, Cloneable {
     public static final int DEFAULT_DIGITS = 6;
     public static final String DEFAULT_ALGORITHM = "SHA1";
 
@@ -18,6 +23,9 @@ public abstract class OtpInfo implements Serializable {
     private String _algorithm;
     private int _digits;
 
+    // Reused for every code generated for this entry, see generateHotp()
+    private transient HOTPGenerator _generator;
+
     public OtpInfo(byte[] secret) throws OtpInfoException {
         this(secret, DEFAULT_ALGORITHM, DEFAULT_DIGITS);
     }
@@ -36,6 +44,19 @@ public abstract class OtpInfo implements Serializable {
         }
     }
 
+    /**
+     * Generates the HOTP value for the given counter with the secret and algorithm of this
+     * OtpInfo. The underlying Mac is initialized once and then reused for subsequent codes.
+     */
+    protected synchronized int generateHotp(long counter)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        if (_generator == null) {
+            _generator = new HOTPGenerator(getSecret(), getAlgorithm(true));
+        }
+
+        return _generator.generate(counter);
+    }
+
     public abstract String getTypeId();
 
     public String getType() {
@@ -71,8 +92,9 @@ public abstract class OtpInfo implements Serializable {
         return _digits;
     }
 
-    public void setSecret(byte[] secret) {
+    public synchronized void setSecret(byte[] secret) {
         _secret = secret;
+        _generator = null;
     }
 
     public static boolean isAlgorithmValid(String algorithm) {
@@ -89,7 +111,11 @@ public abstract class OtpInfo implements Serializable {
         if (!isAlgorithmValid(algorithm)) {
             throw new OtpInfoException(String.format("unsupported algorithm: %s", algorithm));
         }
-        _algorithm = algorithm;
+
+        synchronized (this) {
+            _algorithm = algorithm;
+            _generator = null;
+        }
     }
 
     public static boolean isDigitsValid(int digits) {
@@ -104,6 +130,22 @@ public abstract class OtpInfo implements Serializable {
         _digits = digits;
     }
 
+    /**
+     * Returns a copy of this OtpInfo, including any of the fields of its subclass.
+     */
+    @NonNull
+    @Override
+    public OtpInfo clone() {
+        try {
+            OtpInfo info = (OtpInfo) super.clone();
+            info._secret = _secret.clone();
+            info._generator = null;
+            return info;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     public static OtpInfo fromJson(String type, JSONObject obj) throws OtpInfoException {
         OtpInfo info;
 
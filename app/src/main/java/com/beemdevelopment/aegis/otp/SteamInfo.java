@@ -24,8 +24,8 @@ public class SteamInfo extends TotpInfo {
         checkSecret();
 
         try {
-            OTP otp = TOTP.generateOTP(getSecret(), getAlgorithm(true), getDigits(), getPeriod(), time);
-            return otp.toSteamString();
+            int otp = generateHotp(TOTP.getCounter(getPeriod(), time));
+            return OTP.toSteamString(otp, getDigits());
         } catch (InvalidKeyException | NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
@@ -34,8 +34,8 @@ public class TotpInfo extends OtpInfo {
         checkSecret();
 
         try {
-            OTP otp = TOTP.generateOTP(getSecret(), getAlgorithm(true), getDigits(), getPeriod(), time);
-            return otp.toString();
+            int otp = generateHotp(TOTP.getCounter(getPeriod(), time));
+            return OTP.toString(otp, getDigits());
         } catch (InvalidKeyException | NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
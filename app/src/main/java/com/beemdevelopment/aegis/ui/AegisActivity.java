@@ -2,6 +2,7 @@ package com.beemdevelopment.aegis.ui;
 
 import android.annotation.SuppressLint;
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
 import android.graphics.drawable.Drawable;
@@ -13,6 +14,7 @@ import android.widget.Toast;
 
 import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.view.ActionMode;
 import androidx.core.view.ViewPropertyAnimatorCompat;
@@ -91,6 +93,15 @@ public abstract class AegisActivity extends AppCompatActivity implements VaultMa
         _vaultManager.setBlockAutoLock(false);
     }
 
+    @CallSuper
+    @Override
+    protected void onPause() {
+        // the app may be killed once it's in the background, so don't wait for the
+        // coalescing delay of any saves that are still pending
+        _vaultManager.flushSaves();
+        super.onPause();
+    }
+
     @SuppressLint("SoonBlockedPrivateApi")
     @SuppressWarnings("JavaReflectionMemberAccess")
     @Override
@@ -146,6 +157,30 @@ public abstract class AegisActivity extends AppCompatActivity implements VaultMa
         }
     }
 
+    /**
+     * Saves the vault on a background thread, without blocking the UI. A toast is shown if
+     * saving fails, even if the activity is gone by then.
+     */
+    protected void saveVaultAsync(boolean backup, @Nullable VaultManager.SaveListener listener) {
+        Context context = getApplicationContext();
+        _vaultManager.saveAsync(backup, new VaultManager.SaveListener() {
+            @Override
+            public void onSaved() {
+                if (listener != null) {
+                    listener.onSaved();
+                }
+            }
+
+            @Override
+            public void onSaveFailed(VaultRepositoryException e) {
+                Toast.makeText(context, context.getString(R.string.saving_error), Toast.LENGTH_LONG).show();
+                if (listener != null) {
+                    listener.onSaveFailed(e);
+                }
+            }
+        });
+    }
+
     /**
      * Closes this activity if it has become an orphan (isOrphan() == true) and launches MainActivity.
      * @param savedInstanceState the bundle passed to onCreate.
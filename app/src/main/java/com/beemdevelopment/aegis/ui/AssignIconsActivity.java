@@ -28,6 +28,8 @@ import com.beemdevelopment.aegis.util.IOUtils;
 import com.beemdevelopment.aegis.helpers.ViewHelper;
 import com.beemdevelopment.aegis.vault.VaultEntry;
 import com.beemdevelopment.aegis.vault.VaultEntryIcon;
+import com.beemdevelopment.aegis.vault.VaultManager;
+import com.beemdevelopment.aegis.vault.VaultRepositoryException;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.ListPreloader;
 import com.bumptech.glide.RequestBuilder;
@@ -35,12 +37,15 @@ import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
 import com.bumptech.glide.util.ViewPreloadSizeProvider;
 import com.google.android.material.bottomsheet.BottomSheetDialog;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -124,15 +129,23 @@ public class AssignIconsActivity extends AegisActivity implements AssignIconAdap
 
     private void saveAndFinish() throws IOException {
         ArrayList<UUID> uuids = new ArrayList<>();
+        Map<File, VaultEntryIcon> icons = new HashMap<>();
         for (AssignIconEntry selectedEntry : _entries) {
             VaultEntry entry = selectedEntry.getEntry();
             if (selectedEntry.getNewIcon() != null) {
-                byte[] iconBytes;
-                try (FileInputStream inStream = new FileInputStream(selectedEntry.getNewIcon().getFile())){
-                    iconBytes = IOUtils.readFile(inStream);
+                // the same icon is often assigned to multiple entries, so only read it once
+                File iconFile = selectedEntry.getNewIcon().getFile();
+                VaultEntryIcon icon = icons.get(iconFile);
+                if (icon == null) {
+                    byte[] iconBytes;
+                    try (FileInputStream inStream = new FileInputStream(iconFile)) {
+                        iconBytes = IOUtils.readFile(inStream);
+                    }
+
+                    icon = new VaultEntryIcon(iconBytes, selectedEntry.getNewIcon().getIconType());
+                    icons.put(iconFile, icon);
                 }
 
-                VaultEntryIcon icon = new VaultEntryIcon(iconBytes, selectedEntry.getNewIcon().getIconType());
                 entry.setIcon(icon);
                 uuids.add(entry.getUUID());
 
@@ -143,10 +156,18 @@ public class AssignIconsActivity extends AegisActivity implements AssignIconAdap
         Intent intent = new Intent();
         intent.putExtra("entryUUIDs", uuids);
 
-        if (saveAndBackupVault()) {
-            setResult(RESULT_OK, intent);
-            finish();
-        }
+        saveVaultAsync(true, new VaultManager.SaveListener() {
+            @Override
+            public void onSaved() {
+                setResult(RESULT_OK, intent);
+                finish();
+            }
+
+            @Override
+            public void onSaveFailed(VaultRepositoryException e) {
+                // the error has already been reported, stay on this screen
+            }
+        });
     }
 
     private void discardAndFinish() {
@@ -30,9 +30,14 @@ import com.beemdevelopment.aegis.helpers.EditTextHelper;
 import com.beemdevelopment.aegis.helpers.MetricsHelper;
 import com.beemdevelopment.aegis.helpers.UiThreadExecutor;
 import com.beemdevelopment.aegis.ui.dialogs.Dialogs;
+import com.beemdevelopment.aegis.ui.glide.GlideHelper;
 import com.beemdevelopment.aegis.ui.tasks.PasswordSlotDecryptTask;
+import com.beemdevelopment.aegis.ui.views.EntryAdapter;
+import com.beemdevelopment.aegis.util.UUIDMap;
+import com.beemdevelopment.aegis.vault.VaultEntry;
 import com.beemdevelopment.aegis.vault.VaultFile;
 import com.beemdevelopment.aegis.vault.VaultFileCredentials;
+import com.beemdevelopment.aegis.vault.VaultGroup;
 import com.beemdevelopment.aegis.vault.VaultRepository;
 import com.beemdevelopment.aegis.vault.VaultRepositoryException;
 import com.beemdevelopment.aegis.vault.slots.BiometricSlot;
@@ -41,9 +46,15 @@ import com.beemdevelopment.aegis.vault.slots.Slot;
 import com.beemdevelopment.aegis.vault.slots.SlotException;
 import com.beemdevelopment.aegis.vault.slots.SlotIntegrityException;
 import com.beemdevelopment.aegis.vault.slots.SlotList;
+import com.bumptech.glide.Glide;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
@@ -158,7 +169,7 @@ public class AuthActivity extends AegisActivity {
 
             char[] password = EditTextHelper.getEditTextChars(_textPassword);
             List<PasswordSlot> slots = _slots.findAll(PasswordSlot.class);
-            PasswordSlotDecryptTask.Params params = new PasswordSlotDecryptTask.Params(slots, password);
+            PasswordSlotDecryptTask.Params params = new PasswordSlotDecryptTask.Params(slots, password, true, _vaultManager.getPasswordKeyCache());
             PasswordSlotDecryptTask task = new PasswordSlotDecryptTask(AuthActivity.this, new PasswordDerivationListener());
             task.execute(getLifecycle(), params);
 
@@ -294,10 +305,29 @@ public class AuthActivity extends AegisActivity {
             return;
         }
 
+        preloadEntryIcons();
         setResult(RESULT_OK);
         finish();
     }
 
+    /**
+     * Starts decoding the icons of the first screen of entries while MainActivity is
+     * being brought back, so that they can be drawn from memory right away. The entries
+     * are filtered by the saved group filter, just like MainActivity does.
+     */
+    private void preloadEntryIcons() {
+        VaultRepository vault = _vaultManager.getVault();
+        Collection<VaultGroup> groups = vault.getGroups();
+        Set<UUID> groupUuids = groups.stream().map(UUIDMap.Value::getUUID).collect(Collectors.toSet());
+        Set<UUID> groupFilter = _prefs.getGroupFilter().stream()
+                .filter(g -> g == null || groupUuids.contains(g))
+                .collect(Collectors.toSet());
+        List<VaultEntry> entries = EntryAdapter.getShownEntries(new ArrayList<>(vault.getEntries()), groupFilter, groups, _prefs.getCurrentSortCategory());
+
+        // use the application context, so that this isn't cancelled when this activity finishes
+        GlideHelper.preloadEntryIcons(Glide.with(getApplicationContext()), this, entries, _prefs.getCurrentViewMode());
+    }
+
     private void onInvalidPassword() {
         Dialogs.showSecureDialog(new MaterialAlertDialogBuilder(AuthActivity.this, R.style.ThemeOverlay_Aegis_AlertDialog_Error)
                 .setTitle(getString(R.string.unlock_vault_error))
@@ -332,7 +362,7 @@ public class AuthActivity extends AegisActivity {
         @Override
         public void onTaskFinished(PasswordSlotDecryptTask.Result result) {
             if (result != null) {
-                // replace the old slot with the repaired one
+                // replace the old slot with the repaired or re-wrapped one
                 if (result.isSlotRepaired()) {
                     _slots.replace(result.getSlot());
                 }
@@ -341,6 +371,10 @@ public class AuthActivity extends AegisActivity {
                     _prefs.resetPasswordReminderTimestamp();
                 }
 
+                if (result.isFromKeyCache()) {
+                    _auditLogRepository.addVaultUnlockedCachedKeyEvent();
+                }
+
                 finish(result.getKey(), result.isSlotRepaired());
             } else {
                 _decryptButton.setEnabled(true);
@@ -63,6 +63,7 @@ import com.beemdevelopment.aegis.helpers.ViewHelper;
 import com.beemdevelopment.aegis.vault.VaultEntry;
 import com.beemdevelopment.aegis.vault.VaultFile;
 import com.beemdevelopment.aegis.vault.VaultGroup;
+import com.beemdevelopment.aegis.vault.VaultManager;
 import com.beemdevelopment.aegis.vault.VaultRepository;
 import com.beemdevelopment.aegis.vault.VaultRepositoryException;
 import com.google.android.material.bottomsheet.BottomSheetDialog;
@@ -549,10 +550,11 @@ public class MainActivity extends AegisActivity implements EntryListView.Listene
 
                 for (VaultEntry selectedEntry : _selectedEntries) {
                     selectedEntry.addGroup(groupModel.getUUID());
+                    _vaultManager.getVault().replaceEntry(selectedEntry);
                 }
 
                 dialog.dismiss();
-                saveAndBackupVault();
+                saveAndBackupVaultAsync();
                 _actionMode.finish();
                 setGroups(_vaultManager.getVault().getUsedGroups());
             });
@@ -1053,6 +1055,7 @@ public class MainActivity extends AegisActivity implements EntryListView.Listene
             setGroups(_vaultManager.getVault().getUsedGroups());
             _entryListView.setUsageCounts(_prefs.getUsageCounts());
             _entryListView.setLastUsedTimestamps(_prefs.getLastUsedTimestamps());
+            _entryListView.setSearchIndex(_vaultManager.getVault().getSearchIndex());
             _entryListView.setEntries(_vaultManager.getVault().getEntries());
             if (!_isRecreated) {
                 _entryListView.runEntriesAnimation();
@@ -1232,12 +1235,14 @@ public class MainActivity extends AegisActivity implements EntryListView.Listene
 
     @Override
     public void onEntryDrop(VaultEntry entry) {
-        saveVault();
+        saveVaultAsync(false, null);
     }
 
     @Override
     public void onEntryChange(VaultEntry entry) {
-        saveAndBackupVault();
+        // the entry was modified in place, so let the vault know that it needs to be saved
+        _vaultManager.getVault().replaceEntry(entry);
+        saveAndBackupVaultAsync();
     }
 
     public void onEntryCopy(VaultEntry entry) {
@@ -1257,7 +1262,7 @@ public class MainActivity extends AegisActivity implements EntryListView.Listene
     @Override
     public void onSaveGroupFilter(Set<UUID> groupFilter) {
         if (_vaultManager.getVault().isGroupsMigrationFresh()) {
-            saveAndBackupVault();
+            saveAndBackupVaultAsync();
         }
         _prefs.setGroupFilter(groupFilter);
     }
@@ -1288,6 +1293,20 @@ public class MainActivity extends AegisActivity implements EntryListView.Listene
         return res;
     }
 
+    private void saveAndBackupVaultAsync() {
+        saveVaultAsync(true, new VaultManager.SaveListener() {
+            @Override
+            public void onSaved() {
+                updateErrorCard();
+            }
+
+            @Override
+            public void onSaveFailed(VaultRepositoryException e) {
+                updateErrorCard();
+            }
+        });
+    }
+
     @SuppressLint("InlinedApi")
     private void copyEntryCode(VaultEntry entry) {
         String otp;
@@ -1389,7 +1408,7 @@ public class MainActivity extends AegisActivity implements EntryListView.Listene
                     });
                 }
 
-                saveAndBackupVault();
+                saveAndBackupVaultAsync();
                 _entryListView.setEntries(_vaultManager.getVault().getEntries());
                 mode.finish();
             } else if (itemId == R.id.action_share_qr) {
@@ -1411,7 +1430,7 @@ public class MainActivity extends AegisActivity implements EntryListView.Listene
                     for (VaultEntry entry : _selectedEntries) {
                         _vaultManager.getVault().removeEntry(entry);
                     }
-                    saveAndBackupVault();
+                    saveAndBackupVaultAsync();
                     _entryListView.setGroups(_vaultManager.getVault().getUsedGroups());
                     _entryListView.setEntries(_vaultManager.getVault().getEntries());
                     mode.finish();
@@ -7,7 +7,6 @@ import android.widget.Toast;
 import com.beemdevelopment.aegis.BuildConfig;
 import com.beemdevelopment.aegis.R;
 import com.beemdevelopment.aegis.crypto.pins.GuardianProjectFDroidRSA2048;
-import com.beemdevelopment.aegis.vault.VaultRepository;
 
 import info.guardianproject.GuardianProjectRSA4096;
 import info.guardianproject.trustedintents.TrustedIntents;
@@ -37,8 +36,8 @@ public class PanicResponderActivity extends AegisActivity {
         }
 
         if (intent != null && PANIC_TRIGGER_ACTION.equals(intent.getAction())) {
-            VaultRepository.deleteFile(this);
-            _vaultManager.lock(false);
+            _vaultManager.getPasswordKeyCache().invalidate();
+            _vaultManager.wipeAndLock();
             finishApp();
             return;
         }
@@ -8,6 +8,7 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.preference.Preference;
 
 import com.beemdevelopment.aegis.AccountNamePosition;
+import com.beemdevelopment.aegis.IconCacheSize;
 import com.beemdevelopment.aegis.Preferences;
 import com.beemdevelopment.aegis.R;
 import com.beemdevelopment.aegis.Theme;
@@ -24,6 +25,7 @@ public class AppearancePreferencesFragment extends PreferencesFragment {
     private Preference _groupsPreference;
     private Preference _resetUsageCountPreference;
     private Preference _currentAccountNamePositionPreference;
+    private Preference _iconCacheSizePreference;
 
     @Override
     public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
@@ -171,6 +173,31 @@ public class AppearancePreferencesFragment extends PreferencesFragment {
         });
 
         refreshAccountNamePositionText();
+
+        // Glide only sizes its memory cache once, when it's first used
+        _iconCacheSizePreference = requirePreference("pref_icon_cache_size");
+        refreshIconCacheSizeText();
+        _iconCacheSizePreference.setOnPreferenceClickListener(preference -> {
+            int currentIconCacheSize = _prefs.getIconCacheSize().ordinal();
+
+            Dialogs.showSecureDialog(new MaterialAlertDialogBuilder(requireContext())
+                    .setTitle(getString(R.string.choose_icon_cache_size))
+                    .setSingleChoiceItems(R.array.icon_cache_size_titles, currentIconCacheSize, (dialog, which) -> {
+                        int i = ((AlertDialog) dialog).getListView().getCheckedItemPosition();
+                        _prefs.setIconCacheSize(IconCacheSize.fromInteger(i));
+                        refreshIconCacheSizeText();
+                        dialog.dismiss();
+                    })
+                    .setNegativeButton(android.R.string.cancel, null)
+                    .create());
+
+            return true;
+        });
+    }
+
+    private void refreshIconCacheSizeText() {
+        String title = getResources().getStringArray(R.array.icon_cache_size_titles)[_prefs.getIconCacheSize().ordinal()];
+        _iconCacheSizePreference.setSummary(String.format("%s: %s. %s", getString(R.string.selected), title, getString(R.string.pref_icon_cache_size_summary_restart)));
     }
 
     private void refreshAccountNamePositionText() {
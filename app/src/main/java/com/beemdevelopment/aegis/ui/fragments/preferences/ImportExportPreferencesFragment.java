@@ -440,6 +440,14 @@ public class ImportExportPreferencesFragment extends PreferencesFragment {
     }
 
     private void startExportVault(int requestCode, StartExportCallback cb, @Nullable Vault.EntryFilter filter) {
+        // make sure that the vault file is as complete on its own as the export will be
+        try {
+            _vaultManager.saveSnapshot();
+        } catch (VaultRepositoryException e) {
+            e.printStackTrace();
+            Toast.makeText(requireContext(), getString(R.string.saving_error), Toast.LENGTH_LONG).show();
+        }
+
         switch (requestCode) {
             case CODE_EXPORT:
                 if (_vaultManager.getVault().isEncryptionEnabled()) {
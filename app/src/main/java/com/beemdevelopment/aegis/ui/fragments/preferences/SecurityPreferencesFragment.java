@@ -42,6 +42,7 @@ public class SecurityPreferencesFragment extends PreferencesFragment {
     private SwitchPreference _biometricsPreference;
     private Preference _autoLockPreference;
     private Preference _setPasswordPreference;
+    private Preference _passwordKeyCachePreference;
     private Preference _passwordReminderPreference;
     private SwitchPreferenceCompat _pinKeyboardPreference;
     private SwitchPreference _backupPasswordPreference;
@@ -107,6 +108,21 @@ public class SecurityPreferencesFragment extends PreferencesFragment {
             return false;
         });
 
+        SwitchPreferenceCompat binaryVaultPreference = requirePreference("pref_vault_binary");
+        binaryVaultPreference.setOnPreferenceChangeListener((preference, newValue) -> {
+            // rewrite the vault file in the chosen format right away
+            binaryVaultPreference.setChecked((boolean) newValue);
+            saveAndBackupVault();
+            return false;
+        });
+
+        SwitchPreferenceCompat compressionPreference = requirePreference("pref_vault_compression");
+        compressionPreference.setOnPreferenceChangeListener((preference, newValue) -> {
+            compressionPreference.setChecked((boolean) newValue);
+            saveAndBackupVault();
+            return false;
+        });
+
         _biometricsPreference = requirePreference("pref_biometrics");
         _biometricsPreference.setOnPreferenceChangeListener((preference, newValue) -> {
             VaultFileCredentials creds = _vaultManager.getVault().getCredentials();
@@ -148,6 +164,28 @@ public class SecurityPreferencesFragment extends PreferencesFragment {
             return false;
         });
 
+        _passwordKeyCachePreference = requirePreference("pref_password_key_cache");
+        _passwordKeyCachePreference.setSummary(getPasswordKeyCacheSummary());
+        _passwordKeyCachePreference.setOnPreferenceClickListener((preference) -> {
+            final int[] items = Preferences.PASSWORD_KEY_CACHE_TIMEOUTS;
+            final String[] textItems = getResources().getStringArray(R.array.pref_password_key_cache_timeouts);
+            int checkedItem = Math.max(0, Arrays.binarySearch(items, _prefs.getPasswordKeyCacheTimeout()));
+
+            MaterialAlertDialogBuilder builder = new MaterialAlertDialogBuilder(requireContext())
+                    .setTitle(R.string.pref_password_key_cache_prompt)
+                    .setSingleChoiceItems(textItems, checkedItem, (dialog, which) -> {
+                        _prefs.setPasswordKeyCacheTimeout(items[which]);
+                        if (items[which] == 0) {
+                            _vaultManager.getPasswordKeyCache().invalidate();
+                        }
+                        _passwordKeyCachePreference.setSummary(getPasswordKeyCacheSummary());
+                        dialog.dismiss();
+                    })
+                    .setNegativeButton(android.R.string.cancel, null);
+            Dialogs.showSecureDialog(builder.create());
+            return false;
+        });
+
         _pinKeyboardPreference = requirePreference("pref_pin_keyboard");
         _pinKeyboardPreference.setOnPreferenceChangeListener((preference, newValue) -> {
             if (!(boolean) newValue) {
@@ -260,6 +298,7 @@ public class SecurityPreferencesFragment extends PreferencesFragment {
         boolean backupPasswordSet = _vaultManager.getVault().isBackupPasswordSet();
         _encryptionPreference.setChecked(encrypted, true);
         _setPasswordPreference.setVisible(encrypted);
+        _passwordKeyCachePreference.setVisible(encrypted);
         _biometricsPreference.setVisible(encrypted);
         _autoLockPreference.setVisible(encrypted);
         _pinKeyboardPreference.setVisible(encrypted);
@@ -297,6 +336,17 @@ public class SecurityPreferencesFragment extends PreferencesFragment {
         return getString(R.string.pref_password_reminder_summary, freqString);
     }
 
+    private String getPasswordKeyCacheSummary() {
+        int timeout = _prefs.getPasswordKeyCacheTimeout();
+        int i = Arrays.binarySearch(Preferences.PASSWORD_KEY_CACHE_TIMEOUTS, timeout);
+        if (timeout == 0 || i < 0) {
+            return getString(R.string.pref_password_key_cache_summary_disabled);
+        }
+
+        String timeoutString = getResources().getStringArray(R.array.pref_password_key_cache_timeouts)[i];
+        return getString(R.string.pref_password_key_cache_summary, timeoutString);
+    }
+
     private String getAutoLockSummary() {
         final int[] settings = Preferences.AUTO_LOCK_SETTINGS;
         final String[] descriptions = getResources().getStringArray(R.array.pref_auto_lock_types);
@@ -343,6 +393,7 @@ public class SecurityPreferencesFragment extends PreferencesFragment {
             }
 
             _vaultManager.getVault().setCredentials(creds);
+            _vaultManager.getPasswordKeyCache().invalidate();
             saveAndBackupVault();
 
             if (_prefs.isPinKeyboardEnabled()) {
@@ -1,28 +1,76 @@
 package com.beemdevelopment.aegis.ui.glide;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.drawable.PictureDrawable;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.NonNull;
 
+import com.beemdevelopment.aegis.Preferences;
 import com.beemdevelopment.aegis.vault.VaultEntry;
 import com.beemdevelopment.aegis.vault.VaultEntryIcon;
+import com.beemdevelopment.aegis.vault.VaultManager;
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
 import com.bumptech.glide.Registry;
 import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.load.engine.cache.MemorySizeCalculator;
 import com.bumptech.glide.module.AppGlideModule;
 import com.caverock.androidsvg.SVG;
 
+import java.io.File;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 
+import dagger.hilt.InstallIn;
+import dagger.hilt.android.EarlyEntryPoint;
+import dagger.hilt.android.EarlyEntryPoints;
+import dagger.hilt.components.SingletonComponent;
+
 @GlideModule
 public class AegisGlideModule extends AppGlideModule {
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        // the memory cache is shared by every screen that shows icons, so by default it gets a bit more room than Glide gives it
+        Preferences prefs = EarlyEntryPoints.get(context.getApplicationContext(), EntryPoint.class).getPreferences();
+        MemorySizeCalculator calculator = new MemorySizeCalculator.Builder(context)
+                .setMemoryCacheScreens(prefs.getIconCacheSize().getScreens())
+                .build();
+        builder.setMemoryCache(new LruResourceCache(calculator.getMemoryCacheSize()));
+    }
+
     @Override
     public void registerComponents(@NonNull Context context, @NonNull Glide glide, @NonNull Registry registry) {
+        // rasterized icons are encrypted with a key that is replaced when the vault is locked
+        SvgRasterCache rasterCache = new SvgRasterCache(new File(context.getCacheDir(), SvgRasterCache.DIRNAME), SvgRasterCache.DEFAULT_MAX_SIZE);
+        VaultManager vaultManager = EarlyEntryPoints.get(context.getApplicationContext(), EntryPoint.class).getVaultManager();
+        vaultManager.registerLockListener(rasterCache);
+
+        // decoded icons shouldn't outlive the unlocked vault either
+        Handler handler = new Handler(Looper.getMainLooper());
+        vaultManager.registerLockListener(userInitiated -> {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                glide.clearMemory();
+            } else {
+                handler.post(glide::clearMemory);
+            }
+        });
+
         registry.prepend(VaultEntryIcon.class, ByteBuffer.class, new VaultEntryIconLoader.Factory());
+        registry.prepend(ByteBuffer.class, Bitmap.class, new SvgBitmapDecoder(glide.getBitmapPool(), rasterCache));
         registry.register(SVG.class, PictureDrawable.class, new SvgDrawableTranscoder())
                 .append(InputStream.class, SVG.class, new SvgDecoder())
                 .append(ByteBuffer.class, SVG.class, new SvgBytesDecoder());
     }
+
+    @EarlyEntryPoint
+    @InstallIn(SingletonComponent.class)
+    interface EntryPoint {
+        Preferences getPreferences();
+
+        VaultManager getVaultManager();
+    }
 }
@@ -1,17 +1,23 @@
 package com.beemdevelopment.aegis.ui.glide;
 
 import android.graphics.drawable.Drawable;
+import android.graphics.drawable.PictureDrawable;
+import android.content.Context;
 import android.os.Build;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
 import android.widget.ImageView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.amulyakhare.textdrawable.TextDrawable;
+import com.beemdevelopment.aegis.ViewMode;
 import com.beemdevelopment.aegis.helpers.TextDrawableHelper;
 import com.beemdevelopment.aegis.icons.IconPack;
 import com.beemdevelopment.aegis.icons.IconType;
 import com.beemdevelopment.aegis.vault.VaultEntry;
+import com.beemdevelopment.aegis.vault.VaultEntryIcon;
 import com.bumptech.glide.RequestBuilder;
 import com.bumptech.glide.RequestManager;
 import com.bumptech.glide.load.DataSource;
@@ -22,6 +28,9 @@ import com.bumptech.glide.request.target.DrawableImageViewTarget;
 import com.bumptech.glide.request.target.Target;
 
 import java.io.File;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 public class GlideHelper {
     private GlideHelper() {
@@ -44,12 +53,42 @@ public class GlideHelper {
             // we're about to display doesn't get overwritten when that pending load finishes
             rm.clear(targetView);
 
-            setLayerType(targetView, IconType.INVALID);
             TextDrawable drawable = TextDrawableHelper.generate(entry.getIssuer(), entry.getName(), targetView);
+            setLayerType(targetView, drawable);
             targetView.setImageDrawable(drawable);
         }
     }
 
+    /**
+     * Starts decoding the icons of the first screen of the given entries at the size at which
+     * they're shown in the entry list, so that they're in the memory cache by the time the
+     * list is first drawn. The entries are expected in the order in which they're shown.
+     */
+    public static void preloadEntryIcons(RequestManager rm, Context context, List<VaultEntry> entries, ViewMode viewMode) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int size = Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, viewMode.getIconSize(), metrics));
+        if (size <= 0) {
+            return;
+        }
+
+        // entries are at least as tall as their icon, so this covers the first screen
+        int count = (metrics.heightPixels / size + 1) * viewMode.getSpanCount();
+        Set<VaultEntryIcon> icons = new LinkedHashSet<>();
+        for (int i = 0; i < entries.size() && i < count; i++) {
+            VaultEntry entry = entries.get(i);
+            if (entry.hasIcon()) {
+                icons.add(entry.getIcon());
+            }
+        }
+
+        for (VaultEntryIcon icon : icons) {
+            // match the transformation that Glide applies when loading into an ImageView with the default scale type
+            setCommonOptions(rm.load(icon), icon.getType())
+                    .optionalFitCenter()
+                    .preload(size, size);
+        }
+    }
+
     private static void load(RequestBuilder<Drawable> rb, IconType iconType, ImageView targetView) {
         setCommonOptions(rb, iconType).into(targetView);
     }
@@ -57,9 +96,9 @@ public class GlideHelper {
     public static RequestBuilder<Drawable> setCommonOptions(RequestBuilder<Drawable> rb, IconType iconType) {
         if (iconType != null) {
             rb = rb.set(VaultEntryIconLoader.ICON_TYPE, iconType)
-                    .listener(new ViewReadyListener<>(targetView -> {
+                    .listener(new ViewReadyListener<>((targetView, drawable) -> {
                         targetView.setImageTintList(null);
-                        setLayerType(targetView, iconType);
+                        setLayerType(targetView, drawable);
                     }));
         }
 
@@ -68,12 +107,12 @@ public class GlideHelper {
     }
 
     /**
-     * Sets the layer type of the given ImageView based on the given IconType. If the
-     * icon type is SVG and SDK <= 27, the layer type is set to software. Otherwise, it
-     * is set to hardware.
+     * Sets the layer type of the given ImageView based on the given drawable. If the
+     * drawable is an SVG that wasn't rasterized and SDK <= 27, the layer type is set to
+     * software. Otherwise, it is set to hardware.
      */
-    private static void setLayerType(ImageView view, IconType iconType) {
-        if (iconType == IconType.SVG && Build.VERSION.SDK_INT <= Build.VERSION_CODES.O_MR1) {
+    private static void setLayerType(ImageView view, Drawable drawable) {
+        if (drawable instanceof PictureDrawable && Build.VERSION.SDK_INT <= Build.VERSION_CODES.O_MR1) {
             view.setLayerType(ImageView.LAYER_TYPE_SOFTWARE, null);
             return;
         }
@@ -98,14 +137,14 @@ public class GlideHelper {
             if (target instanceof DrawableImageViewTarget) {
                 DrawableImageViewTarget viewTarget = (DrawableImageViewTarget) target;
                 if (_listener != null) {
-                    _listener.onConfigureImageView(viewTarget.getView());
+                    _listener.onConfigureImageView(viewTarget.getView(), resource);
                 }
             }
             return false;
         }
 
         public interface Listener<T> {
-            void onConfigureImageView(ImageView targetView);
+            void onConfigureImageView(ImageView targetView, T resource);
         }
     }
 }
@@ -0,0 +1,62 @@
+package com.beemdevelopment.aegis.ui.glide;
+
+import static com.bumptech.glide.request.target.Target.SIZE_ORIGINAL;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.beemdevelopment.aegis.icons.IconType;
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.ResourceDecoder;
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
+import com.bumptech.glide.load.resource.bitmap.BitmapResource;
+import com.bumptech.glide.util.ByteBufferUtil;
+import com.caverock.androidsvg.SVG;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes an SVG straight into a bitmap of the size of the target. Rendered icons are kept
+ * in a {@link SvgRasterCache}, so that an SVG is only parsed once for every size it's
+ * displayed at. Requests without a known size fall through to {@link SvgBytesDecoder}.
+ */
+public class SvgBitmapDecoder implements ResourceDecoder<ByteBuffer, Bitmap> {
+    private final SvgDecoder _decoder = new SvgDecoder();
+    private final BitmapPool _pool;
+    private final SvgRasterCache _cache;
+
+    public SvgBitmapDecoder(BitmapPool pool, SvgRasterCache cache) {
+        _pool = pool;
+        _cache = cache;
+    }
+
+    @Override
+    public boolean handles(@NonNull ByteBuffer source, @NonNull Options options) {
+        return options.get(VaultEntryIconLoader.ICON_TYPE) == IconType.SVG;
+    }
+
+    @Nullable
+    @Override
+    public Resource<Bitmap> decode(@NonNull ByteBuffer source, int width, int height, @NonNull Options options) throws IOException {
+        if (width == SIZE_ORIGINAL || height == SIZE_ORIGINAL) {
+            return null;
+        }
+
+        byte[] hash = Hashing.sha256().hashBytes(source.duplicate()).asBytes();
+        Bitmap bitmap = _cache.get(hash, width, height, _pool);
+        if (bitmap == null) {
+            Resource<SVG> svg = _decoder.decode(ByteBufferUtil.toStream(source.duplicate()), width, height, options);
+            bitmap = _pool.get(width, height, Bitmap.Config.ARGB_8888);
+            svg.get().renderToCanvas(new Canvas(bitmap));
+            _cache.put(hash, bitmap);
+        }
+
+        return BitmapResource.obtain(bitmap, _pool);
+    }
+}
@@ -0,0 +1,213 @@
+package com.beemdevelopment.aegis.ui.glide;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.beemdevelopment.aegis.crypto.CryptParameters;
+import com.beemdevelopment.aegis.crypto.CryptResult;
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.util.IOUtils;
+import com.beemdevelopment.aegis.vault.VaultManager;
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
+import com.bumptech.glide.load.engine.cache.DiskCache;
+import com.bumptech.glide.load.engine.cache.DiskLruCacheWrapper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A bounded on-disk cache of SVG icons that have already been rasterized at a certain size,
+ * so that they don't have to be parsed and rendered again after they've been evicted from
+ * the memory cache of Glide. The raw pixels of every icon are encrypted with a key that
+ * only exists in memory. The key is replaced whenever the cache is cleared (i.e. when the
+ * vault is locked), so any entries that are left behind can't be read anymore. The names
+ * of the files in the cache are derived from the icon and its size with an HMAC under the
+ * same key, so they don't reveal which icons the vault contains either.
+ */
+public class SvgRasterCache implements VaultManager.LockListener {
+    public static final String DIRNAME = "svg_raster_cache";
+    public static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+
+    private static final Bitmap.Config CONFIG = Bitmap.Config.ARGB_8888;
+
+    private final DiskCache _cache;
+    private final ExecutorService _executor;
+    private volatile SecretKey _key;
+
+    public SvgRasterCache(File dir, long maxSize) {
+        _cache = DiskLruCacheWrapper.create(dir, maxSize);
+        _executor = Executors.newSingleThreadExecutor();
+        _key = CryptoUtils.generateKey();
+
+        // anything in the cache was encrypted with a key that no longer exists
+        _executor.execute(_cache::clear);
+    }
+
+    /**
+     * Returns a bitmap from the given pool with the icon of the given hash rendered at the
+     * given size, or null if it's not in the cache.
+     */
+    @Nullable
+    public Bitmap get(byte[] hash, int width, int height, BitmapPool pool) {
+        RasterKey key = createKey(hash, width, height);
+        File file = _cache.get(key);
+        if (file == null) {
+            return null;
+        }
+
+        byte[] pixels = null;
+        try (FileInputStream inStream = new FileInputStream(file)) {
+            pixels = decrypt(IOUtils.readFile(inStream));
+            if (pixels.length != width * height * 4) {
+                throw new IOException("Unexpected size of rasterized icon");
+            }
+
+            Bitmap bitmap = pool.get(width, height, CONFIG);
+            bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
+            return bitmap;
+        } catch (IOException | GeneralSecurityException e) {
+            // most likely encrypted with the key from before the cache was last cleared
+            _cache.delete(key);
+            return null;
+        } finally {
+            if (pixels != null) {
+                Arrays.fill(pixels, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Stores the given rasterized icon under the given hash and the size of the bitmap.
+     */
+    public void put(byte[] hash, Bitmap bitmap) {
+        if (bitmap.getConfig() != CONFIG) {
+            return;
+        }
+
+        byte[] pixels = new byte[bitmap.getByteCount()];
+        bitmap.copyPixelsToBuffer(ByteBuffer.wrap(pixels));
+
+        byte[] encrypted;
+        try {
+            encrypted = encrypt(pixels);
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            Arrays.fill(pixels, (byte) 0);
+        }
+
+        _cache.put(createKey(hash, bitmap.getWidth(), bitmap.getHeight()), file -> {
+            try (FileOutputStream outStream = new FileOutputStream(file)) {
+                outStream.write(encrypted);
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Replaces the encryption key of the cache and removes all entries in the background.
+     */
+    public void clear() {
+        _key = CryptoUtils.generateKey();
+        _executor.execute(_cache::clear);
+    }
+
+    @Override
+    public void onLocked(boolean userInitiated) {
+        clear();
+    }
+
+    private RasterKey createKey(byte[] hash, int width, int height) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(_key.getEncoded(), "HmacSHA256"));
+            mac.update(hash);
+            mac.update(ByteBuffer.allocate(8).putInt(width).putInt(height).array());
+            return new RasterKey(mac.doFinal());
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private byte[] encrypt(byte[] data) throws GeneralSecurityException {
+        Cipher cipher = CryptoUtils.createEncryptCipher(_key);
+        CryptResult result = CryptoUtils.encrypt(data, cipher);
+        CryptParameters params = result.getParams();
+
+        // nonce | tag | ciphertext
+        byte[] nonce = params.getNonce();
+        byte[] tag = params.getTag();
+        byte[] ciphertext = result.getData();
+        byte[] output = new byte[nonce.length + tag.length + ciphertext.length];
+        System.arraycopy(nonce, 0, output, 0, nonce.length);
+        System.arraycopy(tag, 0, output, nonce.length, tag.length);
+        System.arraycopy(ciphertext, 0, output, nonce.length + tag.length, ciphertext.length);
+        return output;
+    }
+
+    private byte[] decrypt(byte[] data) throws IOException, GeneralSecurityException {
+        int headerSize = CryptoUtils.CRYPTO_AEAD_NONCE_SIZE + CryptoUtils.CRYPTO_AEAD_TAG_SIZE;
+        if (data.length < headerSize) {
+            throw new IOException("Rasterized icon is truncated");
+        }
+
+        byte[] nonce = Arrays.copyOfRange(data, 0, CryptoUtils.CRYPTO_AEAD_NONCE_SIZE);
+        byte[] tag = Arrays.copyOfRange(data, CryptoUtils.CRYPTO_AEAD_NONCE_SIZE, headerSize);
+        Cipher cipher = CryptoUtils.createDecryptCipher(_key, nonce);
+        CryptResult result = CryptoUtils.decrypt(data, headerSize, data.length - headerSize, cipher, new CryptParameters(nonce, tag));
+        return result.getData();
+    }
+
+    /**
+     * The key of a rasterized icon in the disk cache: an HMAC of the hash of the icon and
+     * its size, under the key of the cache.
+     */
+    private static class RasterKey implements Key {
+        private final byte[] _mac;
+
+        private RasterKey(byte[] mac) {
+            _mac = mac;
+        }
+
+        @Override
+        public void updateDiskCacheKey(@NonNull MessageDigest messageDigest) {
+            messageDigest.update(_mac);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RasterKey)) {
+                return false;
+            }
+
+            return Arrays.equals(_mac, ((RasterKey) o)._mac);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(_mac);
+        }
+    }
+}
@@ -21,7 +21,11 @@ public class VaultEntryIconKey implements Key {
 
     @Override
     public boolean equals(Object o) {
-        return _icon.equals(o);
+        if (!(o instanceof VaultEntryIconKey)) {
+            return false;
+        }
+
+        return _icon.equals(((VaultEntryIconKey) o)._icon);
     }
 
     @Override
@@ -1,6 +1,7 @@
 package com.beemdevelopment.aegis.ui.tasks;
 
 import android.content.Context;
+import android.content.DialogInterface;
 import android.net.Uri;
 
 import com.beemdevelopment.aegis.R;
@@ -13,6 +14,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ImportIconPackTask extends ProgressDialogTask<ImportIconPackTask.Params, ImportIconPackTask.Result> {
     private final ImportIconPackTask.Callback _cb;
@@ -20,6 +22,9 @@ public class ImportIconPackTask extends ProgressDialogTask<ImportIconPackTask.Pa
     public ImportIconPackTask(Context context, ImportIconPackTask.Callback cb) {
         super(context, context.getString(R.string.importing_icon_pack));
         _cb = cb;
+
+        // the icon pack manager cleans up after itself if the import is cancelled
+        getDialog().setButton(DialogInterface.BUTTON_NEGATIVE, context.getString(android.R.string.cancel), (dialog, which) -> cancel(false));
     }
 
     @Override
@@ -38,7 +43,22 @@ public class ImportIconPackTask extends ProgressDialogTask<ImportIconPackTask.Pa
                 IOUtils.copy(inStream, outStream);
             }
 
-            IconPack pack = param.getManager().importPack(tempFile);
+            AtomicInteger lastPercent = new AtomicInteger(-1);
+            IconPack pack = param.getManager().importPack(tempFile, new IconPackManager.ImportListener() {
+                @Override
+                public void onIconExtracted(int count, int total) {
+                    // only update the dialog when the percentage changes, rather than for every icon
+                    int percent = count * 100 / total;
+                    if (lastPercent.getAndSet(percent) != percent) {
+                        publishProgress(context.getString(R.string.importing_icon_pack_progress, count, total));
+                    }
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return ImportIconPackTask.this.isCancelled();
+                }
+            });
             return new Result(pack, null);
         } catch (IOException | IconPackException e) {
             e.printStackTrace();
@@ -56,6 +76,14 @@ public class ImportIconPackTask extends ProgressDialogTask<ImportIconPackTask.Pa
         _cb.onTaskFinished(result);
     }
 
+    @Override
+    protected void onCancelled(ImportIconPackTask.Result result) {
+        // the import may have finished right before it was cancelled
+        if (result != null && result.getIconPack() != null) {
+            _cb.onTaskFinished(result);
+        }
+    }
+
     public interface Callback {
         void onTaskFinished(ImportIconPackTask.Result result);
     }
@@ -2,19 +2,24 @@ package com.beemdevelopment.aegis.ui.tasks;
 
 import android.content.Context;
 
+import com.beemdevelopment.aegis.Preferences;
 import com.beemdevelopment.aegis.R;
+import com.beemdevelopment.aegis.crypto.Argon2idParameters;
 import com.beemdevelopment.aegis.crypto.CryptoUtils;
-import com.beemdevelopment.aegis.crypto.SCryptParameters;
+import com.beemdevelopment.aegis.crypto.KdfParameters;
+import com.beemdevelopment.aegis.crypto.SCryptCalibration;
 import com.beemdevelopment.aegis.vault.slots.PasswordSlot;
 
 import javax.crypto.SecretKey;
 
 public class KeyDerivationTask extends ProgressDialogTask<KeyDerivationTask.Params, KeyDerivationTask.Result> {
     private Callback _cb;
+    private Preferences _prefs;
 
     public KeyDerivationTask(Context context, Callback cb) {
         super(context, context.getString(R.string.encrypting_vault));
         _cb = cb;
+        _prefs = new Preferences(context);
     }
 
     @Override
@@ -22,19 +27,37 @@ public class KeyDerivationTask extends ProgressDialogTask<KeyDerivationTask.Para
         setPriority();
 
         Params params = args[0];
-        byte[] salt = CryptoUtils.generateSalt();
-        SCryptParameters scryptParams = new SCryptParameters(
-                CryptoUtils.CRYPTO_SCRYPT_N,
-                CryptoUtils.CRYPTO_SCRYPT_r,
-                CryptoUtils.CRYPTO_SCRYPT_p,
-                salt
-        );
+        KdfParameters kdfParams;
+        if (_prefs.isArgon2Enabled()) {
+            kdfParams = new Argon2idParameters(
+                    CryptoUtils.CRYPTO_ARGON2_m,
+                    CryptoUtils.CRYPTO_ARGON2_t,
+                    CryptoUtils.CRYPTO_ARGON2_p,
+                    CryptoUtils.generateSalt()
+            );
+        } else {
+            kdfParams = SCryptCalibration.getParameters(getSCryptBlockNanos(_prefs));
+        }
 
         PasswordSlot slot = params.getSlot();
-        SecretKey key = slot.deriveKey(params.getPassword(), scryptParams);
+        SecretKey key = slot.deriveKey(params.getPassword(), kdfParams);
         return new Result(slot, key);
     }
 
+    /**
+     * Returns the cost of scrypt on this device, measuring it first if that hasn't been
+     * done yet. This should not be called on the UI thread.
+     */
+    static long getSCryptBlockNanos(Preferences prefs) {
+        long nanos = prefs.getSCryptBlockNanos();
+        if (nanos == 0) {
+            nanos = SCryptCalibration.measure();
+            prefs.setSCryptBlockNanos(nanos);
+        }
+
+        return nanos;
+    }
+
     @Override
     protected void onPostExecute(Result result) {
         super.onPostExecute(result);
@@ -1,26 +1,47 @@
 package com.beemdevelopment.aegis.ui.tasks;
 
 import android.content.Context;
+import android.os.Process;
 
+import androidx.annotation.Nullable;
+
+import com.beemdevelopment.aegis.Preferences;
 import com.beemdevelopment.aegis.R;
 import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.crypto.KdfParameters;
 import com.beemdevelopment.aegis.crypto.MasterKey;
+import com.beemdevelopment.aegis.crypto.SCryptCalibration;
+import com.beemdevelopment.aegis.crypto.SCryptParameters;
+import com.beemdevelopment.aegis.crypto.bc.SCrypt;
+import com.beemdevelopment.aegis.vault.PasswordKeyCache;
 import com.beemdevelopment.aegis.vault.slots.PasswordSlot;
 import com.beemdevelopment.aegis.vault.slots.Slot;
 import com.beemdevelopment.aegis.vault.slots.SlotException;
 import com.beemdevelopment.aegis.vault.slots.SlotIntegrityException;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 
 public class PasswordSlotDecryptTask extends ProgressDialogTask<PasswordSlotDecryptTask.Params, PasswordSlotDecryptTask.Result> {
     private Callback _cb;
+    private Preferences _prefs;
 
     public PasswordSlotDecryptTask(Context context, Callback cb) {
         super(context, context.getString(R.string.unlocking_vault));
         _cb = cb;
+        _prefs = new Preferences(context);
     }
 
     @Override
@@ -28,13 +49,193 @@ public class PasswordSlotDecryptTask extends ProgressDialogTask<PasswordSlotDecr
         setPriority();
 
         Params params = args[0];
-        return decrypt(params.getSlots(), params.getPassword());
+        PasswordKeyCache cache = params.getKeyCache();
+        long cacheMillis = TimeUnit.MINUTES.toMillis(_prefs.getPasswordKeyCacheTimeout());
+        if (cache != null && cacheMillis > 0) {
+            Result result = decryptCached(cache, params.getSlots(), params.getPassword());
+            if (result != null) {
+                return result;
+            }
+        }
+
+        Result result;
+        SCrypt.retainScratch();
+        try {
+            result = decrypt(params.getSlots(), params.getPassword());
+            if (result != null && params.isRewrapAllowed()) {
+                result = rewrap(result, params.getPassword());
+            }
+        } finally {
+            SCrypt.releaseScratch();
+        }
+
+        if (cache != null) {
+            if (result != null && cacheMillis > 0) {
+                cache.put(result._slot, params.getPassword(), result._slotKey, cacheMillis);
+            } else {
+                cache.invalidate();
+            }
+        }
+
+        return result;
     }
 
-    public static Result decrypt(List<PasswordSlot> slots, char[] password) {
+    /**
+     * Tries to decrypt the given slots with the key that was cached at a previous unlock.
+     * This only works if the given password is the one that was used back then.
+     */
+    private static Result decryptCached(PasswordKeyCache cache, List<PasswordSlot> slots, char[] password) {
         for (PasswordSlot slot : slots) {
+            SecretKey key = cache.get(slot, password);
+            if (key == null) {
+                continue;
+            }
+
             try {
-                return decryptPasswordSlot(slot, password);
+                MasterKey masterKey = decryptPasswordSlot(slot, key);
+                return new Result(masterKey, slot, false, key, true);
+            } catch (SlotException | SlotIntegrityException e) {
+                e.printStackTrace();
+                cache.invalidate();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Re-wraps the master key with a copy of the slot that has new scrypt parameters, if
+     * deriving the key of the slot is much faster or slower on this device than it should be.
+     * The caller is expected to replace the slot and save the vault if the slot of the
+     * result is reported to be repaired.
+     */
+    private Result rewrap(Result result, char[] password) {
+        // only scrypt is calibrated, Argon2id slots are left alone
+        KdfParameters params = result._slot.getKdfParameters();
+        if (!(params instanceof SCryptParameters)) {
+            return result;
+        }
+
+        long blockNanos = KeyDerivationTask.getSCryptBlockNanos(_prefs);
+        if (!SCryptCalibration.shouldRewrap((SCryptParameters) params, blockNanos)) {
+            return result;
+        }
+
+        PasswordSlot slot = (PasswordSlot) result._slot.clone();
+        SecretKey key = slot.deriveKey(password, SCryptCalibration.getParameters(blockNanos));
+        try {
+            slot.setKey(result.getKey(), Slot.createEncryptCipher(key));
+        } catch (SlotException e) {
+            // the old slot still works, so there's no need to bother the user with this
+            e.printStackTrace();
+            return result;
+        }
+
+        return new Result(result.getKey(), slot, true, key, false);
+    }
+
+    /**
+     * Tries to decrypt the given slots with the given password. The keys of the slots are
+     * derived concurrently (as far as the number of processors and the available memory
+     * allow), and the result of the first slot that decrypts successfully is returned
+     * right away. Derivations that are still in progress at that point are cancelled.
+     * The memory used by the derivations is reused for the ones that follow, until all
+     * slots have been tried.
+     */
+    public static Result decrypt(List<PasswordSlot> slots, char[] password) {
+        SCrypt.retainScratch();
+        try {
+            // slots with the same KDF parameters produce the same key, so derive it only once
+            List<List<PasswordSlot>> groups = groupByParams(slots);
+            int threads = getParallelism(groups);
+            if (threads > 1) {
+                try {
+                    return decryptConcurrently(groups, password, threads);
+                } catch (OutOfMemoryError e) {
+                    // the available memory was overestimated, so fall back to one slot at a time
+                    e.printStackTrace();
+                }
+            }
+
+            for (List<PasswordSlot> group : groups) {
+                Result result = decryptGroup(group, password);
+                if (result != null) {
+                    return result;
+                }
+            }
+
+            return null;
+        } finally {
+            SCrypt.releaseScratch();
+        }
+    }
+
+    private static Result decryptConcurrently(List<List<PasswordSlot>> groups, char[] password, int threads) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DerivationThreadFactory());
+        CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+        // tells the derivations that haven't started yet to skip their slots
+        AtomicBoolean cancelled = new AtomicBoolean();
+        boolean outOfMemory = false;
+        try {
+            for (List<PasswordSlot> group : groups) {
+                completion.submit(() -> decryptGroup(group, password, cancelled));
+            }
+
+            for (int i = 0; i < groups.size(); i++) {
+                Result result = completion.take().get();
+                if (result != null) {
+                    return result;
+                }
+            }
+
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof OutOfMemoryError) {
+                outOfMemory = true;
+                throw (OutOfMemoryError) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        } finally {
+            // interrupts any derivations that are still in progress, which in turn cancel their scrypt lanes
+            cancelled.set(true);
+            executor.shutdownNow();
+            if (outOfMemory) {
+                awaitTermination(executor);
+            }
+        }
+    }
+
+    /**
+     * Waits for the derivations that were interrupted to let go of their memory.
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+    }
+
+    private static Result decryptGroup(List<PasswordSlot> group, char[] password) {
+        return decryptGroup(group, password, new AtomicBoolean());
+    }
+
+    private static Result decryptGroup(List<PasswordSlot> group, char[] password, AtomicBoolean cancelled) {
+        if (cancelled.get()) {
+            return null;
+        }
+
+        SecretKey key = group.get(0).deriveKey(password);
+        for (PasswordSlot slot : group) {
+            try {
+                return decryptPasswordSlot(slot, password, key);
             } catch (SlotException e) {
                 throw new RuntimeException(e);
             } catch (SlotIntegrityException ignored) {
@@ -45,10 +246,58 @@ public class PasswordSlotDecryptTask extends ProgressDialogTask<PasswordSlotDecr
         return null;
     }
 
+    private static List<List<PasswordSlot>> groupByParams(List<PasswordSlot> slots) {
+        List<List<PasswordSlot>> groups = new ArrayList<>();
+        for (PasswordSlot slot : slots) {
+            List<PasswordSlot> group = null;
+            for (List<PasswordSlot> candidate : groups) {
+                if (hasSameParams(candidate.get(0), slot)) {
+                    group = candidate;
+                    break;
+                }
+            }
+
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.add(group);
+            }
+            group.add(slot);
+        }
+
+        return groups;
+    }
+
+    private static boolean hasSameParams(PasswordSlot slot1, PasswordSlot slot2) {
+        return slot1.getKdfParameters().equals(slot2.getKdfParameters());
+    }
+
+    /**
+     * Returns the number of key derivations to run concurrently. Every derivation needs a
+     * considerable amount of memory, so it's limited by the memory that's still available
+     * as well as by the number of processors.
+     */
+    private static int getParallelism(List<List<PasswordSlot>> groups) {
+        Runtime runtime = Runtime.getRuntime();
+        long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+
+        long required = 0;
+        for (List<PasswordSlot> group : groups) {
+            required = Math.max(required, group.get(0).getKdfParameters().getMemory());
+        }
+
+        // leave room for the rest of the app
+        long byMemory = required == 0 ? groups.size() : available / (required * 2);
+        return (int) Math.min(groups.size(), Math.min(runtime.availableProcessors(), byMemory));
+    }
+
     public static Result decryptPasswordSlot(PasswordSlot slot, char[] password)
             throws SlotIntegrityException, SlotException {
+        return decryptPasswordSlot(slot, password, slot.deriveKey(password));
+    }
+
+    private static Result decryptPasswordSlot(PasswordSlot slot, char[] password, SecretKey key)
+            throws SlotIntegrityException, SlotException {
         MasterKey masterKey;
-        SecretKey key = slot.deriveKey(password);
         byte[] oldPasswordBytes = CryptoUtils.toBytesOld(password);
 
         try {
@@ -74,7 +323,7 @@ public class PasswordSlotDecryptTask extends ProgressDialogTask<PasswordSlotDecr
             repaired = true;
         }
 
-        return new Result(masterKey, slot, repaired);
+        return new Result(masterKey, slot, repaired, key, false);
     }
 
     public static MasterKey decryptPasswordSlot(PasswordSlot slot, SecretKey key)
@@ -93,9 +342,28 @@ public class PasswordSlotDecryptTask extends ProgressDialogTask<PasswordSlotDecr
         private List<PasswordSlot> _slots;
         private char[] _password;
 
+        private boolean _rewrapAllowed;
+        private PasswordKeyCache _keyCache;
+
         public Params(List<PasswordSlot> slots, char[] password) {
+            this(slots, password, false);
+        }
+
+        public Params(List<PasswordSlot> slots, char[] password, boolean rewrapAllowed) {
+            this(slots, password, rewrapAllowed, null);
+        }
+
+        /**
+         * @param rewrapAllowed whether the master key may be re-wrapped with new scrypt
+         *                      parameters that are a better fit for this device.
+         * @param keyCache the cache to look up the key of the slots in before deriving it,
+         *                 and to store the key in afterwards, if enabled by the user.
+         */
+        public Params(List<PasswordSlot> slots, char[] password, boolean rewrapAllowed, @Nullable PasswordKeyCache keyCache) {
             _slots = slots;
             _password = password;
+            _rewrapAllowed = rewrapAllowed;
+            _keyCache = keyCache;
         }
 
         public List<PasswordSlot> getSlots() {
@@ -105,17 +373,34 @@ public class PasswordSlotDecryptTask extends ProgressDialogTask<PasswordSlotDecr
         public char[] getPassword() {
             return _password;
         }
+
+        public boolean isRewrapAllowed() {
+            return _rewrapAllowed;
+        }
+
+        @Nullable
+        public PasswordKeyCache getKeyCache() {
+            return _keyCache;
+        }
     }
 
     public static class Result {
         private MasterKey _key;
         private PasswordSlot _slot;
         private boolean _repaired;
+        private SecretKey _slotKey;
+        private boolean _fromKeyCache;
 
         public Result(MasterKey key, PasswordSlot slot, boolean repaired) {
+            this(key, slot, repaired, null, false);
+        }
+
+        private Result(MasterKey key, PasswordSlot slot, boolean repaired, SecretKey slotKey, boolean fromKeyCache) {
             _key = key;
             _slot = slot;
             _repaired = repaired;
+            _slotKey = slotKey;
+            _fromKeyCache = fromKeyCache;
         }
 
         public Result(MasterKey key, PasswordSlot slot) {
@@ -133,9 +418,33 @@ public class PasswordSlotDecryptTask extends ProgressDialogTask<PasswordSlotDecr
         public boolean isSlotRepaired() {
             return _repaired;
         }
+
+        /**
+         * Reports whether the slot was decrypted with a key from the cache, instead of
+         * with a freshly derived one.
+         */
+        public boolean isFromKeyCache() {
+            return _fromKeyCache;
+        }
     }
 
     public interface Callback {
         void onTaskFinished(Result result);
     }
+
+    /**
+     * Creates the threads that the keys of the slots are derived on concurrently. They run
+     * at the same priority as the task itself, so that they don't compete with the UI thread.
+     */
+    private static class DerivationThreadFactory implements ThreadFactory {
+        private final ThreadFactory _factory = Executors.defaultThreadFactory();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return _factory.newThread(() -> {
+                Process.setThreadPriority(THREAD_PRIORITY);
+                runnable.run();
+            });
+        }
+    }
 }
@@ -20,6 +20,9 @@ import com.beemdevelopment.aegis.ui.dialogs.Dialogs;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
 public abstract class ProgressDialogTask<Params, Result> extends AsyncTask<Params, String, Result> {
+    // the priority of the background work of a task, see setPriority()
+    protected static final int THREAD_PRIORITY = Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE;
+
     private final AlertDialog _dialog;
     private final TextView _textProgress;
 
@@ -58,7 +61,7 @@ public abstract class ProgressDialogTask<Params, Result> extends AsyncTask<Param
     }
 
     protected void setPriority() {
-        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE);
+        Process.setThreadPriority(THREAD_PRIORITY);
     }
 
     protected final AlertDialog getDialog() {
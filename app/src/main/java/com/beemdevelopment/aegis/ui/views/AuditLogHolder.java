@@ -98,6 +98,8 @@ public class AuditLogHolder extends RecyclerView.ViewHolder {
                 return R.string.event_description_vault_unlock_failed_password;
             case VAULT_UNLOCK_FAILED_BIOMETRICS:
                 return R.string.event_description_vault_unlock_failed_biometrics;
+            case VAULT_UNLOCKED_CACHED_KEY:
+                return R.string.event_description_vault_unlocked_cached_key;
             default:
                 return R.string.event_unknown;
         }
@@ -106,6 +108,7 @@ public class AuditLogHolder extends RecyclerView.ViewHolder {
     private int getIconResource(EventType eventType) {
         switch(eventType) {
             case VAULT_UNLOCKED:
+            case VAULT_UNLOCKED_CACHED_KEY:
                 return R.drawable.ic_lock_open;
             case VAULT_BACKUP_CREATED:
             case VAULT_ANDROID_BACKUP_CREATED:
@@ -26,13 +26,14 @@ import com.beemdevelopment.aegis.R;
 import com.beemdevelopment.aegis.SortCategory;
 import com.beemdevelopment.aegis.ViewMode;
 import com.beemdevelopment.aegis.helpers.ItemTouchHelperAdapter;
-import com.beemdevelopment.aegis.helpers.comparators.FavoriteComparator;
+import com.beemdevelopment.aegis.helpers.OtpRefreshScheduler;
 import com.beemdevelopment.aegis.otp.HotpInfo;
 import com.beemdevelopment.aegis.otp.OtpInfo;
 import com.beemdevelopment.aegis.otp.OtpInfoException;
 import com.beemdevelopment.aegis.otp.TotpInfo;
 import com.beemdevelopment.aegis.ui.models.ErrorCardInfo;
 import com.beemdevelopment.aegis.util.CollectionUtils;
+import com.beemdevelopment.aegis.vault.EntrySearchIndex;
 import com.beemdevelopment.aegis.vault.VaultEntry;
 import com.beemdevelopment.aegis.vault.VaultGroup;
 
@@ -43,12 +44,16 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> implements ItemTouchHelperAdapter {
     private EntryListView _view;
@@ -75,11 +80,17 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     private SortCategory _sortCategory;
     private ViewMode _viewMode;
     private String _searchFilter;
+    private EntrySearchIndex _searchIndex;
     private boolean _isPeriodUniform = true;
     private int _uniformPeriod = -1;
     private Handler _dimHandler;
     private Handler _doubleTapHandler;
     private boolean _pauseFocused;
+    private OtpRefreshScheduler _refreshScheduler;
+    private ExecutorService _listExecutor;
+    private Handler _listHandler;
+    private final AtomicInteger _listGeneration = new AtomicInteger();
+    private boolean _listRefreshPending;
 
     // keeps track of the EntryHolders that are currently bound
     private List<EntryHolder> _holders;
@@ -91,10 +102,53 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         _holders = new ArrayList<>();
         _dimHandler = new Handler();
         _doubleTapHandler = new Handler();
+        _listExecutor = Executors.newSingleThreadExecutor();
+        _listHandler = new Handler();
         _view = view;
+
+        _refreshScheduler = new OtpRefreshScheduler(new OtpRefreshScheduler.Listener() {
+            @Override
+            public Collection<VaultEntry> getEntries(int period) {
+                List<VaultEntry> entries = new ArrayList<>();
+                for (EntryHolder holder : _holders) {
+                    OtpInfo info = holder.getEntry().getInfo();
+                    if (!holder.isHidden() && info instanceof TotpInfo && ((TotpInfo) info).getPeriod() == period) {
+                        entries.add(holder.getEntry());
+                    }
+                }
+                return entries;
+            }
+
+            @Override
+            public void onCodesRefreshed(int period, Map<UUID, OtpRefreshScheduler.Codes> codes) {
+                for (EntryHolder holder : _holders) {
+                    VaultEntry entry = holder.getEntry();
+                    OtpInfo info = entry.getInfo();
+                    if (!(info instanceof TotpInfo) || ((TotpInfo) info).getPeriod() != period) {
+                        continue;
+                    }
+
+                    // entries that were bound or edited after the codes were generated
+                    // have to fall back to generating their code on the spot
+                    OtpRefreshScheduler.Codes entryCodes = codes.get(entry.getUUID());
+                    if (entryCodes != null && entryCodes.getInfo() == info) {
+                        holder.refreshCode(entryCodes);
+                    } else {
+                        holder.refreshCode();
+                    }
+                }
+
+                if (_view != null) {
+                    _view.onCodesRefreshed(period);
+                }
+            }
+        });
     }
 
     public void destroy() {
+        _listGeneration.incrementAndGet();
+        _listExecutor.shutdownNow();
+        _refreshScheduler.destroy();
         for (EntryHolder holder : _holders) {
             holder.destroy();
         }
@@ -145,6 +199,8 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 
     public void setSearchBehaviorMask(int searchBehaviorMask) { _searchBehaviorMask = searchBehaviorMask; }
 
+    public void setSearchIndex(@Nullable EntrySearchIndex searchIndex) { _searchIndex = searchIndex; }
+
     public void setPauseFocused(boolean pauseFocused) {
         _pauseFocused = pauseFocused;
     }
@@ -154,11 +210,16 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
             return;
         }
 
+        // replacing the list cancels a refresh that's in flight, so start it over
+        boolean refreshPending = _listRefreshPending;
         replaceEntryList(new EntryList(
                 _entryList.getEntries(),
                 _entryList.getShownEntries(),
                 info
         ));
+        if (refreshPending) {
+            refreshEntryList();
+        }
     }
 
     public VaultEntry getEntryAtPosition(int position) {
@@ -176,11 +237,26 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
             entry.setLastUsedTimestamp(_lastUsedTimestamps.containsKey(entry.getUUID()) ? _lastUsedTimestamps.get(entry.getUUID()) : 0);
         }
 
+        // Keep showing the entries that were shown before, as far as they still exist,
+        // until the new list has been filtered and sorted in the background
+        Map<UUID, VaultEntry> entriesByUuid = new HashMap<>();
+        for (VaultEntry entry : entries) {
+            entriesByUuid.put(entry.getUUID(), entry);
+        }
+        List<VaultEntry> shownEntries = new ArrayList<>();
+        for (VaultEntry entry : _entryList.getShownEntries()) {
+            VaultEntry newEntry = entriesByUuid.get(entry.getUUID());
+            if (newEntry != null) {
+                shownEntries.add(newEntry);
+            }
+        }
+
         replaceEntryList(new EntryList(
                 entries,
-                calculateShownEntries(entries),
+                shownEntries,
                 _entryList.getErrorCardInfo()
         ));
+        refreshEntryList();
     }
 
     public void clearEntries() {
@@ -191,44 +267,6 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         return _entryList.translateEntryPosToIndex(position);
     }
 
-    private boolean isEntryFiltered(VaultEntry entry) {
-        Set<UUID> groups = entry.getGroups();
-        String issuer = entry.getIssuer().toLowerCase();
-        String name = entry.getName().toLowerCase();
-        String note = entry.getNote().toLowerCase();
-
-        if (_searchFilter != null) {
-            String[] tokens = _searchFilter.toLowerCase().split("\\s+");
-
-            // Return true if not all tokens match at least one of the relevant fields
-            return !Arrays.stream(tokens)
-                    .allMatch(token ->
-                            ((_searchBehaviorMask & Preferences.SEARCH_IN_ISSUER) != 0 && issuer.contains(token)) ||
-                                    ((_searchBehaviorMask & Preferences.SEARCH_IN_NAME) != 0 && name.contains(token)) ||
-                                    ((_searchBehaviorMask & Preferences.SEARCH_IN_NOTE) != 0 && note.contains(token)) ||
-                                    ((_searchBehaviorMask & Preferences.SEARCH_IN_GROUPS) != 0 && doesAnyGroupMatchSearchFilter(groups, token))
-                    );
-        }
-
-        if (!_groupFilter.isEmpty()) {
-            if (groups.isEmpty() && !_groupFilter.contains(null)) {
-                return true;
-            }
-            if (!groups.isEmpty() && _groupFilter.stream().filter(Objects::nonNull).noneMatch(groups::contains)) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-
-    private boolean doesAnyGroupMatchSearchFilter(Set<UUID> entryGroupUUIDs, String searchFilter) {
-        return _groups.stream()
-                .filter(group -> entryGroupUUIDs.contains(group.getUUID()))
-                .map(VaultGroup::getName)
-                .anyMatch(groupName -> groupName.toLowerCase().contains(searchFilter.toLowerCase()));
-    }
-
     public void refresh(boolean hard) {
         if (hard) {
             refreshEntryList();
@@ -274,16 +312,52 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         }
     }
 
+    /**
+     * Recalculates the shown entries on a background thread and dispatches the changes to
+     * the recycler view once that's done. If the list is refreshed or replaced again in
+     * the meantime, the result is discarded.
+     */
     private void refreshEntryList() {
-        replaceEntryList(new EntryList(
-                _entryList.getEntries(),
-                calculateShownEntries(_entryList.getEntries()),
-                _entryList.getErrorCardInfo()
-        ));
+        int generation = _listGeneration.incrementAndGet();
+        _listRefreshPending = true;
+        EntryList oldEntryList = _entryList;
+        ShownEntriesFilter filter = createShownEntriesFilter(oldEntryList.getEntries());
+
+        _listExecutor.execute(() -> {
+            if (generation != _listGeneration.get()) {
+                return;
+            }
+
+            EntryList newEntryList = new EntryList(
+                    oldEntryList.getEntries(),
+                    filter.apply(),
+                    oldEntryList.getErrorCardInfo()
+            );
+
+            if (generation != _listGeneration.get()) {
+                return;
+            }
+
+            DiffUtil.DiffResult diffRes = DiffUtil.calculateDiff(new DiffCallback(oldEntryList, newEntryList));
+            _listHandler.post(() -> {
+                if (_view != null && generation == _listGeneration.get() && _entryList == oldEntryList) {
+                    _listRefreshPending = false;
+                    dispatchEntryList(newEntryList, diffRes);
+                }
+            });
+        });
     }
 
     private void replaceEntryList(EntryList newEntryList) {
+        // supersede any refresh that is still in flight
+        _listGeneration.incrementAndGet();
+        _listRefreshPending = false;
+
         DiffUtil.DiffResult diffRes = DiffUtil.calculateDiff(new DiffCallback(_entryList, newEntryList));
+        dispatchEntryList(newEntryList, diffRes);
+    }
+
+    private void dispatchEntryList(EntryList newEntryList, DiffUtil.DiffResult diffRes) {
         _entryList = newEntryList;
         updatePeriodUniformity();
 
@@ -296,28 +370,24 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         _view.onListChange();
     }
 
-    private List<VaultEntry> calculateShownEntries(List<VaultEntry> entries) {
-        List<VaultEntry> res = new ArrayList<>();
-        for (VaultEntry entry : entries) {
-            if (!isEntryFiltered(entry)) {
-                res.add(entry);
-            }
-        }
-
-        sortEntries(res, _sortCategory);
-        return res;
+    /**
+     * Reports whether the shown entries are still being recalculated in the background.
+     */
+    public boolean isListRefreshPending() {
+        return _listRefreshPending;
     }
 
-    private static void sortEntries(List<VaultEntry> entries, SortCategory sortCategory) {
-        if (sortCategory != null) {
-            Comparator<VaultEntry> comparator = sortCategory.getComparator();
-            if (comparator != null) {
-                Collections.sort(entries, comparator);
-            }
-        }
+    private ShownEntriesFilter createShownEntriesFilter(List<VaultEntry> entries) {
+        return new ShownEntriesFilter(entries, _searchFilter, _searchBehaviorMask, _searchIndex, _groupFilter, _groups, _sortCategory);
+    }
 
-        Comparator<VaultEntry> favoriteComparator = new FavoriteComparator();
-        Collections.sort(entries, favoriteComparator);
+    /**
+     * Returns the entries that are shown for the given group filter and sort category, in the
+     * order they're shown in, as long as no search filter is applied.
+     */
+    public static List<VaultEntry> getShownEntries(List<VaultEntry> entries, @NonNull Set<UUID> groupFilter,
+                                                   @Nullable Collection<VaultGroup> groups, SortCategory sortCategory) {
+        return new ShownEntriesFilter(entries, null, 0, null, groupFilter, groups, sortCategory).apply();
     }
 
     private boolean isEntryDraggable(VaultEntry entry) {
@@ -378,14 +448,21 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         int secondIndex = _entryList.translateEntryPosToIndex(secondPosition);
         VaultEntry firstEntry = _entryList.getShownEntries().get(firstIndex);
         VaultEntry secondEntry = _entryList.getShownEntries().get(secondIndex);
+        if (firstEntry.isFavorite() != secondEntry.isFavorite()) {
+            // favorites are always sorted to the top, so entries can't be moved past them
+            return;
+        }
         _view.onEntryMove(firstEntry, secondEntry);
 
-        // Then update the visual end
+        // Then update the visual end. Entries can only be dragged around if they're not
+        // filtered and in custom order, so the shown entries change in the same way.
         List<VaultEntry> newEntries = new ArrayList<>(_entryList.getEntries());
         CollectionUtils.move(newEntries, newEntries.indexOf(firstEntry), newEntries.indexOf(secondEntry));
+        List<VaultEntry> newShownEntries = new ArrayList<>(_entryList.getShownEntries());
+        CollectionUtils.move(newShownEntries, firstIndex, secondIndex);
         replaceEntryList(new EntryList(
                 newEntries,
-                calculateShownEntries(newEntries),
+                newShownEntries,
                 _entryList.getErrorCardInfo()
         ));
     }
@@ -430,6 +507,7 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         if (holder instanceof EntryHolder) {
             ((EntryHolder) holder).stopRefreshLoop();
             _holders.remove(holder);
+            updateRefreshPeriods();
         }
     }
 
@@ -567,11 +645,24 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
             });
 
             _holders.add(entryHolder);
+            updateRefreshPeriods();
         } else if (holder instanceof FooterView) {
             ((FooterView) holder).refresh();
         }
     }
 
+    private void updateRefreshPeriods() {
+        Set<Integer> periods = new HashSet<>();
+        for (EntryHolder holder : _holders) {
+            OtpInfo info = holder.getEntry().getInfo();
+            if (info instanceof TotpInfo) {
+                periods.add(((TotpInfo) info).getPeriod());
+            }
+        }
+
+        _refreshScheduler.setPeriods(periods);
+    }
+
     private void updatePeriodUniformity() {
         int mostFrequentPeriod = getMostFrequentPeriod();
         boolean uniform = isPeriodUniform();
@@ -805,6 +896,179 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         }
     }
 
+    /**
+     * A snapshot of the entries and of the filter and sort settings, taken on the UI thread,
+     * so that the shown entries can be calculated on another thread while the entries and
+     * groups keep being modified. Only the fields that are filtered and sorted on are
+     * snapshotted, and the result is mapped back to the entries themselves.
+     */
+    private static class ShownEntriesFilter {
+        private final List<EntrySnapshot> _entries;
+        private final String _searchFilter;
+        private final int _searchBehaviorMask;
+        private final EntrySearchIndex _searchIndex;
+        private final Set<UUID> _groupFilter;
+        private final Map<UUID, String> _groupNames;
+        private final SortCategory _sortCategory;
+
+        public ShownEntriesFilter(
+                @NonNull List<VaultEntry> entries,
+                @Nullable String searchFilter,
+                int searchBehaviorMask,
+                @Nullable EntrySearchIndex searchIndex,
+                @NonNull Set<UUID> groupFilter,
+                @Nullable Collection<VaultGroup> groups,
+                SortCategory sortCategory
+        ) {
+            _entries = new ArrayList<>(entries.size());
+            for (VaultEntry entry : entries) {
+                _entries.add(new EntrySnapshot(entry));
+            }
+
+            _groupNames = new HashMap<>();
+            if (groups != null) {
+                for (VaultGroup group : groups) {
+                    _groupNames.put(group.getUUID(), group.getName().toLowerCase());
+                }
+            }
+
+            _searchFilter = searchFilter;
+            _searchBehaviorMask = searchBehaviorMask;
+            _searchIndex = searchIndex;
+            _groupFilter = new HashSet<>(groupFilter);
+            _sortCategory = sortCategory;
+        }
+
+        public List<VaultEntry> apply() {
+            // the search index answers the whole query at once, instead of entry by entry
+            Set<UUID> searchMatches = null;
+            if (_searchFilter != null && _searchIndex != null) {
+                searchMatches = _searchIndex.search(_searchFilter, _searchBehaviorMask);
+            }
+
+            List<EntrySnapshot> shown = new ArrayList<>();
+            for (EntrySnapshot entry : _entries) {
+                if (!isEntryFiltered(entry, searchMatches)) {
+                    shown.add(entry);
+                }
+            }
+
+            Comparator<EntrySnapshot> comparator = getComparator(_sortCategory);
+            if (comparator != null) {
+                Collections.sort(shown, comparator);
+            }
+            Collections.sort(shown, (a, b) -> -1 * Boolean.compare(a._favorite, b._favorite));
+
+            List<VaultEntry> res = new ArrayList<>(shown.size());
+            for (EntrySnapshot entry : shown) {
+                res.add(entry._entry);
+            }
+            return res;
+        }
+
+        private boolean isEntryFiltered(EntrySnapshot entry, @Nullable Set<UUID> searchMatches) {
+            Collection<UUID> groups = entry._groups;
+
+            if (searchMatches != null) {
+                return !searchMatches.contains(entry._uuid);
+            }
+
+            if (_searchFilter != null) {
+                String issuer = entry._issuer.toLowerCase();
+                String name = entry._name.toLowerCase();
+                String note = entry._note.toLowerCase();
+                String[] tokens = _searchFilter.toLowerCase().split("\\s+");
+
+                // Return true if not all tokens match at least one of the relevant fields
+                return !Arrays.stream(tokens)
+                        .allMatch(token ->
+                                ((_searchBehaviorMask & Preferences.SEARCH_IN_ISSUER) != 0 && issuer.contains(token)) ||
+                                        ((_searchBehaviorMask & Preferences.SEARCH_IN_NAME) != 0 && name.contains(token)) ||
+                                        ((_searchBehaviorMask & Preferences.SEARCH_IN_NOTE) != 0 && note.contains(token)) ||
+                                        ((_searchBehaviorMask & Preferences.SEARCH_IN_GROUPS) != 0 && doesAnyGroupMatchSearchFilter(groups, token))
+                        );
+            }
+
+            if (!_groupFilter.isEmpty()) {
+                if (groups.isEmpty() && !_groupFilter.contains(null)) {
+                    return true;
+                }
+                if (!groups.isEmpty() && _groupFilter.stream().filter(Objects::nonNull).noneMatch(groups::contains)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private boolean doesAnyGroupMatchSearchFilter(Collection<UUID> entryGroupUUIDs, String searchFilter) {
+            return entryGroupUUIDs.stream()
+                    .map(_groupNames::get)
+                    .filter(Objects::nonNull)
+                    .anyMatch(groupName -> groupName.contains(searchFilter.toLowerCase()));
+        }
+
+        /**
+         * Returns a comparator of snapshots that orders them like SortCategory.getComparator()
+         * orders the entries themselves.
+         */
+        @Nullable
+        private static Comparator<EntrySnapshot> getComparator(@Nullable SortCategory sortCategory) {
+            if (sortCategory == null) {
+                return null;
+            }
+
+            Comparator<EntrySnapshot> byName = (a, b) -> a._name.compareToIgnoreCase(b._name);
+            Comparator<EntrySnapshot> byIssuer = (a, b) -> a._issuer.compareToIgnoreCase(b._issuer);
+            switch (sortCategory) {
+                case ACCOUNT:
+                    return byName.thenComparing(byIssuer);
+                case ACCOUNT_REVERSED:
+                    return Collections.reverseOrder(byName.thenComparing(byIssuer));
+                case ISSUER:
+                    return byIssuer.thenComparing(byName);
+                case ISSUER_REVERSED:
+                    return Collections.reverseOrder(byIssuer.thenComparing(byName));
+                case USAGE_COUNT:
+                    return Collections.reverseOrder((a, b) -> Integer.compare(a._usageCount, b._usageCount));
+                case LAST_USED:
+                    return Collections.reverseOrder((a, b) -> Long.compare(a._lastUsedTimestamp, b._lastUsedTimestamp));
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * The fields of an entry that ShownEntriesFilter filters and sorts on. Strings are
+     * immutable, so they're referenced rather than copied. The groups of the entry are
+     * copied, because the set of the entry itself may be modified in the meantime.
+     */
+    private static class EntrySnapshot {
+        private final VaultEntry _entry;
+        private final UUID _uuid;
+        private final String _issuer;
+        private final String _name;
+        private final String _note;
+        private final Collection<UUID> _groups;
+        private final boolean _favorite;
+        private final int _usageCount;
+        private final long _lastUsedTimestamp;
+
+        private EntrySnapshot(VaultEntry entry) {
+            _entry = entry;
+            _uuid = entry.getUUID();
+            _issuer = entry.getIssuer();
+            _name = entry.getName();
+            _note = entry.getNote();
+            Set<UUID> groups = entry.getGroups();
+            _groups = groups.isEmpty() ? Collections.emptySet() : new HashSet<>(groups);
+            _favorite = entry.isFavorite();
+            _usageCount = entry.getUsageCount();
+            _lastUsedTimestamp = entry.getLastUsedTimestamp();
+        }
+    }
+
     private static class EntryList {
         private final List<VaultEntry> _entries;
         private final List<VaultEntry> _shownEntries;
@@ -943,10 +1207,12 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
                 return Objects.equals(_old.getErrorCardInfo(), _new.getErrorCardInfo());
             }
 
+            // The diff may be calculated off the UI thread, so the content of the entries can't
+            // be compared. Entries are replaced by a new instance when they're edited, and
+            // changes made in place are picked up by refreshing the holders.
             int oldEntryIndex = _old.translateEntryPosToIndex(oldItemPosition);
             int newEntryIndex = _new.translateEntryPosToIndex(newItemPosition);
-            return _old.getShownEntries().get(oldEntryIndex)
-                    .equals(_new.getShownEntries().get(newEntryIndex));
+            return _old.getShownEntries().get(oldEntryIndex) == _new.getShownEntries().get(newEntryIndex);
         }
     }
 
@@ -19,6 +19,7 @@ import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
+import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -28,8 +29,8 @@ import com.beemdevelopment.aegis.R;
 import com.beemdevelopment.aegis.ViewMode;
 import com.beemdevelopment.aegis.helpers.AnimationsHelper;
 import com.beemdevelopment.aegis.helpers.CenterVerticalSpan;
+import com.beemdevelopment.aegis.helpers.OtpRefreshScheduler;
 import com.beemdevelopment.aegis.helpers.SimpleAnimationEndListener;
-import com.beemdevelopment.aegis.helpers.UiRefresher;
 import com.beemdevelopment.aegis.otp.HotpInfo;
 import com.beemdevelopment.aegis.otp.OtpInfo;
 import com.beemdevelopment.aegis.otp.OtpInfoException;
@@ -55,6 +56,7 @@ public class EntryHolder extends RecyclerView.ViewHolder {
     private TextView _profileCopied;
     private ImageView _profileDrawable;
     private VaultEntry _entry;
+    private OtpRefreshScheduler.Codes _codes;
     private ImageView _buttonRefresh;
     private RelativeLayout _description;
     private ImageView _dragHandle;
@@ -71,7 +73,6 @@ public class EntryHolder extends RecyclerView.ViewHolder {
     private TotpProgressBar _progressBar;
     private MaterialCardView _view;
 
-    private UiRefresher _refresher;
     private Handler _copyAnimationHandler;
     private Handler _expirationHandler;
     private AnimatorSet _expirationAnimSet;
@@ -104,22 +105,11 @@ public class EntryHolder extends RecyclerView.ViewHolder {
 
         _scaleIn = AnimationsHelper.loadScaledAnimation(view.getContext(), R.anim.item_scale_in);
         _scaleOut = AnimationsHelper.loadScaledAnimation(view.getContext(), R.anim.item_scale_out);
-
-        _refresher = new UiRefresher(new UiRefresher.Listener() {
-            @Override
-            public void onRefresh() {
-                refreshCode();
-            }
-
-            @Override
-            public long getMillisTillNextRefresh() {
-                return ((TotpInfo) _entry.getInfo()).getMillisTillNextRotation();
-            }
-        });
     }
 
     public void setData(VaultEntry entry, Preferences.CodeGrouping groupSize, ViewMode viewMode, AccountNamePosition accountNamePosition, boolean showIcon, boolean showProgress, boolean hidden, boolean paused, boolean dimmed, boolean showExpirationState, boolean showNextCode) {
         _entry = entry;
+        _codes = null;
         _hidden = hidden;
         _paused = paused;
         _codeGrouping = groupSize;
@@ -269,16 +259,14 @@ public class EntryHolder extends RecyclerView.ViewHolder {
     }
 
     public void destroy() {
-        _refresher.destroy();
+        stopRefreshLoop();
     }
 
     public void startRefreshLoop() {
-        _refresher.start();
         _progressBar.start();
     }
 
     public void stopRefreshLoop() {
-        _refresher.stop();
         _progressBar.stop();
     }
 
@@ -294,6 +282,26 @@ public class EntryHolder extends RecyclerView.ViewHolder {
         }
     }
 
+    /**
+     * Shows the codes that were generated ahead of time by the OtpRefreshScheduler for
+     * the period that just started. The codes are kept around, so that later refreshes
+     * of this holder don't have to generate them again.
+     */
+    public void refreshCode(OtpRefreshScheduler.Codes codes) {
+        _codes = codes;
+
+        if (!_hidden && !_paused) {
+            long time = codes.getTime();
+            _profileCode.setText(formatOtp(codes.getCode(time)));
+
+            if (_showNextCode) {
+                _nextProfileCode.setText(formatOtp(codes.getCode(time + codes.getInfo().getPeriod())));
+            }
+
+            startExpirationAnimation();
+        }
+    }
+
     private void updateCodes() {
         _profileCode.setText(getOtp());
 
@@ -316,16 +324,29 @@ public class EntryHolder extends RecyclerView.ViewHolder {
         String otp;
         try {
             if (info instanceof TotpInfo) {
-                otp = ((TotpInfo)info).getOtp((System.currentTimeMillis() / 1000) + ((long) (offset) * ((TotpInfo) _entry.getInfo()).getPeriod()));
+                long time = (System.currentTimeMillis() / 1000) + ((long) (offset) * ((TotpInfo) _entry.getInfo()).getPeriod());
+                otp = _codes != null && _codes.getInfo() == info ? _codes.getCode(time) : null;
+                if (otp == null) {
+                    otp = ((TotpInfo)info).getOtp(time);
+                }
             } else {
                 otp = info.getOtp();
             }
-
-            if (!(info instanceof SteamInfo || info instanceof YandexInfo)) {
-                otp = formatCode(otp);
-            }
         } catch (OtpInfoException e) {
-            otp = _view.getResources().getString(R.string.error_all_caps);
+            otp = null;
+        }
+
+        return formatOtp(otp);
+    }
+
+    private String formatOtp(@Nullable String otp) {
+        if (otp == null) {
+            return _view.getResources().getString(R.string.error_all_caps);
+        }
+
+        OtpInfo info = _entry.getInfo();
+        if (!(info instanceof SteamInfo || info instanceof YandexInfo)) {
+            otp = formatCode(otp);
         }
 
         return otp;
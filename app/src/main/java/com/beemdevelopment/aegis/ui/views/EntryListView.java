@@ -37,10 +37,9 @@ import com.beemdevelopment.aegis.ViewMode;
 import com.beemdevelopment.aegis.helpers.AnimationsHelper;
 import com.beemdevelopment.aegis.helpers.MetricsHelper;
 import com.beemdevelopment.aegis.helpers.SimpleItemTouchHelperCallback;
-import com.beemdevelopment.aegis.helpers.UiRefresher;
-import com.beemdevelopment.aegis.otp.TotpInfo;
 import com.beemdevelopment.aegis.ui.glide.GlideHelper;
 import com.beemdevelopment.aegis.ui.models.ErrorCardInfo;
+import com.beemdevelopment.aegis.vault.EntrySearchIndex;
 import com.beemdevelopment.aegis.vault.VaultEntry;
 import com.beemdevelopment.aegis.vault.VaultGroup;
 import com.bumptech.glide.Glide;
@@ -76,8 +75,6 @@ public class EntryListView extends Fragment implements EntryAdapter.Listener {
     private ViewMode _viewMode;
     private LinearLayout _emptyStateView;
 
-    private UiRefresher _refresher;
-
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -140,18 +137,6 @@ public class EntryListView extends Fragment implements EntryAdapter.Listener {
         _touchHelper.attachToRecyclerView(_recyclerView);
         _recyclerView.setAdapter(_adapter);
 
-        _refresher = new UiRefresher(new UiRefresher.Listener() {
-            @Override
-            public void onRefresh() {
-                refresh(false);
-            }
-
-            @Override
-            public long getMillisTillNextRefresh() {
-                return TotpInfo.getMillisTillNextRotation(_adapter.getMostFrequentPeriod());
-            }
-        });
-
         final int rvInitialPaddingLeft = _recyclerView.getPaddingLeft();
         final int rvInitialPaddingTop = _recyclerView.getPaddingTop();
         final int rvInitialPaddingRight = _recyclerView.getPaddingRight();
@@ -185,12 +170,6 @@ public class EntryListView extends Fragment implements EntryAdapter.Listener {
         _recyclerView.getLayoutManager().scrollToPosition(position);
     }
 
-    @Override
-    public void onDestroyView() {
-        _refresher.destroy();
-        super.onDestroyView();
-    }
-
     public void setGroups(Collection<VaultGroup> groups) {
         _adapter.setGroups(groups);
         updateDividerDecoration();
@@ -353,16 +332,23 @@ public class EntryListView extends Fragment implements EntryAdapter.Listener {
             _progressBar.setVisibility(View.VISIBLE);
             _progressBar.setPeriod(period);
             _progressBar.start();
-            _refresher.start();
         } else {
             _progressBar.setVisibility(View.GONE);
             _progressBar.stop();
-            _refresher.stop();
+        }
+    }
+
+    public void onCodesRefreshed(int period) {
+        if (_showProgress && period == _adapter.getMostFrequentPeriod()) {
+            _progressBar.restart();
         }
     }
 
     @Override
     public void onListChange() {
+        // the list may have been updated asynchronously, so the empty state can have changed
+        updateEmptyState();
+
         if (_listener != null) {
             _listener.onListChange();
         }
@@ -479,7 +465,12 @@ public class EntryListView extends Fragment implements EntryAdapter.Listener {
         updateEmptyState();
     }
 
+    public void setSearchIndex(@Nullable EntrySearchIndex searchIndex) {
+        _adapter.setSearchIndex(searchIndex);
+    }
+
     public void clearEntries() {
+        _adapter.setSearchIndex(null);
         _adapter.clearEntries();
         updateEmptyState();
     }
@@ -512,6 +503,11 @@ public class EntryListView extends Fragment implements EntryAdapter.Listener {
     }
 
     private void updateEmptyState() {
+        // wait for the shown entries to be known, instead of flashing the empty state
+        if (_adapter.isListRefreshPending()) {
+            return;
+        }
+
         if (_adapter.getShownEntriesCount() > 0) {
             _recyclerView.setVisibility(View.VISIBLE);
             _emptyStateView.setVisibility(View.GONE);
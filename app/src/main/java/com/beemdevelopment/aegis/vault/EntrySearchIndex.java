@@ -0,0 +1,314 @@
+package com.beemdevelopment.aegis.vault;
+
+import com.beemdevelopment.aegis.Preferences;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * An index over the issuer, name, note and group names of the entries in a vault. It
+ * answers search queries without having to lowercase and scan every entry on every
+ * keystroke. The fields of every entry are indexed by the trigrams they contain. Search
+ * tokens that are too short for a trigram lookup fall back to scanning the lowercased
+ * fields that the index keeps around. An entry matches if every token of the query is
+ * contained in at least one of the fields selected by the search mask.
+ *
+ * The index is built lazily on the first search and kept up to date by VaultRepository.
+ * Searches may run on any thread: the index is built while holding its own lock, and
+ * VaultRepository only modifies the vault while holding that same lock.
+ */
+public class EntrySearchIndex {
+    private static final int GRAM_SIZE = 3;
+    private static final int MIN_REBUILD_REMOVED = 64;
+
+    private static final int FIELD_ISSUER = 0;
+    private static final int FIELD_NAME = 1;
+    private static final int FIELD_NOTE = 2;
+    private static final int[] FIELD_MASKS = new int[]{
+            Preferences.SEARCH_IN_ISSUER,
+            Preferences.SEARCH_IN_NAME,
+            Preferences.SEARCH_IN_NOTE
+    };
+
+    private final Vault _vault;
+    private boolean _built;
+
+    // documents are never moved, so that their position can be used as their ID in the
+    // posting lists. Removed documents leave a null behind until the next rebuild.
+    private final List<Doc> _docs = new ArrayList<>();
+    private final Map<UUID, Doc> _docsByUUID = new HashMap<>();
+    private final Map<Long, IntList> _grams = new HashMap<>();
+    private final Map<UUID, IntList> _groupDocs = new HashMap<>();
+    private final Map<UUID, String> _groupNames = new HashMap<>();
+    private int _removed;
+
+    public EntrySearchIndex(Vault vault) {
+        _vault = vault;
+    }
+
+    /**
+     * Returns the UUIDs of the entries that match the given query in at least one of the
+     * fields selected by the given mask of Preferences.SEARCH_IN_* flags.
+     */
+    public synchronized Set<UUID> search(String query, int mask) {
+        ensureBuilt();
+
+        BitSet result = null;
+        for (String token : tokenize(query.toLowerCase())) {
+            BitSet matches = new BitSet(_docs.size());
+            for (int field = 0; field < FIELD_MASKS.length; field++) {
+                if ((mask & FIELD_MASKS[field]) != 0) {
+                    matchField(field, token, matches);
+                }
+            }
+            if ((mask & Preferences.SEARCH_IN_GROUPS) != 0) {
+                matchGroups(token, matches);
+            }
+
+            if (result == null) {
+                result = matches;
+            } else {
+                result.and(matches);
+            }
+
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+
+        Set<UUID> uuids = new HashSet<>();
+        if (result == null) {
+            uuids.addAll(_docsByUUID.keySet());
+            return uuids;
+        }
+
+        for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+            uuids.add(_docs.get(i)._uuid);
+        }
+
+        return uuids;
+    }
+
+    /**
+     * Adds the given entry to the index or updates it if it's already present.
+     */
+    public synchronized void putEntry(VaultEntry entry) {
+        if (!_built) {
+            return;
+        }
+
+        removeDoc(entry.getUUID());
+        addDoc(entry);
+    }
+
+    public synchronized void removeEntry(UUID uuid) {
+        if (!_built) {
+            return;
+        }
+
+        removeDoc(uuid);
+    }
+
+    /**
+     * Updates the names of the groups in the index.
+     */
+    public synchronized void setGroups(Collection<VaultGroup> groups) {
+        if (!_built) {
+            return;
+        }
+
+        _groupNames.clear();
+        for (VaultGroup group : groups) {
+            _groupNames.put(group.getUUID(), group.getName().toLowerCase());
+        }
+    }
+
+    /**
+     * Drops the index. It will be rebuilt from the vault on the next search.
+     */
+    public synchronized void invalidate() {
+        _built = false;
+        _docs.clear();
+        _docsByUUID.clear();
+        _grams.clear();
+        _groupDocs.clear();
+        _groupNames.clear();
+        _removed = 0;
+    }
+
+    private void ensureBuilt() {
+        // rebuild once more than half of the documents are stale, but don't bother for
+        // small vaults where the stale documents cost next to nothing
+        if (_built && _removed <= Math.max(MIN_REBUILD_REMOVED, _docsByUUID.size())) {
+            return;
+        }
+
+        invalidate();
+        _built = true;
+        for (VaultEntry entry : _vault.getEntries()) {
+            addDoc(entry);
+        }
+        setGroups(_vault.getGroups().getValues());
+    }
+
+    private void addDoc(VaultEntry entry) {
+        int id = _docs.size();
+        Doc doc = new Doc(id, entry);
+        _docs.add(doc);
+        _docsByUUID.put(doc._uuid, doc);
+
+        for (int field = 0; field < doc._fields.length; field++) {
+            String value = doc._fields[field];
+            for (int i = 0; i + GRAM_SIZE <= value.length(); i++) {
+                long key = getGramKey(field, value, i);
+                IntList list = _grams.get(key);
+                if (list == null) {
+                    list = new IntList();
+                    _grams.put(key, list);
+                }
+                list.addUnique(id);
+            }
+        }
+
+        for (UUID group : doc._groups) {
+            IntList list = _groupDocs.get(group);
+            if (list == null) {
+                list = new IntList();
+                _groupDocs.put(group, list);
+            }
+            list.addUnique(id);
+        }
+    }
+
+    private void removeDoc(UUID uuid) {
+        // the posting lists still refer to the document, but lookups skip it
+        Doc doc = _docsByUUID.remove(uuid);
+        if (doc != null) {
+            _docs.set(doc._id, null);
+            _removed++;
+        }
+    }
+
+    private void matchField(int field, String token, BitSet matches) {
+        if (token.length() < GRAM_SIZE) {
+            for (Doc doc : _docs) {
+                if (doc != null && doc._fields[field].contains(token)) {
+                    matches.set(doc._id);
+                }
+            }
+            return;
+        }
+
+        // only the smallest posting list of the trigrams of the token has to be checked
+        IntList smallest = null;
+        for (int i = 0; i + GRAM_SIZE <= token.length(); i++) {
+            IntList list = _grams.get(getGramKey(field, token, i));
+            if (list == null) {
+                return;
+            }
+            if (smallest == null || list.size() < smallest.size()) {
+                smallest = list;
+            }
+        }
+
+        for (int i = 0; i < smallest.size(); i++) {
+            Doc doc = _docs.get(smallest.get(i));
+            if (doc != null && doc._fields[field].contains(token)) {
+                matches.set(doc._id);
+            }
+        }
+    }
+
+    private void matchGroups(String token, BitSet matches) {
+        for (Map.Entry<UUID, String> group : _groupNames.entrySet()) {
+            if (!group.getValue().contains(token)) {
+                continue;
+            }
+
+            IntList list = _groupDocs.get(group.getKey());
+            if (list == null) {
+                continue;
+            }
+
+            for (int i = 0; i < list.size(); i++) {
+                Doc doc = _docs.get(list.get(i));
+                if (doc != null && doc._groups.contains(group.getKey())) {
+                    matches.set(doc._id);
+                }
+            }
+        }
+    }
+
+    private static long getGramKey(int field, String value, int offset) {
+        return ((long) field << 48)
+                | ((long) value.charAt(offset) << 32)
+                | ((long) value.charAt(offset + 1) << 16)
+                | value.charAt(offset + 2);
+    }
+
+    private static List<String> tokenize(String query) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= query.length(); i++) {
+            boolean space = i == query.length() || Character.isWhitespace(query.charAt(i));
+            if (space && start != -1) {
+                tokens.add(query.substring(start, i));
+                start = -1;
+            } else if (!space && start == -1) {
+                start = i;
+            }
+        }
+
+        return tokens;
+    }
+
+    private static class Doc {
+        private final int _id;
+        private final UUID _uuid;
+        private final String[] _fields;
+        private final Set<UUID> _groups;
+
+        public Doc(int id, VaultEntry entry) {
+            _id = id;
+            _uuid = entry.getUUID();
+            _fields = new String[3];
+            _fields[FIELD_ISSUER] = entry.getIssuer().toLowerCase();
+            _fields[FIELD_NAME] = entry.getName().toLowerCase();
+            _fields[FIELD_NOTE] = entry.getNote().toLowerCase();
+            _groups = new HashSet<>(entry.getGroups());
+        }
+    }
+
+    private static class IntList {
+        private int[] _values = new int[4];
+        private int _size;
+
+        public void addUnique(int value) {
+            // documents are indexed one at a time, so a duplicate can only be the last value
+            if (_size > 0 && _values[_size - 1] == value) {
+                return;
+            }
+
+            if (_size == _values.length) {
+                _values = Arrays.copyOf(_values, _size * 2);
+            }
+            _values[_size++] = value;
+        }
+
+        public int get(int i) {
+            return _values[i];
+        }
+
+        public int size() {
+            return _size;
+        }
+    }
+}
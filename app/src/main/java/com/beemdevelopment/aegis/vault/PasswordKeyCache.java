@@ -0,0 +1,164 @@
+package com.beemdevelopment.aegis.vault;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.beemdevelopment.aegis.crypto.CryptResult;
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.crypto.KeyStoreHandle;
+import com.beemdevelopment.aegis.crypto.KeyStoreHandleException;
+import com.beemdevelopment.aegis.vault.slots.PasswordSlot;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.UUID;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Keeps the derived key of the password slot that the vault was last unlocked with around
+ * for a short while, so that unlocking the vault with the same password again shortly after
+ * it was locked doesn't require running the KDF again. The master key is never cached.
+ *
+ * The derived key is not kept in memory in plain text. It's encrypted with a KeyStore key,
+ * together with a MAC of the password that is used to check the password on the next
+ * unlock. The entry is discarded (and the KeyStore key deleted) once it expires, when a
+ * password doesn't match and when the password of the vault changes.
+ */
+public class PasswordKeyCache {
+    private static final String KEY_ALIAS = "password_key_cache";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final Handler _handler = new Handler(Looper.getMainLooper());
+    private final Runnable _expire = this::invalidate;
+
+    private UUID _slotUuid;
+    private CryptResult _entry;
+    private long _expiresAt;
+
+    /**
+     * Caches the given key of the given slot for the given amount of time, replacing any
+     * key that was cached before.
+     */
+    public synchronized void put(PasswordSlot slot, char[] password, SecretKey key, long ttlMillis) {
+        invalidate();
+        if (ttlMillis <= 0 || !KeyStoreHandle.isSupported()) {
+            return;
+        }
+
+        byte[] keyBytes = key.getEncoded();
+        byte[] payload = null;
+        try {
+            byte[] mac = getPasswordMac(keyBytes, password);
+            payload = new byte[keyBytes.length + mac.length];
+            System.arraycopy(keyBytes, 0, payload, 0, keyBytes.length);
+            System.arraycopy(mac, 0, payload, keyBytes.length, mac.length);
+
+            // a new KeyStore key is generated for every entry, so old entries can't be decrypted anymore
+            SecretKey wrapKey = new KeyStoreHandle().generateKey(KEY_ALIAS, false);
+            Cipher cipher = CryptoUtils.createEncryptCipher(wrapKey);
+            _entry = CryptoUtils.encrypt(payload, cipher);
+        } catch (KeyStoreHandleException | GeneralSecurityException e) {
+            // the cache is merely an optimization, so failing to use it is not an error
+            e.printStackTrace();
+            invalidate();
+            return;
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+            if (payload != null) {
+                Arrays.fill(payload, (byte) 0);
+            }
+        }
+
+        _slotUuid = slot.getUUID();
+        _expiresAt = SystemClock.elapsedRealtime() + ttlMillis;
+        _handler.postDelayed(_expire, ttlMillis);
+    }
+
+    /**
+     * Returns the cached key of the given slot if it was cached for the given password and
+     * hasn't expired yet, or null otherwise. The cache is invalidated if the password
+     * doesn't match, so that it can't be used to try out passwords faster than with the KDF.
+     */
+    @Nullable
+    public synchronized SecretKey get(PasswordSlot slot, char[] password) {
+        if (_entry == null || !slot.getUUID().equals(_slotUuid)) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() >= _expiresAt) {
+            invalidate();
+            return null;
+        }
+
+        byte[] payload = null;
+        try {
+            SecretKey wrapKey = new KeyStoreHandle().getKey(KEY_ALIAS);
+            if (wrapKey == null) {
+                invalidate();
+                return null;
+            }
+
+            Cipher cipher = CryptoUtils.createDecryptCipher(wrapKey, _entry.getParams().getNonce());
+            payload = CryptoUtils.decrypt(_entry.getData(), cipher, _entry.getParams()).getData();
+
+            byte[] keyBytes = Arrays.copyOfRange(payload, 0, CryptoUtils.CRYPTO_AEAD_KEY_SIZE);
+            byte[] mac = Arrays.copyOfRange(payload, CryptoUtils.CRYPTO_AEAD_KEY_SIZE, payload.length);
+            try {
+                if (!MessageDigest.isEqual(mac, getPasswordMac(keyBytes, password))) {
+                    invalidate();
+                    return null;
+                }
+
+                return new SecretKeySpec(keyBytes, "AES");
+            } finally {
+                Arrays.fill(keyBytes, (byte) 0);
+            }
+        } catch (KeyStoreHandleException | GeneralSecurityException | IOException e) {
+            e.printStackTrace();
+            invalidate();
+            return null;
+        } finally {
+            if (payload != null) {
+                Arrays.fill(payload, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Discards the cached key, if any.
+     */
+    public synchronized void invalidate() {
+        _handler.removeCallbacks(_expire);
+        boolean cached = _entry != null;
+        _slotUuid = null;
+        _entry = null;
+        _expiresAt = 0;
+
+        if (cached) {
+            try {
+                new KeyStoreHandle().deleteKey(KEY_ALIAS);
+            } catch (KeyStoreHandleException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static byte[] getPasswordMac(byte[] keyBytes, char[] password) throws GeneralSecurityException {
+        byte[] passwordBytes = CryptoUtils.toBytes(password);
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(keyBytes, MAC_ALGORITHM));
+            return mac.doFinal(passwordBytes);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+}
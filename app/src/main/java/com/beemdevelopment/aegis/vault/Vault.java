@@ -3,11 +3,15 @@ package com.beemdevelopment.aegis.vault;
 import androidx.annotation.Nullable;
 
 import com.beemdevelopment.aegis.util.UUIDMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -16,6 +20,9 @@ public class Vault {
     private final UUIDMap<VaultEntry> _entries = new UUIDMap<>();
     private final UUIDMap<VaultGroup> _groups = new UUIDMap<>();
 
+    // Icons are content-addressed by their hash, so entries with identical icons can share a single instance
+    private final Interner<VaultEntryIcon> _icons = Interners.newWeakInterner();
+
     // Whether we've migrated the group list to the new format while parsing the vault
     private boolean _isGroupsMigrationFresh = false;
 
@@ -49,6 +56,41 @@ public class Vault {
         }
     }
 
+    /**
+     * Serializes the vault to JSON and writes it to the given Writer, one entry at a time.
+     * Contrary to toJson(), the JSON tree of the full vault is never materialized in memory.
+     * The output is equivalent to the result of toJson(filter), but without indentation.
+     */
+    public void writeJson(Writer writer, @Nullable EntryFilter filter) throws IOException {
+        writer.write("{\"version\":");
+        writer.write(Integer.toString(VERSION));
+
+        writer.write(",\"entries\":[");
+        boolean first = true;
+        for (VaultEntry e : _entries) {
+            if (filter == null || filter.includeEntry(e)) {
+                if (!first) {
+                    writer.write(',');
+                }
+                writer.write(e.toJson().toString());
+                first = false;
+            }
+        }
+
+        // Always include all groups, even if they're not assigned to any entry (before or after the entry filter)
+        writer.write("],\"groups\":[");
+        first = true;
+        for (VaultGroup group : _groups) {
+            if (!first) {
+                writer.write(',');
+            }
+            writer.write(group.toJson().toString());
+            first = false;
+        }
+
+        writer.write("]}");
+    }
+
     public static Vault fromJson(JSONObject obj) throws VaultException {
         Vault vault = new Vault();
         UUIDMap<VaultEntry> entries = vault.getEntries();
@@ -84,6 +126,7 @@ public class Vault {
                     }
                 }
 
+                vault.internIcon(entry);
                 entries.add(entry);
             }
         } catch (VaultEntryException | JSONException e) {
@@ -123,6 +166,33 @@ public class Vault {
         return false;
     }
 
+    /**
+     * Replaces the icon of the given entry with an identical icon that is already in use by
+     * another entry, if there is one. This ensures that every unique icon is kept in memory
+     * (and Base64-encoded when saving) only once.
+     */
+    public void internIcon(VaultEntry entry) {
+        if (entry.hasIcon()) {
+            entry.setIcon(_icons.intern(entry.getIcon()));
+        }
+    }
+
+    /**
+     * Returns a copy of the entries and groups of this vault that can be serialized on
+     * another thread, while this vault keeps being modified. Icons are immutable, so
+     * they're shared with the copy.
+     */
+    public Vault snapshot() {
+        Vault vault = new Vault();
+        for (VaultEntry entry : _entries) {
+            vault._entries.add(entry.clone());
+        }
+        for (VaultGroup group : _groups) {
+            vault._groups.add(group.clone());
+        }
+        return vault;
+    }
+
     public UUIDMap<VaultEntry> getEntries() {
         return _entries;
     }
@@ -0,0 +1,82 @@
+package com.beemdevelopment.aegis.vault;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The changes made to a vault since it was last handed off to be saved. VaultRepository
+ * records them as the vault is modified, so that VaultJournal knows which records to
+ * append without having to compare every entry in the vault.
+ */
+class VaultChanges {
+    // entries that were added or modified, in the order in which they were first changed
+    private final Set<UUID> _changedEntries = new LinkedHashSet<>();
+    private final Set<UUID> _removedEntries = new LinkedHashSet<>();
+    private boolean _groupsChanged;
+    private boolean _orderChanged;
+    private boolean _snapshotNeeded;
+    private boolean _compactionRequested;
+
+    void markEntryChanged(UUID uuid) {
+        // an entry that is removed and added again ends up at the end of the list
+        if (_removedEntries.remove(uuid)) {
+            _orderChanged = true;
+        }
+        _changedEntries.add(uuid);
+    }
+
+    void markEntryRemoved(UUID uuid) {
+        _changedEntries.remove(uuid);
+        _removedEntries.add(uuid);
+    }
+
+    void markGroupsChanged() {
+        _groupsChanged = true;
+    }
+
+    void markOrderChanged() {
+        _orderChanged = true;
+    }
+
+    /**
+     * Marks that the changes can't be expressed as journal records (e.g. because the vault
+     * was wiped), so the next save has to write a full snapshot.
+     */
+    void markSnapshotNeeded() {
+        _snapshotNeeded = true;
+    }
+
+    /**
+     * Requests that the next save writes a full snapshot if the journal has any records,
+     * so that the vault file is complete on its own.
+     */
+    void requestCompaction() {
+        _compactionRequested = true;
+    }
+
+    Set<UUID> getChangedEntries() {
+        return Collections.unmodifiableSet(_changedEntries);
+    }
+
+    Set<UUID> getRemovedEntries() {
+        return Collections.unmodifiableSet(_removedEntries);
+    }
+
+    boolean isGroupsChanged() {
+        return _groupsChanged;
+    }
+
+    boolean isOrderChanged() {
+        return _orderChanged;
+    }
+
+    boolean isSnapshotNeeded() {
+        return _snapshotNeeded;
+    }
+
+    boolean isCompactionRequested() {
+        return _compactionRequested;
+    }
+}
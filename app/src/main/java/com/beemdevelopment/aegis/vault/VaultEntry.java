@@ -1,5 +1,7 @@
 package com.beemdevelopment.aegis.vault;
 
+import androidx.annotation.NonNull;
+
 import com.beemdevelopment.aegis.otp.GoogleAuthInfo;
 import com.beemdevelopment.aegis.otp.OtpInfo;
 import com.beemdevelopment.aegis.otp.OtpInfoException;
@@ -16,7 +18,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
 
-public class VaultEntry extends UUIDMap.Value {
+public class VaultEntry extends UUIDMap.Value implements Cloneable {
     private String _name = "";
     private String _issuer = "";
     private OtpInfo _info;
@@ -112,6 +114,23 @@ public class VaultEntry extends UUIDMap.Value {
         }
     }
 
+    /**
+     * Returns a copy of this entry with the same UUID. The icon is not copied, but shared
+     * between both entries, because VaultEntryIcon is immutable.
+     */
+    @NonNull
+    @Override
+    public VaultEntry clone() {
+        try {
+            VaultEntry entry = (VaultEntry) super.clone();
+            entry._info = _info.clone();
+            entry._groups = new TreeSet<>(_groups);
+            return entry;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     public String getName() {
         return _name;
     }
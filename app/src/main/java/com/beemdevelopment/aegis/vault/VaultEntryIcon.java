@@ -19,7 +19,8 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
 public class VaultEntryIcon implements Serializable {
-    private final byte[] _bytes;
+    private byte[] _bytes;
+    private String _encodedBytes;
     private final byte[] _hash;
     private final IconType _type;
 
@@ -33,10 +34,43 @@ public class VaultEntryIcon implements Serializable {
         _type = type;
     }
 
-    public byte @NonNull [] getBytes() {
+    /**
+     * Creates an icon of which the bytes are only decoded from the given Base64 string once
+     * getBytes() is first called. The caller must have validated the encoded bytes already.
+     */
+    private VaultEntryIcon(@NonNull String encodedBytes, @NonNull IconType type, byte @NonNull [] hash) {
+        _encodedBytes = encodedBytes;
+        _hash = hash;
+        _type = type;
+    }
+
+    public synchronized byte @NonNull [] getBytes() {
+        if (_bytes == null) {
+            try {
+                _bytes = Base64.decode(_encodedBytes);
+            } catch (EncodingException e) {
+                // the encoded bytes are validated before this object is constructed
+                throw new RuntimeException(e);
+            }
+        }
+
         return _bytes;
     }
 
+    /**
+     * Returns the Base64 representation of the icon. It's only computed once, so that
+     * saving the vault doesn't re-encode every icon. Icons are shared between entries
+     * (see Vault.internIcon), so this is done once for every unique icon.
+     */
+    @NonNull
+    synchronized String getEncodedBytes() {
+        if (_encodedBytes == null) {
+            _encodedBytes = Base64.encode(_bytes);
+        }
+
+        return _encodedBytes;
+    }
+
     public byte @NonNull [] getHash() {
         return _hash;
     }
@@ -62,7 +96,7 @@ public class VaultEntryIcon implements Serializable {
     }
 
     static void toJson(@Nullable VaultEntryIcon icon, @NonNull JSONObject obj) throws JSONException {
-        obj.put("icon", icon == null ? JSONObject.NULL : Base64.encode(icon.getBytes()));
+        obj.put("icon", icon == null ? JSONObject.NULL : icon.getEncodedBytes());
         if (icon != null) {
             obj.put("icon_mime", icon.getType().toMimeType());
             obj.put("icon_hash", Hex.encode(icon.getHash()));
@@ -83,13 +117,19 @@ public class VaultEntryIcon implements Serializable {
                 throw new VaultEntryException(String.format("Bad icon MIME type: %s", mime));
             }
 
-            byte[] iconBytes = Base64.decode((String) icon);
+            // If the hash of the icon is known, postpone decoding the icon until it's
+            // actually needed. This keeps unlocking fast for vaults with lots of icons.
             String iconHashStr = JsonUtils.optString(obj, "icon_hash");
             if (iconHashStr != null) {
                 byte[] iconHash = Hex.decode(iconHashStr);
-                return new VaultEntryIcon(iconBytes, iconType, iconHash);
+                String encodedBytes = (String) icon;
+                if (!Base64.canDecode(encodedBytes)) {
+                    throw new VaultEntryException("Bad icon encoding");
+                }
+                return new VaultEntryIcon(encodedBytes, iconType, iconHash);
             }
 
+            byte[] iconBytes = Base64.decode((String) icon);
             return new VaultEntryIcon(iconBytes, iconType);
         } catch (JSONException | EncodingException e) {
             throw new VaultEntryException(e);
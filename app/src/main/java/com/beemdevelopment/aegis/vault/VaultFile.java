@@ -1,23 +1,73 @@
 package com.beemdevelopment.aegis.vault;
 
+import androidx.annotation.Nullable;
+
+import com.beemdevelopment.aegis.crypto.CryptOutputStream;
 import com.beemdevelopment.aegis.crypto.CryptParameters;
 import com.beemdevelopment.aegis.crypto.CryptResult;
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
 import com.beemdevelopment.aegis.crypto.MasterKeyException;
 import com.beemdevelopment.aegis.encoding.Base64;
 import com.beemdevelopment.aegis.encoding.EncodingException;
+import com.beemdevelopment.aegis.util.IOUtils;
 import com.beemdevelopment.aegis.vault.slots.SlotList;
 import com.beemdevelopment.aegis.vault.slots.SlotListException;
 
+import com.google.common.io.BaseEncoding;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A vault file, which comes in two formats: JSON (the default) and a more compact binary
+ * container. The binary container consists of:
+ *
+ * - BINARY_MAGIC, followed by BINARY_VERSION (1 byte)
+ * - The raw content: the ciphertext if the vault is encrypted, UTF-8 JSON otherwise
+ * - The header, as UTF-8 JSON
+ * - The length of the header (big endian int)
+ *
+ * Like the "db" field of the streamed JSON format, the header comes last, because the tag is
+ * only known after all of the content has been encrypted. fromBytes() detects the format.
+ *
+ * The content of an encrypted vault file can optionally be compressed before it's encrypted.
+ * The algorithm is recorded in the header, and such files get a higher version number in
+ * both formats, so that older versions of Aegis refuse to read them. The same goes for vault
+ * files with password slots that derive their key with another KDF than scrypt.
+ */
 public class VaultFile {
-    public static final byte VERSION = 1;
+    public static final byte VERSION = 3;
+    public static final byte BINARY_VERSION = 3;
+    // the versions of vault files of which all password slots use scrypt
+    private static final byte VERSION_COMPRESSED = 2;
+    private static final byte BINARY_VERSION_COMPRESSED = 2;
+    // the versions of vault files that don't have compressed content either
+    private static final byte VERSION_UNCOMPRESSED = 1;
+    private static final byte BINARY_VERSION_UNCOMPRESSED = 1;
+    private static final byte[] BINARY_MAGIC = {'A', 'E', 'G', 'B'};
+    private static final int BINARY_PREFIX_SIZE = BINARY_MAGIC.length + 1;
+    private static final int DEFLATE_BUFFER_SIZE = 8192;
 
     private Object _content;
     private Header _header;
+    private boolean _binary;
 
     public VaultFile() {
 
@@ -39,9 +89,9 @@ public class VaultFile {
     public JSONObject toJson() {
         try {
             JSONObject obj = new JSONObject();
-            obj.put("version", VERSION);
+            obj.put("version", getVersion(_header.getSlots(), _header.getCompression(), false));
             obj.put("header", _header.toJson());
-            obj.put("db", _content);
+            obj.put("db", _content instanceof ByteBuffer ? Base64.encode(getRawContent()) : _content);
             return obj;
         } catch (JSONException e) {
             throw new RuntimeException(e);
@@ -59,6 +109,141 @@ public class VaultFile {
         }
     }
 
+    /**
+     * Serializes this vault file in the given format. The JSON format is the same as the
+     * output of toBytes().
+     */
+    public byte[] toBytes(boolean binary) {
+        if (!binary) {
+            return toBytes();
+        }
+
+        byte[] content;
+        if (!isEncrypted()) {
+            content = getContent().toString().getBytes(StandardCharsets.UTF_8);
+        } else if (_content instanceof ByteBuffer) {
+            content = getRawContent();
+        } else {
+            try {
+                content = Base64.decode((String) _content);
+            } catch (EncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(BINARY_PREFIX_SIZE + content.length);
+            BinarySink sink = new BinarySink(stream, getVersion(_header.getSlots(), _header.getCompression(), true));
+            sink.begin();
+            sink.body().write(content);
+            sink.end(_header, null);
+            return stream.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Serializes an encrypted vault file and writes it to the given OutputStream. The content
+     * is produced by the given ContentWriter, and is encrypted with the given credentials and
+     * Base64-encoded on the fly. As such, neither the plaintext, nor the ciphertext, nor its
+     * Base64 representation is ever materialized in memory as a whole.
+     *
+     * The result can be parsed with fromBytes(), just like the output of toBytes(). Note that
+     * the "db" field precedes the "header" field, because the tag is only known after all of
+     * the content has been encrypted.
+     *
+     * @return The header that was written to the stream.
+     */
+    public static Header write(OutputStream stream, ContentWriter content, VaultFileCredentials creds)
+            throws IOException, VaultFileException {
+        return write(stream, null, content, creds);
+    }
+
+    /**
+     * Like write(OutputStream, ContentWriter, VaultFileCredentials), but also writes an
+     * exportable copy of the vault file to exportStream if it's not null. The content is
+     * encrypted only once, and the two vault files only differ in the slots in their header.
+     *
+     * @return The header that was written to the stream.
+     */
+    public static Header write(OutputStream stream, @Nullable OutputStream exportStream, ContentWriter content, VaultFileCredentials creds)
+            throws IOException, VaultFileException {
+        return write(stream, exportStream, content, creds, false);
+    }
+
+    /**
+     * Like write(OutputStream, OutputStream, ContentWriter, VaultFileCredentials), but writes
+     * the vault file to stream in the binary format if binary is true. The exportable copy
+     * is always written in the JSON format, so that other apps can read it.
+     *
+     * @return The header that was written to the stream.
+     */
+    public static Header write(OutputStream stream, @Nullable OutputStream exportStream, ContentWriter content,
+                               VaultFileCredentials creds, boolean binary)
+            throws IOException, VaultFileException {
+        return write(stream, exportStream, content, creds, binary, Compression.NONE);
+    }
+
+    /**
+     * Like write(OutputStream, OutputStream, ContentWriter, VaultFileCredentials, boolean),
+     * but compresses the content with the given algorithm before encrypting it.
+     *
+     * @return The header that was written to the stream.
+     */
+    public static Header write(OutputStream stream, @Nullable OutputStream exportStream, ContentWriter content,
+                               VaultFileCredentials creds, boolean binary, Compression compression)
+            throws IOException, VaultFileException {
+        Sink sink;
+        Sink exportSink = null;
+        if (!binary) {
+            // if both copies are JSON, the ciphertext only has to be encoded once
+            sink = new JsonSink(stream, exportStream, getVersion(creds.getSlots(), compression, false));
+        } else {
+            sink = new BinarySink(stream, getVersion(creds.getSlots(), compression, true));
+            if (exportStream != null) {
+                exportSink = new JsonSink(exportStream, null, getVersion(creds.getSlots().exportable(), compression, false));
+            }
+        }
+
+        sink.begin();
+        if (exportSink != null) {
+            exportSink.begin();
+        }
+
+        CryptParameters params;
+        try {
+            OutputStream body = exportSink == null ? sink.body() : new TeeOutputStream(sink.body(), exportSink.body());
+            CryptOutputStream cryptStream = creds.encrypt(body);
+            Deflater deflater = compression == Compression.DEFLATE ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+            try {
+                DeflaterOutputStream deflaterStream = deflater == null ? null : new DeflaterOutputStream(cryptStream, deflater, DEFLATE_BUFFER_SIZE);
+                OutputStream plainStream = deflaterStream == null ? cryptStream : deflaterStream;
+                Writer contentWriter = new BufferedWriter(new OutputStreamWriter(plainStream, StandardCharsets.UTF_8));
+                content.write(contentWriter);
+                contentWriter.flush();
+                if (deflaterStream != null) {
+                    deflaterStream.finish();
+                }
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+            params = cryptStream.finish();
+        } catch (MasterKeyException e) {
+            throw new VaultFileException(e);
+        }
+
+        Header header = new Header(creds.getSlots(), params, compression);
+        Header exportHeader = new Header(creds.getSlots().exportable(), params, compression);
+        sink.end(header, exportHeader);
+        if (exportSink != null) {
+            exportSink.end(exportHeader, null);
+        }
+        return header;
+    }
+
     public static VaultFile fromJson(JSONObject obj) throws VaultFileException {
         try {
             if (obj.getInt("version") > VERSION) {
@@ -77,6 +262,10 @@ public class VaultFile {
     }
 
     public static VaultFile fromBytes(byte[] data) throws VaultFileException {
+        if (isBinary(data)) {
+            return fromBinaryBytes(data);
+        }
+
         try {
             JSONObject obj = new JSONObject(new String(data, StandardCharsets.UTF_8));
             return VaultFile.fromJson(obj);
@@ -85,16 +274,85 @@ public class VaultFile {
         }
     }
 
+    /**
+     * Reports whether the given data starts like a vault file in the binary format.
+     */
+    public static boolean isBinary(byte[] data) {
+        if (data.length < BINARY_PREFIX_SIZE) {
+            return false;
+        }
+
+        for (int i = 0; i < BINARY_MAGIC.length; i++) {
+            if (data[i] != BINARY_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static VaultFile fromBinaryBytes(byte[] data) throws VaultFileException {
+        if (data[BINARY_MAGIC.length] > BINARY_VERSION) {
+            throw new VaultFileException("unsupported version");
+        }
+
+        int headerEnd = data.length - 4;
+        if (headerEnd < BINARY_PREFIX_SIZE) {
+            throw new VaultFileException("truncated vault file");
+        }
+
+        int headerLen = ByteBuffer.wrap(data, headerEnd, 4).getInt();
+        int contentLen = headerEnd - headerLen - BINARY_PREFIX_SIZE;
+        if (headerLen < 0 || contentLen < 0) {
+            throw new VaultFileException("truncated vault file");
+        }
+
+        VaultFile file;
+        try {
+            String headerString = new String(data, headerEnd - headerLen, headerLen, StandardCharsets.UTF_8);
+            Header header = Header.fromJson(new JSONObject(headerString));
+            if (!header.isEmpty()) {
+                // the ciphertext is decrypted straight from the file contents later on
+                file = new VaultFile(ByteBuffer.wrap(data, BINARY_PREFIX_SIZE, contentLen).slice(), header);
+            } else {
+                String content = new String(data, BINARY_PREFIX_SIZE, contentLen, StandardCharsets.UTF_8);
+                file = new VaultFile(new JSONObject(content), header);
+            }
+        } catch (JSONException e) {
+            throw new VaultFileException(e);
+        }
+
+        file._binary = true;
+        return file;
+    }
+
+    /**
+     * Reports whether this vault file was read from the binary format.
+     */
+    public boolean isBinary() {
+        return _binary;
+    }
+
     public JSONObject getContent() {
         return (JSONObject) _content;
     }
 
     public JSONObject getContent(VaultFileCredentials creds) throws VaultFileException {
         try {
-            byte[] bytes = Base64.decode((String) _content);
-            CryptResult result = creds.decrypt(bytes, _header.getParams());
-            return new JSONObject(new String(result.getData(), StandardCharsets.UTF_8));
-        } catch (MasterKeyException | JSONException | EncodingException e) {
+            CryptResult result;
+            if (_content instanceof ByteBuffer) {
+                ByteBuffer buf = (ByteBuffer) _content;
+                result = creds.decrypt(buf.array(), buf.arrayOffset(), buf.remaining(), _header.getParams());
+            } else {
+                byte[] bytes = Base64.decode((String) _content);
+                result = creds.decrypt(bytes, _header.getParams());
+            }
+
+            byte[] data = result.getData();
+            if (_header.getCompression() == Compression.DEFLATE) {
+                data = inflate(data);
+            }
+            return new JSONObject(new String(data, StandardCharsets.UTF_8));
+        } catch (MasterKeyException | JSONException | IOException e) {
             throw new VaultFileException(e);
         }
     }
@@ -105,14 +363,27 @@ public class VaultFile {
     }
 
     public void setContent(JSONObject obj, VaultFileCredentials creds) throws VaultFileException {
+        setContent(obj, creds, Compression.NONE);
+    }
+
+    /**
+     * Encrypts the given content with the given credentials, after compressing it with the
+     * given algorithm.
+     */
+    public void setContent(JSONObject obj, VaultFileCredentials creds, Compression compression) throws VaultFileException {
         try {
             String string = obj.toString(4);
             byte[] vaultBytes = string.getBytes(StandardCharsets.UTF_8);
+            if (compression == Compression.DEFLATE) {
+                vaultBytes = deflate(vaultBytes);
+            }
 
-            CryptResult result = creds.encrypt(vaultBytes);
-            _content = Base64.encode(result.getData());
-            _header = new Header(creds.getSlots(), result.getParams());
-        } catch (MasterKeyException | JSONException e) {
+            // encrypt straight into a buffer with room for the tag, so that the ciphertext isn't copied around
+            byte[] buffer = new byte[vaultBytes.length + CryptoUtils.CRYPTO_AEAD_TAG_SIZE];
+            CryptParameters params = creds.encrypt(vaultBytes, 0, vaultBytes.length, buffer, 0);
+            _content = Base64.encode(buffer, 0, vaultBytes.length);
+            _header = new Header(creds.getSlots(), params, compression);
+        } catch (MasterKeyException | JSONException | IOException e) {
             throw new VaultFileException(e);
         }
     }
@@ -128,17 +399,218 @@ public class VaultFile {
 
         return new VaultFile(_content, new VaultFile.Header(
                 getHeader().getSlots().exportable(),
-                getHeader().getParams()
+                getHeader().getParams(),
+                getHeader().getCompression()
         ));
     }
 
+    /**
+     * Returns the lowest version of the format that can hold a vault file with the given
+     * slots and compression, so that older versions of Aegis can still read it if possible.
+     */
+    private static byte getVersion(@Nullable SlotList slots, Compression compression, boolean binary) {
+        if (slots != null && slots.hasNonScryptSlots()) {
+            return binary ? BINARY_VERSION : VERSION;
+        }
+        if (compression == Compression.NONE) {
+            return binary ? BINARY_VERSION_UNCOMPRESSED : VERSION_UNCOMPRESSED;
+        }
+        return binary ? BINARY_VERSION_COMPRESSED : VERSION_COMPRESSED;
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(data.length / 2);
+            try (DeflaterOutputStream deflaterStream = new DeflaterOutputStream(stream, deflater, DEFLATE_BUFFER_SIZE)) {
+                deflaterStream.write(data);
+            }
+            return stream.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try (InflaterInputStream stream = new InflaterInputStream(new ByteArrayInputStream(data), inflater, DEFLATE_BUFFER_SIZE)) {
+            return IOUtils.readAll(stream);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private byte[] getRawContent() {
+        ByteBuffer buf = (ByteBuffer) _content;
+        return Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.arrayOffset() + buf.remaining());
+    }
+
+    public interface ContentWriter {
+        void write(Writer writer) throws IOException;
+    }
+
+    /**
+     * Writes the parts of a vault file in one of the formats.
+     */
+    private interface Sink {
+        void begin() throws IOException;
+
+        /**
+         * Returns the stream to write the (encrypted) content to.
+         */
+        OutputStream body() throws IOException;
+
+        /**
+         * Finishes the vault file with the given header. The export header is used for the
+         * exportable copy, if the sink writes one.
+         */
+        void end(Header header, @Nullable Header exportHeader) throws IOException;
+    }
+
+    /**
+     * Writes the JSON format. If exportStream is not null, an exportable copy is written to
+     * it as well, which only differs in the header.
+     */
+    private static class JsonSink implements Sink {
+        private final OutputStream _stream;
+        @Nullable
+        private final OutputStream _exportStream;
+        private final Writer _writer;
+        private final byte _version;
+        private OutputStream _body;
+
+        private JsonSink(OutputStream stream, @Nullable OutputStream exportStream, byte version) {
+            _stream = stream;
+            _exportStream = exportStream;
+            _version = version;
+            OutputStream contentStream = exportStream == null ? stream : new TeeOutputStream(stream, exportStream);
+            _writer = new BufferedWriter(new OutputStreamWriter(contentStream, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void begin() throws IOException {
+            _writer.write("{\"version\":");
+            _writer.write(Byte.toString(_version));
+            _writer.write(",\"db\":\"");
+        }
+
+        @Override
+        public OutputStream body() {
+            if (_body == null) {
+                _body = BaseEncoding.base64().encodingStream(new UnclosableWriter(_writer));
+            }
+            return _body;
+        }
+
+        @Override
+        public void end(Header header, @Nullable Header exportHeader) throws IOException {
+            // closing the encoding stream writes out the padding
+            body().close();
+            _writer.write("\",\"header\":");
+            _writer.flush();
+
+            writeHeader(_stream, header);
+            if (_exportStream != null) {
+                writeHeader(_exportStream, exportHeader);
+            }
+        }
+
+        private static void writeHeader(OutputStream stream, Header header) throws IOException {
+            Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+            writer.write(header.toJson().toString());
+            writer.write('}');
+            writer.flush();
+        }
+    }
+
+    private static class BinarySink implements Sink {
+        private final OutputStream _stream;
+        private final byte _version;
+
+        private BinarySink(OutputStream stream, byte version) {
+            _stream = stream;
+            _version = version;
+        }
+
+        @Override
+        public void begin() throws IOException {
+            _stream.write(BINARY_MAGIC);
+            _stream.write(_version);
+        }
+
+        @Override
+        public OutputStream body() {
+            return _stream;
+        }
+
+        @Override
+        public void end(Header header, @Nullable Header exportHeader) throws IOException {
+            byte[] bytes = header.toJson().toString().getBytes(StandardCharsets.UTF_8);
+            DataOutputStream dataStream = new DataOutputStream(_stream);
+            dataStream.write(bytes);
+            dataStream.writeInt(bytes.length);
+            dataStream.flush();
+        }
+    }
+
+    /**
+     * A Writer that flushes instead of closing the underlying Writer when closed.
+     */
+    private static class UnclosableWriter extends FilterWriter {
+        private UnclosableWriter(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * An OutputStream that writes everything to two underlying OutputStreams.
+     */
+    private static class TeeOutputStream extends OutputStream {
+        private final OutputStream _first;
+        private final OutputStream _second;
+
+        private TeeOutputStream(OutputStream first, OutputStream second) {
+            _first = first;
+            _second = second;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            _first.write(b);
+            _second.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            _first.write(b, off, len);
+            _second.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            _first.flush();
+            _second.flush();
+        }
+    }
+
     public static class Header {
         private SlotList _slots;
         private CryptParameters _params;
+        private Compression _compression;
 
         public Header(SlotList slots, CryptParameters params) {
+            this(slots, params, Compression.NONE);
+        }
+
+        public Header(SlotList slots, CryptParameters params, Compression compression) {
             _slots = slots;
             _params = params;
+            _compression = compression;
         }
 
         public static Header fromJson(JSONObject obj) throws VaultFileException {
@@ -149,7 +621,8 @@ public class VaultFile {
             try {
                 SlotList slots = SlotList.fromJson(obj.getJSONArray("slots"));
                 CryptParameters params = CryptParameters.fromJson(obj.getJSONObject("params"));
-                return new Header(slots, params);
+                Compression compression = Compression.fromName(obj.optString("compression", Compression.NONE.getName()));
+                return new Header(slots, params, compression);
             } catch (SlotListException | JSONException | EncodingException e) {
                 throw new VaultFileException(e);
             }
@@ -160,6 +633,9 @@ public class VaultFile {
                 JSONObject obj = new JSONObject();
                 obj.put("slots", _slots != null ? _slots.toJson() : JSONObject.NULL);
                 obj.put("params", _params != null ? _params.toJson() : JSONObject.NULL);
+                if (_compression != Compression.NONE) {
+                    obj.put("compression", _compression.getName());
+                }
                 return obj;
             } catch (JSONException e) {
                 throw new RuntimeException(e);
@@ -174,8 +650,40 @@ public class VaultFile {
             return _params;
         }
 
+        public Compression getCompression() {
+            return _compression;
+        }
+
         public boolean isEmpty() {
             return _slots == null && _params == null;
         }
     }
+
+    /**
+     * The algorithms the content of an encrypted vault file can be compressed with.
+     */
+    public enum Compression {
+        NONE("none"),
+        DEFLATE("deflate");
+
+        private final String _name;
+
+        Compression(String name) {
+            _name = name;
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        public static Compression fromName(String name) throws VaultFileException {
+            for (Compression compression : values()) {
+                if (compression._name.equals(name)) {
+                    return compression;
+                }
+            }
+
+            throw new VaultFileException(String.format("unsupported compression: %s", name));
+        }
+    }
 }
@@ -2,13 +2,14 @@ package com.beemdevelopment.aegis.vault;
 
 import androidx.annotation.NonNull;
 
+import com.beemdevelopment.aegis.crypto.CryptOutputStream;
 import com.beemdevelopment.aegis.crypto.CryptParameters;
 import com.beemdevelopment.aegis.crypto.CryptResult;
 import com.beemdevelopment.aegis.crypto.MasterKey;
 import com.beemdevelopment.aegis.crypto.MasterKeyException;
-import com.beemdevelopment.aegis.util.Cloner;
 import com.beemdevelopment.aegis.vault.slots.SlotList;
 
+import java.io.OutputStream;
 import java.io.Serializable;
 
 public class VaultFileCredentials implements Serializable {
@@ -29,10 +30,23 @@ public class VaultFileCredentials implements Serializable {
         return _key.encrypt(bytes);
     }
 
+    public CryptParameters encrypt(byte[] bytes, int offset, int length, byte[] output, int outputOffset)
+            throws MasterKeyException {
+        return _key.encrypt(bytes, offset, length, output, outputOffset);
+    }
+
+    public CryptOutputStream encrypt(OutputStream stream) throws MasterKeyException {
+        return _key.encrypt(stream);
+    }
+
     public CryptResult decrypt(byte[] bytes, CryptParameters params) throws MasterKeyException {
         return _key.decrypt(bytes, params);
     }
 
+    public CryptResult decrypt(byte[] bytes, int offset, int length, CryptParameters params) throws MasterKeyException {
+        return _key.decrypt(bytes, offset, length, params);
+    }
+
     public MasterKey getKey() {
         return _key;
     }
@@ -49,9 +63,13 @@ public class VaultFileCredentials implements Serializable {
         return new VaultFileCredentials(_key, _slots.exportable());
     }
 
+    /**
+     * Returns a copy of these VaultFileCredentials with a copy of the slot list. The master
+     * key is immutable, so it's shared between both copies.
+     */
     @NonNull
     @Override
     public VaultFileCredentials clone() {
-        return Cloner.clone(this);
+        return new VaultFileCredentials(_key, _slots.clone());
     }
 }
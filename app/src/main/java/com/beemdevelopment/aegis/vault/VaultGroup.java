@@ -1,5 +1,7 @@
 package com.beemdevelopment.aegis.vault;
 
+import androidx.annotation.NonNull;
+
 import com.beemdevelopment.aegis.util.UUIDMap;
 
 import org.json.JSONException;
@@ -7,7 +9,7 @@ import org.json.JSONObject;
 
 import java.util.UUID;
 
-public class VaultGroup extends UUIDMap.Value {
+public class VaultGroup extends UUIDMap.Value implements Cloneable {
     private String _name;
 
     private VaultGroup(UUID uuid, String name) {
@@ -54,6 +56,16 @@ public class VaultGroup extends UUIDMap.Value {
         return super.equals(entry) && getName().equals(entry.getName());
     }
 
+    @NonNull
+    @Override
+    public VaultGroup clone() {
+        try {
+            return (VaultGroup) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     public String getName() {
         return _name;
     }
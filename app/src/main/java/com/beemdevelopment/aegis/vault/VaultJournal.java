@@ -0,0 +1,356 @@
+package com.beemdevelopment.aegis.vault;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.beemdevelopment.aegis.crypto.CryptParameters;
+import com.beemdevelopment.aegis.crypto.CryptResult;
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.crypto.MasterKeyException;
+import com.beemdevelopment.aegis.encoding.EncodingException;
+import com.beemdevelopment.aegis.encoding.Hex;
+import com.beemdevelopment.aegis.util.IOUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * An append-only journal of changes made to the vault since the last full snapshot was
+ * written to aegis.json. Every record is encrypted separately with the master key, so
+ * that a change to a single entry only requires a write of the size of that entry.
+ *
+ * The journal is bound to the snapshot it applies to by the nonce of that snapshot, and
+ * every record carries a sequence number. Records that are torn, fail authentication or
+ * are out of sequence end the replay: they and any records after them are ignored.
+ *
+ * Which records to append is decided by the VaultChanges that VaultRepository records as
+ * the vault is modified, so appending doesn't depend on the size of the vault.
+ */
+public class VaultJournal {
+    public static final String FILENAME = "aegis.journal";
+
+    private static final String TAG = VaultJournal.class.getSimpleName();
+    private static final int VERSION = 1;
+    private static final int MAX_RECORDS = 128;
+    private static final long MAX_SIZE = 1024 * 1024;
+    private static final int RECORD_HEADER_SIZE = CryptoUtils.CRYPTO_AEAD_NONCE_SIZE + CryptoUtils.CRYPTO_AEAD_TAG_SIZE;
+
+    private final File _file;
+    private final byte[] _baseNonce;
+    private int _seq;
+    private long _size;
+    private boolean _compactionNeeded;
+
+    private VaultJournal(File file, byte[] baseNonce) {
+        _file = file;
+        _baseNonce = baseNonce;
+    }
+
+    public static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILENAME);
+    }
+
+    /**
+     * Starts a new, empty journal for the snapshot with the given nonce. Any existing
+     * journal file is removed, as it applies to an older snapshot. Failing to remove it
+     * is harmless, because replay ignores journals that belong to a different snapshot.
+     */
+    static VaultJournal create(File file, byte[] baseNonce) {
+        file.delete();
+        return new VaultJournal(file, baseNonce);
+    }
+
+    /**
+     * Replays the records of the journal in the given file on top of the given vault, which
+     * must have been loaded from the snapshot with the given nonce. A journal that belongs
+     * to a different snapshot is ignored.
+     */
+    static VaultJournal replay(File file, byte[] baseNonce, Vault vault, VaultFileCredentials creds) throws IOException {
+        VaultJournal journal = new VaultJournal(file, baseNonce);
+
+        if (file.exists()) {
+            byte[] bytes;
+            try (FileInputStream inStream = new FileInputStream(file)) {
+                bytes = IOUtils.readFile(inStream);
+            }
+
+            journal.replayRecords(bytes, vault, creds);
+        }
+
+        return journal;
+    }
+
+    private void replayRecords(byte[] bytes, Vault vault, VaultFileCredentials creds) {
+        DataInputStream inStream = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        while (_size < bytes.length) {
+            JSONObject record;
+            int recordSize;
+            try {
+                byte[] framedRecord = readRecord(inStream);
+                recordSize = 4 + framedRecord.length;
+                record = decryptRecord(framedRecord, creds);
+                if (record.getInt("version") > VERSION
+                        || !Arrays.equals(Hex.decode(record.getString("base")), _baseNonce)
+                        || record.getInt("seq") != _seq) {
+                    throw new VaultFileException("Journal record does not belong to this snapshot");
+                }
+
+                apply(vault, record);
+            } catch (IOException
+                    | MasterKeyException
+                    | JSONException
+                    | EncodingException
+                    | VaultEntryException
+                    | VaultFileException
+                    | IllegalArgumentException e) {
+                // The record is either torn, tampered with or belongs to another snapshot. All
+                // of the remaining records are ignored, and the next save writes a new snapshot.
+                Log.e(TAG, String.format("Ignoring the journal from record %d onward: %s", _seq, e));
+                _compactionNeeded = true;
+                break;
+            }
+
+            _seq++;
+            _size += recordSize;
+        }
+
+        // Remove any references to groups that no longer exist
+        for (VaultEntry entry : vault.getEntries()) {
+            for (UUID groupUuid : new ArrayList<>(entry.getGroups())) {
+                if (!vault.getGroups().has(groupUuid)) {
+                    entry.removeGroup(groupUuid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends records for the given changes made to the vault since the last time the
+     * journal was written to. The changes must cover everything that was modified since
+     * then, otherwise a new snapshot has to be written instead.
+     * @return false if the journal needs to be compacted into a new snapshot instead.
+     */
+    boolean append(Vault vault, VaultChanges changes, VaultFileCredentials creds) throws IOException, VaultFileException {
+        if (_compactionNeeded || changes.isSnapshotNeeded() || _seq >= MAX_RECORDS || _size >= MAX_SIZE) {
+            return false;
+        }
+
+        List<JSONObject> records = new ArrayList<>();
+        try {
+            if (changes.isGroupsChanged()) {
+                JSONObject record = newRecord("groups");
+                record.put("groups", groupsToJson(vault));
+                records.add(record);
+            }
+
+            for (UUID uuid : changes.getRemovedEntries()) {
+                JSONObject record = newRecord("remove");
+                record.put("uuid", uuid.toString());
+                records.add(record);
+            }
+
+            // Put records for new entries append them to the end of the list, in the order
+            // in which they were added. Anything else needs an order record.
+            for (UUID uuid : changes.getChangedEntries()) {
+                if (vault.getEntries().has(uuid)) {
+                    JSONObject record = newRecord("put");
+                    record.put("entry", vault.getEntries().getByUUID(uuid).toJson());
+                    records.add(record);
+                }
+            }
+
+            if (changes.isOrderChanged()) {
+                JSONArray array = new JSONArray();
+                for (VaultEntry entry : vault.getEntries()) {
+                    array.put(entry.getUUID().toString());
+                }
+
+                JSONObject record = newRecord("order");
+                record.put("uuids", array);
+                records.add(record);
+            }
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+
+        // compaction leaves a snapshot that contains everything, and an empty journal
+        if (changes.isCompactionRequested() && (_seq > 0 || !records.isEmpty())) {
+            return false;
+        }
+        if (records.isEmpty()) {
+            return true;
+        }
+        if (_seq + records.size() > MAX_RECORDS) {
+            return false;
+        }
+
+        ByteArrayOutputStream recordsStream = new ByteArrayOutputStream();
+        DataOutputStream dataStream = new DataOutputStream(recordsStream);
+        for (int i = 0; i < records.size(); i++) {
+            JSONObject record = records.get(i);
+            try {
+                record.put("seq", _seq + i);
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+
+            // replay treats records that are larger than this as torn, so they can only be
+            // persisted as part of a snapshot (e.g. an entry with a very large icon)
+            byte[] data = record.toString().getBytes(StandardCharsets.UTF_8);
+            if (RECORD_HEADER_SIZE + data.length > MAX_SIZE) {
+                return false;
+            }
+
+            byte[] framedRecord = encryptRecord(data, creds);
+            writeRecord(dataStream, framedRecord, framedRecord.length - CryptoUtils.CRYPTO_AEAD_TAG_SIZE);
+        }
+
+        try (FileOutputStream outStream = new FileOutputStream(_file, true)) {
+            recordsStream.writeTo(outStream);
+            outStream.getFD().sync();
+        } catch (IOException e) {
+            // Part of the records may have been written. Replay ignores such a torn
+            // tail, but appending anything after it would be lost, so snapshot instead.
+            _compactionNeeded = true;
+            throw e;
+        }
+
+        _seq += records.size();
+        _size += recordsStream.size();
+        return true;
+    }
+
+    private JSONObject newRecord(String op) throws JSONException {
+        JSONObject record = new JSONObject();
+        record.put("version", VERSION);
+        record.put("base", Hex.encode(_baseNonce));
+        record.put("op", op);
+        return record;
+    }
+
+    private static void apply(Vault vault, JSONObject record) throws JSONException, VaultEntryException, VaultFileException {
+        switch (record.getString("op")) {
+            case "groups":
+                List<VaultGroup> groups = new ArrayList<>();
+                JSONArray groupsArray = record.getJSONArray("groups");
+                for (int i = 0; i < groupsArray.length(); i++) {
+                    groups.add(VaultGroup.fromJson(groupsArray.getJSONObject(i)));
+                }
+
+                vault.getGroups().wipe();
+                for (VaultGroup group : groups) {
+                    vault.getGroups().add(group);
+                }
+                break;
+            case "put":
+                VaultEntry entry = VaultEntry.fromJson(record.getJSONObject("entry"));
+                vault.internIcon(entry);
+                if (vault.getEntries().has(entry)) {
+                    vault.getEntries().replace(entry);
+                } else {
+                    vault.getEntries().add(entry);
+                }
+                break;
+            case "remove":
+                UUID uuid = UUID.fromString(record.getString("uuid"));
+                if (vault.getEntries().has(uuid)) {
+                    vault.getEntries().remove(vault.getEntries().getByUUID(uuid));
+                }
+                break;
+            case "order":
+                JSONArray uuids = record.getJSONArray("uuids");
+                List<VaultEntry> entries = new ArrayList<>();
+                Set<UUID> ordered = new HashSet<>();
+                for (int i = 0; i < uuids.length(); i++) {
+                    UUID entryUuid = UUID.fromString(uuids.getString(i));
+                    if (vault.getEntries().has(entryUuid) && ordered.add(entryUuid)) {
+                        entries.add(vault.getEntries().getByUUID(entryUuid));
+                    }
+                }
+                for (VaultEntry e : vault.getEntries()) {
+                    if (!ordered.contains(e.getUUID())) {
+                        entries.add(e);
+                    }
+                }
+
+                vault.getEntries().wipe();
+                for (VaultEntry e : entries) {
+                    vault.getEntries().add(e);
+                }
+                break;
+            default:
+                throw new VaultFileException(String.format("Unknown journal operation: %s", record.getString("op")));
+        }
+    }
+
+    /**
+     * Encrypts the given record straight into its frame. The frame has room for the tag at
+     * the end, which the cipher needs while encrypting. The tag is moved to the header of the
+     * frame afterwards, so the last CRYPTO_AEAD_TAG_SIZE bytes of the frame are not part of it.
+     */
+    private static byte[] encryptRecord(byte[] data, VaultFileCredentials creds) throws VaultFileException {
+        byte[] framedRecord = new byte[RECORD_HEADER_SIZE + data.length + CryptoUtils.CRYPTO_AEAD_TAG_SIZE];
+
+        try {
+            CryptParameters params = creds.encrypt(data, 0, data.length, framedRecord, RECORD_HEADER_SIZE);
+            System.arraycopy(params.getNonce(), 0, framedRecord, 0, CryptoUtils.CRYPTO_AEAD_NONCE_SIZE);
+            System.arraycopy(params.getTag(), 0, framedRecord, CryptoUtils.CRYPTO_AEAD_NONCE_SIZE, CryptoUtils.CRYPTO_AEAD_TAG_SIZE);
+            return framedRecord;
+        } catch (MasterKeyException e) {
+            throw new VaultFileException(e);
+        }
+    }
+
+    private static JSONObject decryptRecord(byte[] framedRecord, VaultFileCredentials creds)
+            throws MasterKeyException, JSONException {
+        byte[] nonce = Arrays.copyOfRange(framedRecord, 0, CryptoUtils.CRYPTO_AEAD_NONCE_SIZE);
+        byte[] tag = Arrays.copyOfRange(framedRecord, CryptoUtils.CRYPTO_AEAD_NONCE_SIZE, RECORD_HEADER_SIZE);
+
+        CryptParameters params = new CryptParameters(nonce, tag);
+        CryptResult result = creds.decrypt(framedRecord, RECORD_HEADER_SIZE, framedRecord.length - RECORD_HEADER_SIZE, params);
+        return new JSONObject(new String(result.getData(), StandardCharsets.UTF_8));
+    }
+
+    private static void writeRecord(DataOutputStream stream, byte[] framedRecord, int length) throws IOException {
+        stream.writeInt(length);
+        stream.write(framedRecord, 0, length);
+    }
+
+    private static byte[] readRecord(DataInputStream dataStream) throws IOException {
+        int length = dataStream.readInt();
+        if (length < RECORD_HEADER_SIZE || length > MAX_SIZE) {
+            throw new EOFException(String.format("Bad journal record length: %d", length));
+        }
+
+        byte[] framedRecord = new byte[length];
+        dataStream.readFully(framedRecord);
+        return framedRecord;
+    }
+
+    private static JSONArray groupsToJson(Vault vault) {
+        JSONArray array = new JSONArray();
+        for (VaultGroup group : vault.getGroups()) {
+            array.put(group.toJson());
+        }
+        return array;
+    }
+}
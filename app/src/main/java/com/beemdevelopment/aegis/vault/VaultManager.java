@@ -6,6 +6,7 @@ import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.annotation.NonNull;
@@ -36,9 +37,15 @@ public class VaultManager {
 
     private final VaultBackupManager _backups;
     private final BackupManager _androidBackups;
+    private final VaultSaveQueue _saveQueue;
+    private final PasswordKeyCache _passwordKeyCache;
 
     private final List<LockListener> _lockListeners;
     private boolean _blockAutoLock;
+    // whether a backup was requested by a save since the last backup was written, see deferBackup()
+    private volatile boolean _backupPending;
+    // reports failures of the saves that are started by the vault manager itself
+    private final SaveListener _backgroundSaveListener;
 
     private final AuditLogRepository _auditLogRepository;
 
@@ -47,8 +54,22 @@ public class VaultManager {
         _prefs = new Preferences(_context);
         _backups = new VaultBackupManager(_context, auditLogRepository);
         _androidBackups = new BackupManager(context);
+        _saveQueue = new VaultSaveQueue(this::writeSnapshot);
+        _passwordKeyCache = new PasswordKeyCache();
         _lockListeners = new ArrayList<>();
         _auditLogRepository = auditLogRepository;
+        _backgroundSaveListener = new SaveListener() {
+            @Override
+            public void onSaved() {
+
+            }
+
+            @Override
+            public void onSaveFailed(VaultRepositoryException e) {
+                e.printStackTrace();
+                Toast.makeText(_context, _context.getString(R.string.saving_error), Toast.LENGTH_LONG).show();
+            }
+        };
     }
 
     /**
@@ -101,6 +122,36 @@ public class VaultManager {
      * @param userInitiated whether or not the user initiated the lock in MainActivity.
      */
     public void lock(boolean userInitiated) {
+        // make sure that changes that are still waiting to be saved are not lost, and that
+        // the vault file doesn't depend on the journal while the vault is locked. The vault
+        // is snapshotted before it's handed off, so the write doesn't have to be waited for.
+        if (isVaultLoaded()) {
+            VaultRepository repo = getVault();
+            boolean backup = _backupPending;
+            _backupPending = false;
+            if (repo.isEncryptionEnabled()) {
+                repo.requestCompaction();
+                _saveQueue.enqueue(repo, backup, _backgroundSaveListener);
+            }
+            _saveQueue.flush();
+        }
+
+        lockWithoutSaving(userInitiated);
+    }
+
+    /**
+     * Deletes the vault file and locks the vault and the app. Unlike lock(), this drops any
+     * changes that are still waiting to be saved, so that the vault file isn't written again
+     * after it was deleted.
+     */
+    public void wipeAndLock() {
+        _saveQueue.discard();
+        _backupPending = false;
+        VaultRepository.deleteFile(_context);
+        lockWithoutSaving(false);
+    }
+
+    private void lockWithoutSaving(boolean userInitiated) {
         _repo = null;
 
         for (LockListener listener : _lockListeners) {
@@ -111,12 +162,15 @@ public class VaultManager {
     }
 
     public void enableEncryption(VaultFileCredentials creds) throws VaultRepositoryException {
+        _passwordKeyCache.invalidate();
         getVault().setCredentials(creds);
-        saveAndBackup();
+        _backupPending = false;
+        _saveQueue.saveAndWait(getVault(), true);
         startNotificationService();
     }
 
     public void disableEncryption() throws VaultRepositoryException {
+        _passwordKeyCache.invalidate();
         getVault().setCredentials(null);
         save();
 
@@ -133,23 +187,90 @@ public class VaultManager {
     }
 
     public void save() throws VaultRepositoryException {
-        getVault().save();
+        _saveQueue.saveAndWait(getVault(), false);
     }
 
     public void saveAndBackup() throws VaultRepositoryException {
+        _saveQueue.saveAndWait(getVault(), deferBackup(true));
+    }
+
+    /**
+     * Writes the backup that saves have been postponing since the last backup, if any. This
+     * is called when the app moves to the background. The backup is written on a background
+     * thread, together with a full snapshot of the vault.
+     */
+    public void runPendingBackup() {
+        if (!_backupPending || !isVaultLoaded()) {
+            return;
+        }
+
+        _backupPending = false;
+        _saveQueue.enqueue(getVault(), true, _backgroundSaveListener);
+        _saveQueue.flush();
+    }
+
+    /**
+     * A backup is built from a full snapshot of the vault, which would defeat the journal if
+     * it happened on every save. So if backups are enabled, the backup of a save is postponed
+     * until the app moves to the background or the vault is locked. Returns whether the given
+     * save should still include a backup right away.
+     */
+    private boolean deferBackup(boolean backup) {
+        if (backup && getVault().isEncryptionEnabled()
+                && (_prefs.isBackupsEnabled() || _prefs.isAndroidBackupsEnabled())) {
+            _backupPending = true;
+            return false;
+        }
+        return backup;
+    }
+
+    /**
+     * Hands off any saves that are waiting to be coalesced to the background thread right
+     * away. Failures are reported to the listeners that were passed to saveAsync.
+     */
+    public void flushSaves() {
+        _saveQueue.flush();
+    }
+
+    /**
+     * Saves the vault and compacts the journal into a full snapshot, so that the vault file
+     * is complete on its own. Nothing is written if the journal is empty and there are no
+     * pending changes.
+     */
+    public void saveSnapshot() throws VaultRepositoryException {
+        getVault().requestCompaction();
         save();
+    }
 
-        boolean backedUp = false;
-        if (getVault().isEncryptionEnabled()) {
-            if (_prefs.isBackupsEnabled()) {
-                backedUp = true;
-                try {
-                    scheduleBackup();
-                } catch (VaultRepositoryException e) {
-                    _prefs.setBuiltInBackupResult(new Preferences.BackupResult(e));
-                }
-            }
+    /**
+     * Saves the vault on a background thread. Requests made in quick succession are
+     * coalesced into a single write. The given listener is called on the UI thread.
+     */
+    public void saveAsync(boolean backup, @Nullable SaveListener listener) {
+        _saveQueue.enqueue(getVault(), deferBackup(backup), listener);
+    }
 
+    private void writeSnapshot(VaultRepository repo, Vault snapshot, VaultChanges changes,
+                               @Nullable VaultFileCredentials creds, boolean backup)
+            throws VaultRepositoryException {
+        if (backup && _prefs.isAndroidBackupsEnabled()) {
+            // Android backups copy the vault file as is, so it shouldn't depend on the journal
+            changes.requestCompaction();
+        }
+
+        if (!backup || creds == null || !_prefs.isBackupsEnabled()) {
+            repo.save(snapshot, changes, creds, null);
+        } else {
+            saveAndScheduleBackup(repo, snapshot, changes, creds);
+        }
+
+        if (!backup) {
+            return;
+        }
+
+        boolean backedUp = false;
+        if (creds != null) {
+            backedUp = _prefs.isBackupsEnabled();
             if (_prefs.isAndroidBackupsEnabled()) {
                 backedUp = true;
                 scheduleAndroidBackup();
@@ -161,27 +282,89 @@ public class VaultManager {
         }
     }
 
-    public void scheduleBackup() throws VaultRepositoryException {
+    /**
+     * Saves the given snapshot and writes the backup alongside it, so that the vault only
+     * has to be serialized and encrypted once. A failure to write the backup is recorded
+     * as the result of the backup and does not cause the save to fail.
+     */
+    private void saveAndScheduleBackup(VaultRepository repo, Vault snapshot, VaultChanges changes, VaultFileCredentials creds)
+            throws VaultRepositoryException {
         _prefs.setIsBackupReminderNeeded(false);
 
+        File tempFile;
+        try {
+            tempFile = createBackupFile();
+        } catch (IOException e) {
+            _prefs.setBuiltInBackupResult(new Preferences.BackupResult(new VaultRepositoryException(e)));
+            repo.save(snapshot, changes, creds, null);
+            return;
+        }
+
+        // the backup file is left to the backup manager only if it was written completely
+        ErrorRecordingOutputStream backupStream = new ErrorRecordingOutputStream(tempFile);
+        boolean saved = false;
         try {
-            File dir = new File(_context.getCacheDir(), "backup");
-            if (!dir.exists() && !dir.mkdir()) {
-                throw new IOException(String.format("Unable to create directory %s", dir));
+            repo.save(snapshot, changes, creds, backupStream);
+            saved = true;
+        } finally {
+            backupStream.close();
+            if (!saved) {
+                tempFile.delete();
             }
+        }
+
+        IOException backupError = backupStream.getError();
+        if (backupError != null) {
+            tempFile.delete();
+            _prefs.setBuiltInBackupResult(new Preferences.BackupResult(new VaultRepositoryException(backupError)));
+        } else {
+            scheduleBackup(tempFile);
+        }
+    }
+
+    public void scheduleBackup() throws VaultRepositoryException {
+        _prefs.setIsBackupReminderNeeded(false);
+        _backupPending = false;
+        saveSnapshot();
 
-            File tempFile = File.createTempFile(VaultBackupManager.FILENAME_PREFIX, ".json", dir);
+        File tempFile;
+        try {
+            tempFile = createBackupFile();
+        } catch (IOException e) {
+            throw new VaultRepositoryException(e);
+        }
+
+        boolean exported = false;
+        try {
             try (OutputStream outStream = new FileOutputStream(tempFile)) {
                 _repo.export(outStream);
             }
-            BackupsVersioningStrategy strategy = _prefs.getBackupVersioningStrategy();
-            Uri uri = _prefs.getBackupsLocation();
-            int versionsToKeep = _prefs.getBackupsVersionCount();
-
-            _backups.scheduleBackup(tempFile, strategy, uri, versionsToKeep);
+            exported = true;
         } catch (IOException e) {
             throw new VaultRepositoryException(e);
+        } finally {
+            if (!exported) {
+                tempFile.delete();
+            }
         }
+        scheduleBackup(tempFile);
+    }
+
+    private File createBackupFile() throws IOException {
+        File dir = new File(_context.getCacheDir(), "backup");
+        if (!dir.exists() && !dir.mkdir()) {
+            throw new IOException(String.format("Unable to create directory %s", dir));
+        }
+
+        return File.createTempFile(VaultBackupManager.FILENAME_PREFIX, ".json", dir);
+    }
+
+    private void scheduleBackup(File tempFile) {
+        BackupsVersioningStrategy strategy = _prefs.getBackupVersioningStrategy();
+        Uri uri = _prefs.getBackupsLocation();
+        int versionsToKeep = _prefs.getBackupsVersionCount();
+
+        _backups.scheduleBackup(tempFile, strategy, uri, versionsToKeep);
     }
 
     public void scheduleAndroidBackup() {
@@ -219,6 +402,14 @@ public class VaultManager {
         return _blockAutoLock;
     }
 
+    /**
+     * Returns the cache of the key of the password slot that the vault was last unlocked
+     * with. It outlives locking the vault, but should be invalidated when the password changes.
+     */
+    public PasswordKeyCache getPasswordKeyCache() {
+        return _passwordKeyCache;
+    }
+
     public boolean isVaultLoaded() {
         return _repo != null;
     }
@@ -299,6 +490,80 @@ public class VaultManager {
                 || action.equals(Intent.ACTION_OPEN_DOCUMENT_TREE));
     }
 
+    /**
+     * A FileOutputStream that records the first error that occurs instead of throwing it,
+     * so that a backup that fails to be written doesn't fail the save it's written
+     * alongside of.
+     */
+    private static class ErrorRecordingOutputStream extends OutputStream {
+        private FileOutputStream _stream;
+        private IOException _error;
+
+        public ErrorRecordingOutputStream(File file) {
+            try {
+                _stream = new FileOutputStream(file);
+            } catch (IOException e) {
+                _error = e;
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (_error != null) {
+                return;
+            }
+
+            try {
+                _stream.write(b, off, len);
+            } catch (IOException e) {
+                _error = e;
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (_error != null) {
+                return;
+            }
+
+            try {
+                _stream.flush();
+            } catch (IOException e) {
+                _error = e;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (_stream == null) {
+                return;
+            }
+
+            try {
+                _stream.close();
+            } catch (IOException e) {
+                if (_error == null) {
+                    _error = e;
+                }
+            }
+        }
+
+        @Nullable
+        public IOException getError() {
+            return _error;
+        }
+    }
+
+    public interface SaveListener {
+        void onSaved();
+        void onSaveFailed(VaultRepositoryException e);
+    }
+
     public interface LockListener {
         /**
          * Called when the vault lock status changes
@@ -6,14 +6,13 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.util.AtomicFile;
 
+import com.beemdevelopment.aegis.Preferences;
 import com.beemdevelopment.aegis.otp.GoogleAuthInfo;
-import com.beemdevelopment.aegis.util.Cloner;
 import com.beemdevelopment.aegis.util.IOUtils;
 import com.google.zxing.WriterException;
 
 import org.json.JSONObject;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -40,13 +39,29 @@ public class VaultRepository {
     @Nullable
     private VaultFileCredentials _creds;
 
+    @Nullable
+    private VaultJournal _journal;
+
+    // the changes made to the vault since it was last handed off to be saved
+    @NonNull
+    private VaultChanges _changes = new VaultChanges();
+
+    @NonNull
+    private final EntrySearchIndex _searchIndex;
+
     @NonNull
     private final Context _context;
 
+    // the format of the vault file on disk
+    private boolean _binary;
+    @NonNull
+    private VaultFile.Compression _compression = VaultFile.Compression.NONE;
+
     public VaultRepository(@NonNull Context context, @NonNull Vault vault, @Nullable VaultFileCredentials creds) {
         _context = context;
         _vault = vault;
         _creds = creds;
+        _searchIndex = new EntrySearchIndex(vault);
     }
 
     private static AtomicFile getAtomicFile(Context context) {
@@ -60,6 +75,7 @@ public class VaultRepository {
 
     public static void deleteFile(Context context) {
         getAtomicFile(context).delete();
+        VaultJournal.getFile(context).delete();
     }
 
     public static VaultFile readVaultFile(Context context) throws VaultRepositoryException {
@@ -74,14 +90,26 @@ public class VaultRepository {
     }
 
     public static void writeToFile(Context context, InputStream inStream) throws IOException {
+        try {
+            writeToFile(context, outStream -> {
+                IOUtils.copy(inStream, outStream);
+                return null;
+            });
+        } catch (VaultFileException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static <T> T writeToFile(Context context, FileWriter<T> writer) throws IOException, VaultFileException {
         AtomicFile file = VaultRepository.getAtomicFile(context);
 
         FileOutputStream outStream = null;
         try {
             outStream = file.startWrite();
-            IOUtils.copy(inStream, outStream);
+            T res = writer.write(outStream);
             file.finishWrite(outStream);
-        } catch (IOException e) {
+            return res;
+        } catch (IOException | VaultFileException e) {
             if (outStream != null) {
                 file.failWrite(outStream);
             }
@@ -95,6 +123,7 @@ public class VaultRepository {
         }
 
         Vault vault;
+        VaultJournal journal = null;
         try {
             JSONObject obj;
             if (!file.isEncrypted()) {
@@ -104,35 +133,130 @@ public class VaultRepository {
             }
 
             vault = Vault.fromJson(obj);
-        } catch (VaultException | VaultFileException e) {
+
+            // Changes made since the snapshot was written are kept in the journal
+            if (file.isEncrypted()) {
+                byte[] nonce = file.getHeader().getParams().getNonce();
+                journal = VaultJournal.replay(VaultJournal.getFile(context), nonce, vault, creds);
+            }
+        } catch (VaultException | VaultFileException | IOException e) {
             throw new VaultRepositoryException(e);
         }
 
-        return new VaultRepository(context, vault, creds);
+        VaultRepository repo = new VaultRepository(context, vault, creds);
+        repo._journal = journal;
+        repo._binary = file.isBinary();
+        repo._compression = file.getHeader().getCompression();
+        if (vault.isGroupsMigrationFresh()) {
+            // the migration happened while loading, so it isn't part of any recorded changes
+            repo._changes.markSnapshotNeeded();
+        }
+        return repo;
     }
 
+    /**
+     * Persists the vault. For encrypted vaults, the changes made since the last save are
+     * appended to the journal if possible. Otherwise, a full snapshot of the vault is
+     * written and the journal is reset.
+     */
     void save() throws VaultRepositoryException {
-        try {
-            JSONObject obj = _vault.toJson();
+        save(_vault, takeChanges(), getCredentials(), null);
+    }
 
-            VaultFile file = new VaultFile();
-            if (isEncryptionEnabled()) {
-                file.setContent(obj, _creds);
-            } else {
-                file.setContent(obj);
+    /**
+     * Returns a snapshot of the vault that can be passed to
+     * save(Vault, VaultChanges, VaultFileCredentials, OutputStream) on another thread.
+     */
+    Vault snapshot() {
+        return _vault.snapshot();
+    }
+
+    /**
+     * Returns the changes made to the vault since the last call to this method. They must
+     * be passed to save(Vault, VaultChanges, VaultFileCredentials, OutputStream) together
+     * with a snapshot that was taken at the same time.
+     */
+    VaultChanges takeChanges() {
+        VaultChanges changes = _changes;
+        _changes = new VaultChanges();
+        return changes;
+    }
+
+    /**
+     * Requests that the next save compacts the journal into a full snapshot of the vault.
+     */
+    void requestCompaction() {
+        _changes.requestCompaction();
+    }
+
+    /**
+     * Persists the given snapshot of the vault with the given credentials. Contrary to
+     * save(), this can be called from any thread, as long as the snapshot is not modified.
+     *
+     * If exportStream is not null, an exportable copy of the vault file is written to it
+     * as well. The vault is only serialized and encrypted once for both. Because a full
+     * snapshot is needed for the export anyway, the journal is skipped and reset in that case.
+     */
+    synchronized void save(Vault vault, VaultChanges changes, @Nullable VaultFileCredentials creds, @Nullable OutputStream exportStream)
+            throws VaultRepositoryException {
+        try {
+            // the journal can't be used if the vault file has to be converted to another format
+            Preferences prefs = new Preferences(_context);
+            boolean binary = prefs.isBinaryVaultEnabled();
+            VaultFile.Compression compression = creds != null && prefs.isVaultCompressionEnabled()
+                    ? VaultFile.Compression.DEFLATE : VaultFile.Compression.NONE;
+            if (exportStream == null && binary == _binary && compression == _compression
+                    && _journal != null && _journal.append(vault, changes, creds)) {
+                return;
             }
 
-            try {
-                byte[] bytes = file.toBytes();
-                writeToFile(_context, new ByteArrayInputStream(bytes));
-            } catch (IOException e) {
-                throw new VaultRepositoryException(e);
+            VaultFile.Header header = writeToFile(_context, outStream -> write(vault, outStream, exportStream, creds, null, binary, compression));
+            _binary = binary;
+            _compression = compression;
+            File journalFile = VaultJournal.getFile(_context);
+            if (header != null) {
+                _journal = VaultJournal.create(journalFile, header.getParams().getNonce());
+            } else {
+                _journal = null;
+                journalFile.delete();
             }
-        } catch (VaultFileException e) {
+        } catch (IOException | VaultFileException e) {
+            // the changes of this save are only in memory now, so the next save needs a snapshot
+            _journal = null;
             throw new VaultRepositoryException(e);
         }
     }
 
+    /**
+     * Serializes the vault and writes it to the given OutputStream. If creds is not null, the
+     * vault is encrypted and streamed straight to the OutputStream, without building a JSON
+     * tree of the entire vault first.
+     *
+     * If exportStream is not null, an exportable copy is written to it as well. If binary is
+     * true, the vault file is written to the stream in the binary format. The exportable copy
+     * is always in the JSON format. The content of an encrypted vault is compressed with the
+     * given algorithm.
+     *
+     * @return The header of the encrypted vault file, or null if the vault was not encrypted.
+     */
+    @Nullable
+    private static VaultFile.Header write(Vault vault, OutputStream stream, @Nullable OutputStream exportStream,
+                                          @Nullable VaultFileCredentials creds, @Nullable Vault.EntryFilter filter,
+                                          boolean binary, VaultFile.Compression compression)
+            throws IOException, VaultFileException {
+        if (creds != null) {
+            return VaultFile.write(stream, exportStream, writer -> vault.writeJson(writer, filter), creds, binary, compression);
+        }
+
+        VaultFile vaultFile = new VaultFile();
+        vaultFile.setContent(vault.toJson(filter));
+        stream.write(vaultFile.toBytes(binary));
+        if (exportStream != null) {
+            exportStream.write(vaultFile.toBytes());
+        }
+        return null;
+    }
+
     /**
      * Exports the vault by serializing it and writing it to the given OutputStream. If encryption
      * is enabled, the vault will be encrypted automatically.
@@ -164,21 +288,20 @@ public class VaultRepository {
      * entries will be exported
      */
     public void exportFiltered(OutputStream stream, @Nullable VaultFileCredentials creds, @Nullable Vault.EntryFilter filter) throws VaultRepositoryException {
+        export(_vault, stream, creds, filter);
+    }
+
+    /**
+     * Exports the given snapshot of the vault. Like
+     * save(Vault, VaultChanges, VaultFileCredentials, OutputStream), this can be called from any thread.
+     */
+    static void export(Vault vault, OutputStream stream, @Nullable VaultFileCredentials creds, @Nullable Vault.EntryFilter filter) throws VaultRepositoryException {
         if (creds != null) {
             creds = creds.exportable();
         }
 
         try {
-            VaultFile vaultFile = new VaultFile();
-
-            if (creds != null) {
-                vaultFile.setContent(_vault.toJson(filter), creds);
-            } else {
-                vaultFile.setContent(_vault.toJson(filter));
-            }
-
-            byte[] bytes = vaultFile.toBytes();
-            stream.write(bytes);
+            write(vault, stream, null, creds, filter, false, VaultFile.Compression.NONE);
         } catch (IOException | VaultFileException e) {
             throw new VaultRepositoryException(e);
         }
@@ -221,9 +344,19 @@ public class VaultRepository {
     }
 
     public void addEntry(VaultEntry entry) {
-        // Entries added by importing a file may contain an old group that needs to be migrated
-        _vault.migrateOldGroup(entry);
-        _vault.getEntries().add(entry);
+        // The search index may be built from the vault on another thread, so the vault is
+        // only modified while holding the lock of the index (here and below)
+        synchronized (_searchIndex) {
+            // Entries added by importing a file may contain an old group that needs to be migrated
+            if (_vault.migrateOldGroup(entry)) {
+                _searchIndex.setGroups(getGroups());
+                _changes.markGroupsChanged();
+            }
+            _vault.internIcon(entry);
+            _vault.getEntries().add(entry);
+            _searchIndex.putEntry(entry);
+        }
+        _changes.markEntryChanged(entry.getUUID());
     }
 
     public boolean hasEntryByUUID(UUID uuid) {
@@ -235,23 +368,40 @@ public class VaultRepository {
     }
 
     public VaultEntry removeEntry(VaultEntry entry) {
-        return _vault.getEntries().remove(entry);
+        VaultEntry oldEntry;
+        synchronized (_searchIndex) {
+            oldEntry = _vault.getEntries().remove(entry);
+            _searchIndex.removeEntry(oldEntry.getUUID());
+        }
+        _changes.markEntryRemoved(oldEntry.getUUID());
+        return oldEntry;
     }
 
     /**
      * Wipes all entries and groups from the vault.
      */
     public void wipeContents() {
-        _vault.getEntries().wipe();
-        _vault.getGroups().wipe();
+        synchronized (_searchIndex) {
+            _vault.getEntries().wipe();
+            _vault.getGroups().wipe();
+            _searchIndex.invalidate();
+        }
+        _changes.markSnapshotNeeded();
     }
 
     public VaultEntry replaceEntry(VaultEntry entry) {
-        return _vault.getEntries().replace(entry);
+        _vault.internIcon(entry);
+        VaultEntry oldEntry;
+        synchronized (_searchIndex) {
+            oldEntry = _vault.getEntries().replace(entry);
+            _searchIndex.putEntry(entry);
+        }
+        _changes.markEntryChanged(entry.getUUID());
+        return oldEntry;
     }
 
     public VaultEntry editEntry(VaultEntry entry, EntryEditor editor) {
-        VaultEntry newEntry = Cloner.clone(entry);
+        VaultEntry newEntry = entry.clone();
         editor.edit(newEntry);
         replaceEntry(newEntry);
         return newEntry;
@@ -261,7 +411,10 @@ public class VaultRepository {
      * Moves entry1 to the position of entry2.
      */
     public void moveEntry(VaultEntry entry1, VaultEntry entry2) {
-        _vault.getEntries().move(entry1, entry2);
+        synchronized (_searchIndex) {
+            _vault.getEntries().move(entry1, entry2);
+        }
+        _changes.markOrderChanged();
     }
 
     public boolean isEntryDuplicate(VaultEntry entry) {
@@ -273,7 +426,11 @@ public class VaultRepository {
     }
 
     public void addGroup(VaultGroup group) {
-        _vault.getGroups().add(group);
+        synchronized (_searchIndex) {
+            _vault.getGroups().add(group);
+            _searchIndex.setGroups(getGroups());
+        }
+        _changes.markGroupsChanged();
     }
 
     public VaultGroup getGroupByUUID(UUID uuid) {
@@ -300,24 +457,44 @@ public class VaultRepository {
     }
 
     public void replaceGroups(Collection<VaultGroup> groups) {
-        _vault.getGroups().wipe();
-        for (VaultGroup group : groups) {
-            _vault.getGroups().add(group);
+        synchronized (_searchIndex) {
+            _vault.getGroups().wipe();
+            for (VaultGroup group : groups) {
+                _vault.getGroups().add(group);
+            }
+            _searchIndex.setGroups(getGroups());
         }
+        _changes.markGroupsChanged();
     }
 
     public void removeGroup(VaultGroup group) {
-        for (VaultEntry entry : getEntries()) {
-            entry.removeGroup(group.getUUID());
-        }
+        synchronized (_searchIndex) {
+            for (VaultEntry entry : getEntries()) {
+                if (entry.getGroups().contains(group.getUUID())) {
+                    entry.removeGroup(group.getUUID());
+                    _searchIndex.putEntry(entry);
+                    _changes.markEntryChanged(entry.getUUID());
+                }
+            }
 
-        _vault.getGroups().remove(group);
+            _vault.getGroups().remove(group);
+            _searchIndex.setGroups(getGroups());
+        }
+        _changes.markGroupsChanged();
     }
 
     public Collection<VaultGroup> getGroups() {
         return _vault.getGroups().getValues();
     }
 
+    /**
+     * Returns the search index of the entries in the vault. It's kept up to date as long
+     * as entries and groups are modified through this repository.
+     */
+    public EntrySearchIndex getSearchIndex() {
+        return _searchIndex;
+    }
+
     public Collection<VaultGroup> getUsedGroups() {
         Set<UUID> usedGroups = new HashSet<>();
         for (VaultEntry entry : getEntries()) {
@@ -339,6 +516,11 @@ public class VaultRepository {
 
     public void setCredentials(VaultFileCredentials creds) {
         _creds = creds == null ? null : creds.clone();
+
+        // The slots are part of the snapshot, so the next save can't go through the journal
+        synchronized (this) {
+            _journal = null;
+        }
     }
 
     public boolean isEncryptionEnabled() {
@@ -353,6 +535,10 @@ public class VaultRepository {
         return getCredentials().getSlots().findBackupPasswordSlots().size() > 0;
     }
 
+    private interface FileWriter<T> {
+        T write(OutputStream stream) throws IOException, VaultFileException;
+    }
+
     public interface EntryEditor {
         void edit(VaultEntry entry);
     }
@@ -0,0 +1,176 @@
+package com.beemdevelopment.aegis.vault;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Saves the vault on a background thread. Save requests that come in shortly after each
+ * other (like when dragging an entry around or editing a selection of entries) are
+ * coalesced into a single write. The vault is snapshotted right before it's handed off to
+ * the background thread, so that it can keep being modified in the meantime. Writes are
+ * performed in the order they were handed off in.
+ */
+class VaultSaveQueue {
+    private static final long COALESCE_DELAY_MILLIS = 250;
+
+    private final Writer _writer;
+    private final Handler _handler;
+    private final ExecutorService _executor;
+    private final Runnable _flush = this::flush;
+
+    private VaultRepository _repo;
+    private boolean _backup;
+    private final List<VaultManager.SaveListener> _listeners = new ArrayList<>();
+    // incremented by discard(), so that writes that were handed off before are skipped
+    private int _generation;
+
+    public VaultSaveQueue(Writer writer) {
+        _writer = writer;
+        _handler = new Handler(Looper.getMainLooper());
+        _executor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Schedules a save of the given repository. The listener is called on the UI thread
+     * once the write that includes this request has finished.
+     */
+    public synchronized void enqueue(VaultRepository repo, boolean backup, @Nullable VaultManager.SaveListener listener) {
+        if (_repo != null && _repo != repo) {
+            flush();
+        }
+
+        if (_repo == null) {
+            _handler.postDelayed(_flush, COALESCE_DELAY_MILLIS);
+        }
+
+        _repo = repo;
+        _backup |= backup;
+        if (listener != null) {
+            _listeners.add(listener);
+        }
+    }
+
+    /**
+     * Saves the given repository and blocks until it has been written, together with
+     * any save requests that were still pending.
+     */
+    public void saveAndWait(VaultRepository repo, boolean backup) throws VaultRepositoryException {
+        Future<?> future;
+        synchronized (this) {
+            enqueue(repo, backup, null);
+            future = flush();
+        }
+
+        await(future);
+    }
+
+    /**
+     * Hands off the pending save requests to the background thread right away, without
+     * waiting for them to be written.
+     */
+    public synchronized Future<?> flush() {
+        _handler.removeCallbacks(_flush);
+        if (_repo == null) {
+            // wait for any write that may still be in flight
+            return _executor.submit(() -> { });
+        }
+
+        VaultRepository repo = _repo;
+        boolean backup = _backup;
+        List<VaultManager.SaveListener> listeners = new ArrayList<>(_listeners);
+        _repo = null;
+        _backup = false;
+        _listeners.clear();
+
+        Vault snapshot = repo.snapshot();
+        VaultChanges changes = repo.takeChanges();
+        VaultFileCredentials creds = repo.getCredentials();
+        int generation = _generation;
+        return _executor.submit(() -> {
+            if (isDiscarded(generation)) {
+                return null;
+            }
+
+            VaultRepositoryException error = null;
+            try {
+                _writer.write(repo, snapshot, changes, creds, backup);
+            } catch (VaultRepositoryException e) {
+                error = e;
+            }
+
+            VaultRepositoryException finalError = error;
+            _handler.post(() -> {
+                for (VaultManager.SaveListener listener : listeners) {
+                    if (finalError == null) {
+                        listener.onSaved();
+                    } else {
+                        listener.onSaveFailed(finalError);
+                    }
+                }
+            });
+
+            if (error != null) {
+                throw error;
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Drops the pending save requests and any writes that haven't started yet, and blocks
+     * until a write that's already in progress has finished. Nothing that was requested
+     * before this call is written afterwards. The listeners of the dropped requests are
+     * not called.
+     */
+    public void discard() {
+        Future<?> future;
+        synchronized (this) {
+            _handler.removeCallbacks(_flush);
+            _repo = null;
+            _backup = false;
+            _listeners.clear();
+            _generation++;
+            future = _executor.submit(() -> { });
+        }
+
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized boolean isDiscarded(int generation) {
+        return generation != _generation;
+    }
+
+    private static void await(Future<?> future) throws VaultRepositoryException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof VaultRepositoryException) {
+                throw (VaultRepositoryException) e.getCause();
+            }
+            throw new VaultRepositoryException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VaultRepositoryException(e);
+        }
+    }
+
+    public interface Writer {
+        void write(VaultRepository repo, Vault snapshot, VaultChanges changes, @Nullable VaultFileCredentials creds, boolean backup)
+                throws VaultRepositoryException;
+    }
+}
@@ -1,7 +1,9 @@
 package com.beemdevelopment.aegis.vault.slots;
 
+import com.beemdevelopment.aegis.crypto.Argon2idParameters;
 import com.beemdevelopment.aegis.crypto.CryptParameters;
 import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.crypto.KdfParameters;
 import com.beemdevelopment.aegis.crypto.MasterKey;
 import com.beemdevelopment.aegis.crypto.SCryptParameters;
 import com.beemdevelopment.aegis.encoding.Hex;
@@ -15,18 +17,21 @@ import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 
 public class PasswordSlot extends RawSlot {
+    public static final String KDF_SCRYPT = "scrypt";
+    public static final String KDF_ARGON2ID = "argon2id";
+
     private boolean _repaired;
     private boolean _isBackup;
 
-    private SCryptParameters _params;
+    private KdfParameters _params;
 
     public PasswordSlot() {
         super();
     }
 
-    protected PasswordSlot(UUID uuid, byte[] key, CryptParameters keyParams, SCryptParameters scryptParams, boolean repaired, boolean isBackup) {
+    protected PasswordSlot(UUID uuid, byte[] key, CryptParameters keyParams, KdfParameters kdfParams, boolean repaired, boolean isBackup) {
         super(uuid, key, keyParams);
-        _params = scryptParams;
+        _params = kdfParams;
         _repaired = repaired;
         _isBackup = isBackup;
     }
@@ -35,9 +40,21 @@ public class PasswordSlot extends RawSlot {
     public JSONObject toJson() {
         try {
             JSONObject obj = super.toJson();
-            obj.put("n", _params.getN());
-            obj.put("r", _params.getR());
-            obj.put("p", _params.getP());
+            if (_params instanceof Argon2idParameters) {
+                // scrypt slots leave the kdf field out, so that older versions can still read them
+                Argon2idParameters params = (Argon2idParameters) _params;
+                obj.put("kdf", KDF_ARGON2ID);
+                obj.put("m", params.getM());
+                obj.put("t", params.getT());
+                obj.put("p", params.getP());
+            } else if (_params instanceof SCryptParameters) {
+                SCryptParameters params = (SCryptParameters) _params;
+                obj.put("n", params.getN());
+                obj.put("r", params.getR());
+                obj.put("p", params.getP());
+            } else {
+                throw new IllegalStateException(String.format("unsupported kdf parameters: %s", _params.getClass().getSimpleName()));
+            }
             obj.put("salt", Hex.encode(_params.getSalt()));
             obj.put("repaired", _repaired);
             obj.put("is_backup", _isBackup);
@@ -47,7 +64,7 @@ public class PasswordSlot extends RawSlot {
         }
     }
 
-    public SecretKey deriveKey(char[] password, SCryptParameters params) {
+    public SecretKey deriveKey(char[] password, KdfParameters params) {
         SecretKey key = CryptoUtils.deriveKey(password, params);
         _params = params;
         return key;
@@ -58,7 +75,19 @@ public class PasswordSlot extends RawSlot {
     }
 
     public SecretKey deriveKey(byte[] data) {
-        return CryptoUtils.deriveKey(data, _params);
+        return _params.deriveKey(data);
+    }
+
+    public KdfParameters getKdfParameters() {
+        return _params;
+    }
+
+    /**
+     * Reports whether the key of this slot is derived with scrypt. Older versions of Aegis
+     * don't know about any other KDF, so vault files with such slots get a higher version.
+     */
+    public boolean isScrypt() {
+        return _params instanceof SCryptParameters;
     }
 
     @Override
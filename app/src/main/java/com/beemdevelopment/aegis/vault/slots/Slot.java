@@ -1,8 +1,12 @@
 package com.beemdevelopment.aegis.vault.slots;
 
+import androidx.annotation.NonNull;
+
+import com.beemdevelopment.aegis.crypto.Argon2idParameters;
 import com.beemdevelopment.aegis.crypto.CryptParameters;
 import com.beemdevelopment.aegis.crypto.CryptResult;
 import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.crypto.KdfParameters;
 import com.beemdevelopment.aegis.crypto.MasterKey;
 import com.beemdevelopment.aegis.crypto.SCryptParameters;
 import com.beemdevelopment.aegis.encoding.EncodingException;
@@ -25,7 +29,7 @@ import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
-public abstract class Slot extends UUIDMap.Value {
+public abstract class Slot extends UUIDMap.Value implements Cloneable {
     public final static byte TYPE_RAW = 0x00;
     public final static byte TYPE_PASSWORD = 0x01;
     public final static byte TYPE_BIOMETRIC = 0x02;
@@ -133,15 +137,28 @@ public abstract class Slot extends UUIDMap.Value {
                     slot = new RawSlot(uuid, key, keyParams);
                     break;
                 case Slot.TYPE_PASSWORD:
-                    SCryptParameters scryptParams = new SCryptParameters(
-                            obj.getInt("n"),
-                            obj.getInt("r"),
-                            obj.getInt("p"),
-                            Hex.decode(obj.getString("salt"))
-                    );
+                    KdfParameters kdfParams;
+                    String kdf = obj.optString("kdf", PasswordSlot.KDF_SCRYPT);
+                    if (kdf.equals(PasswordSlot.KDF_SCRYPT)) {
+                        kdfParams = new SCryptParameters(
+                                obj.getInt("n"),
+                                obj.getInt("r"),
+                                obj.getInt("p"),
+                                Hex.decode(obj.getString("salt"))
+                        );
+                    } else if (kdf.equals(PasswordSlot.KDF_ARGON2ID)) {
+                        kdfParams = new Argon2idParameters(
+                                obj.getInt("m"),
+                                obj.getInt("t"),
+                                obj.getInt("p"),
+                                Hex.decode(obj.getString("salt"))
+                        );
+                    } else {
+                        throw new SlotException(String.format("unsupported kdf: %s", kdf));
+                    }
                     boolean repaired = obj.optBoolean("repaired", false);
                     boolean isBackup = obj.optBoolean("is_backup", false);
-                    slot = new PasswordSlot(uuid, key, keyParams, scryptParams, repaired, isBackup);
+                    slot = new PasswordSlot(uuid, key, keyParams, kdfParams, repaired, isBackup);
                     break;
                 case Slot.TYPE_BIOMETRIC:
                     slot = new BiometricSlot(uuid, key, keyParams);
@@ -156,5 +173,20 @@ public abstract class Slot extends UUIDMap.Value {
         return slot;
     }
 
+    /**
+     * Returns a copy of this slot, including any of the fields of its subclass. The
+     * encrypted master key and its parameters are never modified in place, so they're
+     * shared between both slots.
+     */
+    @NonNull
+    @Override
+    public Slot clone() {
+        try {
+            return (Slot) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     public abstract byte getType();
 }
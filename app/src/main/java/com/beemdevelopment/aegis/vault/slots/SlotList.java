@@ -1,5 +1,7 @@
 package com.beemdevelopment.aegis.vault.slots;
 
+import androidx.annotation.NonNull;
+
 import com.beemdevelopment.aegis.util.UUIDMap;
 
 import org.json.JSONArray;
@@ -36,6 +38,19 @@ public class SlotList extends UUIDMap<Slot> {
         return slots;
     }
 
+    /**
+     * Returns a copy of this SlotList that contains copies of its slots.
+     */
+    @NonNull
+    @Override
+    public SlotList clone() {
+        SlotList slots = new SlotList();
+        for (Slot slot : this) {
+            slots.add(slot.clone());
+        }
+        return slots;
+    }
+
     public <T extends Slot> T find(Class<T> type) {
         for (Slot slot : this) {
             if (slot.getClass() == type) {
@@ -55,6 +70,15 @@ public class SlotList extends UUIDMap<Slot> {
         return list;
     }
 
+    /**
+     * Reports whether any of the password slots derives its key with another KDF than scrypt.
+     */
+    public boolean hasNonScryptSlots() {
+        return findAll(PasswordSlot.class)
+                .stream()
+                .anyMatch(slot -> !slot.isScrypt());
+    }
+
     public List<PasswordSlot> findBackupPasswordSlots() {
         return findAll(PasswordSlot.class)
                 .stream()
@@ -0,0 +1,76 @@
+package com.beemdevelopment.aegis.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.beemdevelopment.aegis.crypto.bc.SCrypt;
+import com.beemdevelopment.aegis.encoding.EncodingException;
+import com.beemdevelopment.aegis.encoding.Hex;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+public class Argon2idTest {
+    private static final int BENCH_ROUNDS = 5;
+
+    @Test
+    public void testRfc9106Vector() throws EncodingException {
+        // RFC 9106, section 5.3
+        byte[] key = Argon2id.generate(fill(32, 0x01), fill(16, 0x02), fill(8, 0x03), fill(12, 0x04), 32, 3, 4, 32);
+        assertArrayEquals(Hex.decode("0d640df58d78766c08c037a34a8b53c9d01ef0452d75b65eb52520e96b01e659"), key);
+    }
+
+    @Test
+    public void testReferenceVectors() throws EncodingException {
+        // the Argon2id test vectors of the reference implementation, without a secret or associated data
+        byte[] password = "password".getBytes(StandardCharsets.UTF_8);
+        byte[] salt = "somesalt".getBytes(StandardCharsets.UTF_8);
+
+        byte[] key = Argon2id.generate(password, salt, 1 << 16, 2, 1, 32);
+        assertArrayEquals(Hex.decode("09316115d5cf24ed5a15a31a3ba326e5cf32edc24702987c02b6566f61913cf7"), key);
+
+        key = Argon2id.generate(password, salt, 1 << 8, 2, 2, 32);
+        assertArrayEquals(Hex.decode("6d093c501fd5999645e0ea3bf620d7b8be7fd2db59c20d9fff9539da2bf57037"), key);
+    }
+
+    @Test
+    @Ignore("benchmark, run manually")
+    public void benchKdfs() {
+        // compare both at the memory cost of the default scrypt parameters
+        byte[] password = new byte[16];
+        byte[] salt = CryptoUtils.generateSalt();
+        int n = CryptoUtils.CRYPTO_SCRYPT_N;
+        int r = CryptoUtils.CRYPTO_SCRYPT_r;
+        int m = (int) (128L * n * r / 1024);
+
+        print("scrypt", m, measure(() -> SCrypt.generate(password, salt, n, r, 1, 32)));
+        for (int lanes : new int[]{1, CryptoUtils.CRYPTO_ARGON2_p}) {
+            int t = CryptoUtils.CRYPTO_ARGON2_t;
+            print(String.format(Locale.ROOT, "argon2id t=%d p=%d", t, lanes), m,
+                    measure(() -> Argon2id.generate(password, salt, m, t, lanes, 32)));
+        }
+    }
+
+    private static long measure(Runnable kdf) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < BENCH_ROUNDS; i++) {
+            long start = System.nanoTime();
+            kdf.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void print(String name, int memory, long nanos) {
+        System.out.printf(Locale.ROOT, "%s memory=%d KiB: %.1f ms%n", name, memory, nanos / 1e6);
+    }
+
+    private static byte[] fill(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+}
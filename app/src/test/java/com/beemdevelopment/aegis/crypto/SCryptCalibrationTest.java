@@ -0,0 +1,44 @@
+package com.beemdevelopment.aegis.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SCryptCalibrationTest {
+    @Test
+    public void testParameters() {
+        // a device that needs 2 µs per block stays within the target time up to N = 2^15
+        SCryptParameters params = SCryptCalibration.getParameters(2000);
+        assertEquals(1 << 15, params.getN());
+        assertEquals(CryptoUtils.CRYPTO_SCRYPT_r, params.getR());
+        assertEquals(CryptoUtils.CRYPTO_SCRYPT_p, params.getP());
+        assertFalse(SCryptCalibration.shouldRewrap(params, 2000));
+
+        // N never goes below the minimum, no matter how slow the device is
+        params = SCryptCalibration.getParameters(1_000_000);
+        assertEquals(1 << 14, params.getN());
+        assertFalse(SCryptCalibration.shouldRewrap(params, 1_000_000));
+
+        // N is limited by the memory ceiling on fast devices
+        params = SCryptCalibration.getParameters(1);
+        assertTrue(128L * params.getN() * params.getR() <= 64 * 1024 * 1024);
+    }
+
+    @Test
+    public void testRewrap() {
+        SCryptParameters params = new SCryptParameters(
+                CryptoUtils.CRYPTO_SCRYPT_N,
+                CryptoUtils.CRYPTO_SCRYPT_r,
+                CryptoUtils.CRYPTO_SCRYPT_p,
+                CryptoUtils.generateSalt()
+        );
+
+        // the default parameters take about a second at 4 µs per block
+        assertFalse(SCryptCalibration.shouldRewrap(params, 4000));
+        assertFalse(SCryptCalibration.shouldRewrap(params, 2000));
+        assertTrue(SCryptCalibration.shouldRewrap(params, 20_000));
+        assertTrue(SCryptCalibration.shouldRewrap(params, 500));
+    }
+}
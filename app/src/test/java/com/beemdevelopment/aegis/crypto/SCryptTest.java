@@ -2,6 +2,7 @@ package com.beemdevelopment.aegis.crypto;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
 
 import com.beemdevelopment.aegis.crypto.bc.SCrypt;
 import com.beemdevelopment.aegis.encoding.EncodingException;
@@ -10,6 +11,7 @@ import com.beemdevelopment.aegis.encoding.Hex;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.concurrent.CancellationException;
 
 import javax.crypto.SecretKey;
 
@@ -85,4 +87,33 @@ public class SCryptTest {
             }
         }
     }
+
+    @Test
+    public void testScratchReuse() throws EncodingException {
+        Vector vector = new Vector("7023bdcb3afd7348461c06cd81fd38ebfda8fbba904f8e3ea9b543f6545da1f2d5432955613f0fcf62d49705242a9af9e61e85dc0d651e40dfcf017b45575887",
+                "pleaseletmein", "SodiumChloride", 1 << 14, 8, 1, 64);
+        Vector other = new Vector("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b3731622eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640",
+                "password", "NaCl", 1 << 10, 8, 16, 64);
+
+        // reused memory must not leak into the next derivation, not even with other parameters
+        SCrypt.retainScratch();
+        try {
+            vector.validate();
+            vector.validate();
+            other.validate();
+            vector.validate();
+        } finally {
+            SCrypt.releaseScratch();
+        }
+    }
+
+    @Test
+    public void testInterrupted() {
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(CancellationException.class, () -> SCrypt.generate(new byte[0], new byte[0], 1 << 10, 8, 4, 64));
+        } finally {
+            Thread.interrupted();
+        }
+    }
 }
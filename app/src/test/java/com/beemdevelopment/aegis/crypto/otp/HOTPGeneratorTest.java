@@ -0,0 +1,94 @@
+package com.beemdevelopment.aegis.crypto.otp;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+public class HOTPGeneratorTest {
+    private static final String[] BENCH_ALGOS = new String[]{"HmacSHA1", "HmacSHA256", "HmacSHA512"};
+    private static final int BENCH_WARMUP_ITERATIONS = 20_000;
+    private static final int BENCH_ITERATIONS = 200_000;
+
+    @Test
+    public void vectorsMatch() throws InvalidKeyException, NoSuchAlgorithmException {
+        HOTPGenerator generator = new HOTPGenerator(HOTPTest.SECRET, "HmacSHA1");
+        for (int i = 0; i < HOTPTest.VECTORS.length; i++) {
+            assertEquals(HOTPTest.VECTORS[i], OTP.toString(generator.generate(i), 6));
+        }
+
+        for (TOTPTest.Vector vector : TOTPTest.VECTORS) {
+            generator = new HOTPGenerator(TOTPTest.getSeed(vector.Algo), vector.Algo);
+            int otp = generator.generate(TOTP.getCounter(30, vector.Time));
+            assertEquals(vector.OTP, OTP.toString(otp, 8));
+        }
+    }
+
+    @Test
+    @Ignore("benchmark, run manually")
+    public void benchGenerate() throws InvalidKeyException, NoSuchAlgorithmException {
+        for (String algo : BENCH_ALGOS) {
+            byte[] secret = TOTPTest.getSeed(algo);
+            HOTPGenerator generator = new HOTPGenerator(secret, algo);
+
+            Measurement measurement = null;
+            for (int iterations : new int[]{BENCH_WARMUP_ITERATIONS, BENCH_ITERATIONS}) {
+                measurement = measure(iterations, counter -> HOTP.generateOTP(secret, algo, 6, counter).toString());
+            }
+            print(algo, "HOTP.generateOTP", measurement);
+
+            for (int iterations : new int[]{BENCH_WARMUP_ITERATIONS, BENCH_ITERATIONS}) {
+                measurement = measure(iterations, counter -> OTP.toString(generator.generate(counter), 6));
+            }
+            print(algo, "HOTPGenerator", measurement);
+        }
+    }
+
+    private static Measurement measure(int iterations, Generator generator)
+            throws InvalidKeyException, NoSuchAlgorithmException {
+        long threadId = Thread.currentThread().getId();
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        // accumulate the codes so that the JIT can't optimize the work away
+        int sink = 0;
+        long allocatedStart = bean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += generator.generate(i).charAt(0);
+        }
+        long end = System.nanoTime();
+        long allocatedEnd = bean.getThreadAllocatedBytes(threadId);
+
+        return new Measurement(iterations, end - start, allocatedEnd - allocatedStart, sink);
+    }
+
+    private static void print(String algo, String name, Measurement measurement) {
+        System.out.printf(Locale.ROOT, "%s %s: %.0f codes/s, %d bytes/code (%d)%n", algo, name,
+                measurement._iterations / (measurement._nanos / 1e9),
+                measurement._allocated / measurement._iterations,
+                measurement._sink);
+    }
+
+    private interface Generator {
+        String generate(long counter) throws InvalidKeyException, NoSuchAlgorithmException;
+    }
+
+    private static class Measurement {
+        private final int _iterations;
+        private final long _nanos;
+        private final long _allocated;
+        private final int _sink;
+
+        private Measurement(int iterations, long nanos, long allocated, int sink) {
+            _iterations = iterations;
+            _nanos = nanos;
+            _allocated = allocated;
+            _sink = sink;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.beemdevelopment.aegis.icons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Locale;
+import java.util.UUID;
+
+public class IconPackCatalogueTest {
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    @Test
+    public void testReadWrite() throws JSONException, IOException {
+        IconPack pack = IconPack.fromJson(generatePack(500));
+        File dir = _folder.newFolder();
+        File file = new File(dir, IconPackCatalogue.FILENAME);
+        IconPackCatalogue.write(pack, file);
+
+        IconPack readPack = IconPackCatalogue.read(file, dir);
+        assertEquals(pack.getUUID(), readPack.getUUID());
+        assertEquals(pack.getVersion(), readPack.getVersion());
+        assertEquals(pack.getName(), readPack.getName());
+        assertEquals(pack.getIcons().size(), readPack.getIcons().size());
+
+        for (int i = 0; i < pack.getIcons().size(); i++) {
+            IconPack.Icon icon = pack.getIcons().get(i);
+            IconPack.Icon readIcon = readPack.getIcons().get(i);
+            assertEquals(icon.getRelativeFilename(), readIcon.getRelativeFilename());
+            assertEquals(icon.getName(), readIcon.getName());
+            assertEquals(icon.getCategory(), readIcon.getCategory());
+            assertEquals(icon.getIssuers(), readIcon.getIssuers());
+            assertEquals(new File(dir, icon.getRelativeFilename()), readIcon.getFile());
+
+            // icons are only decoded once
+            assertSame(readIcon, readPack.getIcons().get(i));
+        }
+    }
+
+    @Test
+    public void testTruncated() throws JSONException, IOException {
+        IconPack pack = IconPack.fromJson(generatePack(10));
+        File dir = _folder.newFolder();
+        File file = new File(dir, IconPackCatalogue.FILENAME);
+        IconPackCatalogue.write(pack, file);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(40);
+        }
+        assertThrows(IOException.class, () -> IconPackCatalogue.read(file, dir));
+    }
+
+    @Test
+    public void testCorruptOffsets() throws JSONException, IOException {
+        IconPack pack = IconPack.fromJson(generatePack(10));
+        File dir = _folder.newFolder();
+        File file = new File(dir, IconPackCatalogue.FILENAME);
+        IconPackCatalogue.write(pack, file);
+
+        // the issuer list of the last icon, the filename of the first icon and the length of its string
+        int lastRow = 36 + 9 * 16;
+        assertCorrupt(file, dir, lastRow + 12, Integer.MAX_VALUE - 2);
+        assertCorrupt(file, dir, 36, -2);
+        assertCorrupt(file, dir, 36, -1);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(36);
+            assertCorrupt(file, dir, raf.readInt(), (int) raf.length());
+        }
+    }
+
+    private static void assertCorrupt(File file, File dir, int pos, int value) throws IOException {
+        int oldValue;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(pos);
+            oldValue = raf.readInt();
+            raf.seek(pos);
+            raf.writeInt(value);
+        }
+        assertThrows(IOException.class, () -> IconPackCatalogue.read(file, dir));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(pos);
+            raf.writeInt(oldValue);
+        }
+        IconPackCatalogue.read(file, dir);
+    }
+
+    private static JSONObject generatePack(int size) throws JSONException {
+        JSONArray icons = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            JSONArray issuers = new JSONArray();
+            for (int j = 0; j < i % 4; j++) {
+                issuers.put(String.format(Locale.ROOT, "issuer%d", (i + j) % 50));
+            }
+
+            JSONObject icon = new JSONObject();
+            icon.put("filename", String.format(Locale.ROOT, "icons/%d.svg", i));
+            icon.put("name", i % 2 == 0 ? JSONObject.NULL : String.format(Locale.ROOT, "Näme %d", i));
+            icon.put("category", i % 3 == 0 ? JSONObject.NULL : String.format(Locale.ROOT, "category%d", i % 5));
+            icon.put("issuer", issuers);
+            icons.put(icon);
+        }
+
+        JSONObject obj = new JSONObject();
+        obj.put("uuid", UUID.randomUUID().toString());
+        obj.put("name", "Test");
+        obj.put("version", 3);
+        obj.put("icons", icons);
+        return obj;
+    }
+}
@@ -0,0 +1,176 @@
+package com.beemdevelopment.aegis.icons;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+public class IconPackIndexTest {
+    private static final String[] QUERIES = new String[]{
+            "a", "ab", "abc", "Abcd", "ab cd", "bcda", "Google", "mail.google.com", "zzz", "ag", "CDAB"
+    };
+
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    @Test
+    public void testMatchesLinearSearch() throws JSONException {
+        Random random = new Random(42);
+        JSONObject obj = generatePack(random, 1000);
+        IconPack pack = IconPack.fromJson(obj);
+
+        // the pack scans its icons one by one until the index is loaded
+        IconPack unindexedPack = IconPack.fromJson(obj);
+        for (String query : QUERIES) {
+            assertEquals(getFilenames(getSuggestedIconsLinear(pack, query)), getFilenames(unindexedPack.getSuggestedIcons(query)));
+        }
+
+        pack.getIndex();
+        for (String query : QUERIES) {
+            assertEquals(String.format("query=\"%s\"", query), getSuggestedIconsLinear(pack, query), pack.getSuggestedIcons(query));
+        }
+        for (int i = 0; i < 200; i++) {
+            String query = generateString(random, 1 + random.nextInt(6));
+            assertEquals(String.format("query=\"%s\"", query), getSuggestedIconsLinear(pack, query), pack.getSuggestedIcons(query));
+        }
+    }
+
+    @Test
+    public void testReadWrite() throws JSONException, IOException {
+        Random random = new Random(42);
+        JSONObject obj = generatePack(random, 1000);
+        IconPack pack = IconPack.fromJson(obj);
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        pack.getIndex().write(stream);
+        byte[] bytes = stream.toByteArray();
+
+        IconPack readPack = IconPack.fromJson(obj);
+        readPack.setIndex(IconPackIndex.read(new ByteArrayInputStream(bytes), readPack.getIcons().size()));
+        for (String query : QUERIES) {
+            assertEquals(getFilenames(pack.getSuggestedIcons(query)), getFilenames(readPack.getSuggestedIcons(query)));
+        }
+
+        // an index of a pack with a different number of icons is rejected
+        assertThrows(IOException.class, () -> IconPackIndex.read(new ByteArrayInputStream(bytes), 999));
+    }
+
+    @Test
+    public void testLoad() throws JSONException, IOException {
+        Random random = new Random(42);
+        IconPack pack = IconPack.fromJson(generatePack(random, 100));
+        File dir = _folder.newFolder();
+        File file = new File(dir, IconPackIndex.FILENAME);
+
+        // a missing or corrupt index is rebuilt and stored again, without leaving a temporary file behind
+        IconPackIndex index = IconPackIndex.load(dir, pack.getIcons());
+        assertTrue(file.exists());
+        assertArrayEquals(new String[]{IconPackIndex.FILENAME}, dir.list());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+        IconPackIndex.load(dir, pack.getIcons());
+        assertArrayEquals(new String[]{IconPackIndex.FILENAME}, dir.list());
+
+        IconPackIndex readIndex;
+        try (FileInputStream inStream = new FileInputStream(file)) {
+            readIndex = IconPackIndex.read(inStream, pack.getIcons().size());
+        }
+        for (String query : QUERIES) {
+            assertArrayEquals(index.getSuggestions(query), readIndex.getSuggestions(query));
+        }
+    }
+
+    private static List<String> getFilenames(List<IconPack.Icon> icons) {
+        List<String> filenames = new ArrayList<>();
+        for (IconPack.Icon icon : icons) {
+            filenames.add(icon.getRelativeFilename());
+        }
+        return filenames;
+    }
+
+    // mirrors the linear search that the index replaced
+    private static List<IconPack.Icon> getSuggestedIconsLinear(IconPack pack, String issuer) {
+        List<IconPack.Icon> icons = new ArrayList<>();
+        String lowerEntryIssuer = issuer.toLowerCase();
+        for (IconPack.Icon icon : pack.getIcons()) {
+            boolean normalMatch = false;
+            boolean inverseMatch = false;
+            for (String is : icon.getIssuers()) {
+                String lowerIconIssuer = is.toLowerCase();
+                if (lowerIconIssuer.contains(lowerEntryIssuer)) {
+                    normalMatch = true;
+                    break;
+                }
+                if (lowerEntryIssuer.contains(lowerIconIssuer)) {
+                    inverseMatch = true;
+                }
+            }
+
+            if (normalMatch) {
+                icons.add(0, icon);
+            } else if (inverseMatch) {
+                icons.add(icon);
+            }
+        }
+
+        return icons;
+    }
+
+    private static JSONObject generatePack(Random random, int size) throws JSONException {
+        JSONArray icons = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            JSONArray issuers = new JSONArray();
+            int count = random.nextInt(4);
+            for (int j = 0; j < count; j++) {
+                issuers.put(generateString(random, 2 + random.nextInt(10)));
+            }
+            if (i % 100 == 0) {
+                issuers.put("Google");
+                issuers.put("mail.google.com");
+            }
+
+            JSONObject icon = new JSONObject();
+            icon.put("filename", String.format(Locale.ROOT, "icons/%d.svg", i));
+            icon.put("name", JSONObject.NULL);
+            icon.put("category", JSONObject.NULL);
+            icon.put("issuer", issuers);
+            icons.put(icon);
+        }
+
+        JSONObject obj = new JSONObject();
+        obj.put("uuid", UUID.randomUUID().toString());
+        obj.put("name", "Test");
+        obj.put("version", 1);
+        obj.put("icons", icons);
+        return obj;
+    }
+
+    private static String generateString(Random random, int length) {
+        String alphabet = "abcdABCD .";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,184 @@
+package com.beemdevelopment.aegis.icons;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.google.common.io.Files;
+
+import net.lingala.zip4j.ZipFile;
+import net.lingala.zip4j.model.ZipParameters;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(RobolectricTestRunner.class)
+public class IconPackManagerTest {
+    private static final byte[] PNG_SIGNATURE = new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    @Test
+    public void testImport() throws IOException, JSONException, IconPackException {
+        UUID uuid = UUID.randomUUID();
+        File zip = generatePack(uuid, 100, false);
+        IconPackManager manager = new IconPackManager(getContext());
+
+        AtomicInteger progress = new AtomicInteger();
+        IconPack pack = manager.importPack(zip, new Listener(progress, false));
+        assertEquals(100, progress.get());
+        assertEquals(100, pack.getIcons().size());
+
+        for (IconPack.Icon icon : pack.getIcons()) {
+            File file = icon.getFile();
+            assertTrue(file.exists());
+            if (icon.getIconType() == IconType.SVG) {
+                // the byte order mark and leading whitespace are stripped
+                String svg = new String(Files.toByteArray(file), StandardCharsets.UTF_8);
+                assertTrue(svg.startsWith("<svg"));
+            } else {
+                byte[] signature = new byte[PNG_SIGNATURE.length];
+                System.arraycopy(Files.toByteArray(file), 0, signature, 0, signature.length);
+                assertArrayEquals(PNG_SIGNATURE, signature);
+            }
+        }
+
+        // the pack is loaded from its catalogue after a restart
+        IconPackManager newManager = new IconPackManager(getContext());
+        assertEquals(1, newManager.getIconPacks().size());
+        assertEquals(pack, newManager.getIconPacks().get(0));
+    }
+
+    @Test
+    public void testImportInvalid() throws IOException, JSONException, IconPackException {
+        UUID uuid = UUID.randomUUID();
+        File zip = generatePack(uuid, 100, true);
+        IconPackManager manager = new IconPackManager(getContext());
+
+        // the invalid icon is skipped, instead of failing the import of the whole pack
+        IconPack pack = manager.importPack(zip);
+        assertEquals(99, pack.getIcons().size());
+        for (IconPack.Icon icon : pack.getIcons()) {
+            assertTrue(icon.getFile().exists());
+            assertFalse(icon.getRelativeFilename().equals("PNG/99.png"));
+        }
+        assertFalse(new File(pack.getDirectory(), "PNG/99.png").exists());
+
+        IconPackManager newManager = new IconPackManager(getContext());
+        assertEquals(99, newManager.getIconPacks().get(0).getIcons().size());
+    }
+
+    @Test
+    public void testImportEmpty() throws IOException, JSONException {
+        UUID uuid = UUID.randomUUID();
+        File zip = generatePack(uuid, 0, false);
+        IconPackManager manager = new IconPackManager(getContext());
+
+        assertThrows(IconPackException.class, () -> manager.importPack(zip));
+        assertFalse(new File(getContext().getFilesDir(), "icons/" + uuid).exists());
+        assertFalse(manager.hasIconPack());
+    }
+
+    @Test
+    public void testImportCancelled() throws IOException, JSONException {
+        UUID uuid = UUID.randomUUID();
+        File zip = generatePack(uuid, 100, false);
+        IconPackManager manager = new IconPackManager(getContext());
+
+        assertThrows(IconPackException.class, () -> manager.importPack(zip, new Listener(new AtomicInteger(), true)));
+        assertFalse(new File(getContext().getFilesDir(), "icons/" + uuid).exists());
+        assertFalse(manager.hasIconPack());
+    }
+
+    private File generatePack(UUID uuid, int size, boolean corrupt) throws IOException, JSONException {
+        File file = new File(_folder.getRoot(), uuid + ".zip");
+        JSONArray icons = new JSONArray();
+
+        try (ZipFile zipFile = new ZipFile(file)) {
+            for (int i = 0; i < size; i++) {
+                String filename;
+                byte[] bytes;
+                if (i % 2 == 0) {
+                    filename = String.format(Locale.ROOT, "SVG/%d.svg", i);
+                    bytes = String.format(Locale.ROOT, "\uFEFF \n<svg id=\"%d\"></svg>", i).getBytes(StandardCharsets.UTF_8);
+                } else {
+                    filename = String.format(Locale.ROOT, "PNG/%d.png", i);
+                    bytes = new byte[PNG_SIGNATURE.length + 4];
+                    System.arraycopy(PNG_SIGNATURE, 0, bytes, 0, PNG_SIGNATURE.length);
+                    bytes[PNG_SIGNATURE.length] = (byte) i;
+                    if (corrupt && i == size - 1) {
+                        bytes[0] = 0;
+                    }
+                }
+                addFile(zipFile, filename, bytes);
+
+                JSONObject icon = new JSONObject();
+                icon.put("filename", filename);
+                icon.put("name", JSONObject.NULL);
+                icon.put("category", JSONObject.NULL);
+                icon.put("issuer", new JSONArray().put(String.format(Locale.ROOT, "issuer%d", i)));
+                icons.put(icon);
+            }
+
+            JSONObject obj = new JSONObject();
+            obj.put("uuid", uuid.toString());
+            obj.put("name", "Test");
+            obj.put("version", 1);
+            obj.put("icons", icons);
+            addFile(zipFile, "pack.json", obj.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        return file;
+    }
+
+    private static void addFile(ZipFile zipFile, String filename, byte[] bytes) throws IOException {
+        ZipParameters params = new ZipParameters();
+        params.setFileNameInZip(filename);
+        zipFile.addStream(new ByteArrayInputStream(bytes), params);
+    }
+
+    private static Context getContext() {
+        return ApplicationProvider.getApplicationContext();
+    }
+
+    private static class Listener implements IconPackManager.ImportListener {
+        private final AtomicInteger _progress;
+        private final boolean _cancelled;
+
+        private Listener(AtomicInteger progress, boolean cancelled) {
+            _progress = progress;
+            _cancelled = cancelled;
+        }
+
+        @Override
+        public void onIconExtracted(int count, int total) {
+            _progress.accumulateAndGet(count, Math::max);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return _cancelled;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.beemdevelopment.aegis.vault;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.beemdevelopment.aegis.Preferences;
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.otp.OtpInfoException;
+import com.beemdevelopment.aegis.otp.TotpInfo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RunWith(RobolectricTestRunner.class)
+public class EntrySearchIndexTest {
+    private static final String[] QUERIES = new String[]{
+            "a", "ab", "abc", "abcd", "ab cd", " hij  ab ", "group", "GROUP1", "zzz", "ade", "xyz b"
+    };
+    private static final int ALL_FIELDS = Preferences.SEARCH_IN_ISSUER
+            | Preferences.SEARCH_IN_NAME
+            | Preferences.SEARCH_IN_NOTE
+            | Preferences.SEARCH_IN_GROUPS;
+
+    @Test
+    public void testMatchesLinearSearch() throws OtpInfoException {
+        Random random = new Random(42);
+        Vault vault = generateVault(random, 1000);
+        EntrySearchIndex index = new EntrySearchIndex(vault);
+        assertMatchesLinearSearch(vault, index);
+    }
+
+    @Test
+    public void testIncrementalUpdates() throws OtpInfoException {
+        Random random = new Random(42);
+        Vault vault = generateVault(random, 1000);
+        VaultRepository repo = new VaultRepository(ApplicationProvider.getApplicationContext(), vault, null);
+        EntrySearchIndex index = repo.getSearchIndex();
+        assertMatchesLinearSearch(vault, index);
+
+        List<VaultEntry> entries = new ArrayList<>(vault.getEntries().getValues());
+        for (int i = 0; i < 200; i++) {
+            VaultEntry entry = entries.get(random.nextInt(entries.size()));
+            VaultEntry newEntry = repo.editEntry(entry, e -> e.setIssuer(generateString(random, 8)));
+            entries.set(entries.indexOf(entry), newEntry);
+        }
+        for (int i = 0; i < 100; i++) {
+            repo.removeEntry(entries.remove(random.nextInt(entries.size())));
+        }
+        for (int i = 0; i < 100; i++) {
+            repo.addEntry(generateEntry(random, vault));
+        }
+
+        List<VaultGroup> groups = new ArrayList<>();
+        for (VaultGroup group : repo.getGroups()) {
+            VaultGroup newGroup = group.clone();
+            newGroup.setName("renamed" + group.getName());
+            groups.add(newGroup);
+        }
+        repo.replaceGroups(groups);
+        repo.removeGroup(groups.get(0));
+
+        assertMatchesLinearSearch(vault, index);
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        Random random = new Random(42);
+        Vault vault = generateVault(random, 1000);
+        VaultRepository repo = new VaultRepository(ApplicationProvider.getApplicationContext(), vault, null);
+        EntrySearchIndex index = repo.getSearchIndex();
+
+        // searches (and the rebuilds they trigger) run on another thread, like in EntryAdapter
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> future = executor.submit(() -> {
+            while (!done.get()) {
+                for (String query : QUERIES) {
+                    index.search(query, ALL_FIELDS);
+                }
+            }
+        });
+
+        try {
+            List<VaultEntry> entries = new ArrayList<>(vault.getEntries().getValues());
+            for (int i = 0; i < 500; i++) {
+                repo.removeEntry(entries.remove(random.nextInt(entries.size())));
+                VaultEntry entry = generateEntry(random, vault);
+                repo.addEntry(entry);
+                entries.add(entry);
+                if (i % 100 == 0) {
+                    repo.addGroup(new VaultGroup(generateString(random, 8)));
+                }
+            }
+        } finally {
+            done.set(true);
+            executor.shutdown();
+        }
+
+        future.get();
+        assertMatchesLinearSearch(vault, index);
+    }
+
+    private static void assertMatchesLinearSearch(Vault vault, EntrySearchIndex index) {
+        for (int mask = 1; mask <= ALL_FIELDS; mask++) {
+            for (String query : QUERIES) {
+                assertEquals(String.format("query=\"%s\" mask=%d", query, mask),
+                        searchLinear(vault, query, mask), index.search(query, mask));
+            }
+        }
+    }
+
+    // mirrors the linear search in EntryAdapter
+    private static Set<UUID> searchLinear(Vault vault, String query, int mask) {
+        String[] tokens = query.toLowerCase().trim().split("\\s+");
+
+        Set<UUID> res = new HashSet<>();
+        for (VaultEntry entry : vault.getEntries()) {
+            boolean matches = true;
+            for (String token : tokens) {
+                boolean groupMatches = vault.getGroups().getValues().stream()
+                        .filter(group -> entry.getGroups().contains(group.getUUID()))
+                        .anyMatch(group -> group.getName().toLowerCase().contains(token));
+
+                if (!(((mask & Preferences.SEARCH_IN_ISSUER) != 0 && entry.getIssuer().toLowerCase().contains(token))
+                        || ((mask & Preferences.SEARCH_IN_NAME) != 0 && entry.getName().toLowerCase().contains(token))
+                        || ((mask & Preferences.SEARCH_IN_NOTE) != 0 && entry.getNote().toLowerCase().contains(token))
+                        || ((mask & Preferences.SEARCH_IN_GROUPS) != 0 && groupMatches))) {
+                    matches = false;
+                    break;
+                }
+            }
+
+            if (matches) {
+                res.add(entry.getUUID());
+            }
+        }
+
+        return res;
+    }
+
+    private static Vault generateVault(Random random, int size) throws OtpInfoException {
+        Vault vault = new Vault();
+        for (int i = 0; i < 5; i++) {
+            vault.getGroups().add(new VaultGroup(String.format("Group%dXyz", i)));
+        }
+        for (int i = 0; i < size; i++) {
+            vault.getEntries().add(generateEntry(random, vault));
+        }
+        return vault;
+    }
+
+    private static VaultEntry generateEntry(Random random, Vault vault) throws OtpInfoException {
+        VaultEntry entry = new VaultEntry(new TotpInfo(CryptoUtils.generateRandomBytes(20)),
+                generateString(random, 10), generateString(random, 12));
+        entry.setNote(generateString(random, 20));
+
+        List<VaultGroup> groups = new ArrayList<>(vault.getGroups().getValues());
+        if (!groups.isEmpty() && random.nextBoolean()) {
+            entry.addGroup(groups.get(random.nextInt(groups.size())).getUUID());
+        }
+        return entry;
+    }
+
+    private static String generateString(Random random, int length) {
+        String alphabet = "abcdefghijABC ";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+}
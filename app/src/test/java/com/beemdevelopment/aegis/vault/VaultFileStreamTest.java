@@ -0,0 +1,242 @@
+package com.beemdevelopment.aegis.vault;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.beemdevelopment.aegis.crypto.Argon2idParameters;
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.icons.IconType;
+import com.beemdevelopment.aegis.otp.OtpInfoException;
+import com.beemdevelopment.aegis.otp.TotpInfo;
+import com.beemdevelopment.aegis.vault.slots.PasswordSlot;
+import com.beemdevelopment.aegis.vault.slots.Slot;
+import com.beemdevelopment.aegis.vault.slots.SlotException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import javax.crypto.SecretKey;
+
+public class VaultFileStreamTest {
+    private static final int[] BENCH_SIZES = new int[]{100, 1000, 10000};
+    private static final int ICON_SIZE = 2048;
+
+    @Test
+    public void testStreamRoundTrip()
+            throws IOException, OtpInfoException, VaultFileException, VaultException {
+        Vault vault = generateVault(50);
+        vault.getGroups().add(new VaultGroup("group1"));
+        VaultFileCredentials creds = new VaultFileCredentials();
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        VaultFile.write(stream, writer -> vault.writeJson(writer, null), creds);
+
+        VaultFile file = VaultFile.fromBytes(stream.toByteArray());
+        assertTrue(file.isEncrypted());
+        Vault decrypted = Vault.fromJson(file.getContent(creds));
+
+        assertEquals(vault.getEntries().getValues().size(), decrypted.getEntries().getValues().size());
+        for (VaultEntry entry : vault.getEntries()) {
+            assertEquals(entry, decrypted.getEntries().getByUUID(entry.getUUID()));
+        }
+        assertEquals(1, decrypted.getGroups().getValues().size());
+    }
+
+    @Test
+    public void testBinaryRoundTrip()
+            throws IOException, OtpInfoException, VaultFileException, VaultException {
+        Vault vault = generateVault(50);
+        VaultFileCredentials creds = new VaultFileCredentials();
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ByteArrayOutputStream exportStream = new ByteArrayOutputStream();
+        VaultFile.write(stream, exportStream, writer -> vault.writeJson(writer, null), creds, true);
+        assertTrue(VaultFile.isBinary(stream.toByteArray()));
+        assertFalse(VaultFile.isBinary(exportStream.toByteArray()));
+        assertTrue(stream.size() < exportStream.size());
+
+        VaultFile file = VaultFile.fromBytes(stream.toByteArray());
+        assertTrue(file.isBinary());
+        assertTrue(file.isEncrypted());
+        assertVaultEquals(vault, Vault.fromJson(file.getContent(creds)));
+
+        // the exportable copy and a re-serialization of the binary file are both regular JSON
+        VaultFile exported = VaultFile.fromBytes(exportStream.toByteArray());
+        assertFalse(exported.isBinary());
+        assertVaultEquals(vault, Vault.fromJson(exported.getContent(creds)));
+        VaultFile converted = VaultFile.fromBytes(file.toBytes());
+        assertFalse(converted.isBinary());
+        assertVaultEquals(vault, Vault.fromJson(converted.getContent(creds)));
+        assertTrue(VaultFile.fromBytes(converted.toBytes(true)).isBinary());
+
+        // a plain text vault
+        VaultFile plain = new VaultFile();
+        plain.setContent(vault.toJson());
+        VaultFile plainFile = VaultFile.fromBytes(plain.toBytes(true));
+        assertTrue(plainFile.isBinary());
+        assertFalse(plainFile.isEncrypted());
+        assertVaultEquals(vault, Vault.fromJson(plainFile.getContent()));
+    }
+
+    @Test
+    public void testCompressedRoundTrip()
+            throws IOException, OtpInfoException, VaultFileException, VaultException, JSONException {
+        Vault vault = generateVault(50);
+        VaultFileCredentials creds = new VaultFileCredentials();
+
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        VaultFile.write(uncompressed, writer -> vault.writeJson(writer, null), creds);
+
+        for (boolean binary : new boolean[]{false, true}) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            ByteArrayOutputStream exportStream = new ByteArrayOutputStream();
+            VaultFile.write(stream, exportStream, writer -> vault.writeJson(writer, null), creds, binary, VaultFile.Compression.DEFLATE);
+
+            VaultFile file = VaultFile.fromBytes(stream.toByteArray());
+            assertEquals(VaultFile.Compression.DEFLATE, file.getHeader().getCompression());
+            assertVaultEquals(vault, Vault.fromJson(file.getContent(creds)));
+
+            VaultFile exported = VaultFile.fromBytes(exportStream.toByteArray());
+            assertEquals(VaultFile.Compression.DEFLATE, exported.getHeader().getCompression());
+            assertVaultEquals(vault, Vault.fromJson(exported.getContent(creds)));
+        }
+
+        VaultFile file = new VaultFile();
+        file.setContent(vault.toJson(), creds, VaultFile.Compression.DEFLATE);
+        byte[] bytes = file.toBytes();
+        assertTrue(bytes.length < uncompressed.size());
+        assertVaultEquals(vault, Vault.fromJson(VaultFile.fromBytes(bytes).getContent(creds)));
+
+        // only compressed vault files get the new version, so that older readers reject them
+        JSONObject obj = new JSONObject(new String(bytes, StandardCharsets.UTF_8));
+        assertEquals(2, obj.getInt("version"));
+        obj = new JSONObject(new String(uncompressed.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(1, obj.getInt("version"));
+        assertFalse(obj.getJSONObject("header").has("compression"));
+    }
+
+    @Test
+    public void testArgon2idVersion()
+            throws IOException, OtpInfoException, VaultFileException, VaultException, JSONException, SlotException {
+        Vault vault = generateVault(10);
+        VaultFileCredentials creds = new VaultFileCredentials();
+        PasswordSlot slot = new PasswordSlot();
+        SecretKey key = slot.deriveKey("test".toCharArray(), new Argon2idParameters(64, 1, 1, CryptoUtils.generateSalt()));
+        slot.setKey(creds.getKey(), Slot.createEncryptCipher(key));
+        creds.getSlots().add(slot);
+
+        // older readers only know about scrypt, so they must reject vault files with Argon2id slots
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        VaultFile.write(stream, writer -> vault.writeJson(writer, null), creds);
+        JSONObject obj = new JSONObject(new String(stream.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(VaultFile.VERSION, obj.getInt("version"));
+        assertVaultEquals(vault, Vault.fromJson(VaultFile.fromBytes(stream.toByteArray()).getContent(creds)));
+
+        stream = new ByteArrayOutputStream();
+        VaultFile.write(stream, null, writer -> vault.writeJson(writer, null), creds, true);
+        assertEquals(VaultFile.BINARY_VERSION, stream.toByteArray()[4]);
+
+        VaultFile file = new VaultFile();
+        file.setContent(vault.toJson(), creds);
+        obj = new JSONObject(new String(file.toBytes(), StandardCharsets.UTF_8));
+        assertEquals(VaultFile.VERSION, obj.getInt("version"));
+    }
+
+    @Test
+    @Ignore("benchmark, run manually")
+    public void benchSerialization() throws IOException, OtpInfoException, VaultFileException {
+        VaultFileCredentials creds = new VaultFileCredentials();
+
+        for (int size : BENCH_SIZES) {
+            Vault vault = generateVault(size);
+
+            // warm up both paths once before measuring
+            writeTree(vault, creds, new NullOutputStream());
+            writeStream(vault, creds, new NullOutputStream());
+
+            Measurement tree = measure(() -> writeTree(vault, creds, new NullOutputStream()));
+            Measurement stream = measure(() -> writeStream(vault, creds, new NullOutputStream()));
+
+            System.out.printf(Locale.ROOT, "entries=%d tree: %d ms, %d KiB allocated; stream: %d ms, %d KiB allocated%n",
+                    size, tree._millis, tree._allocated / 1024, stream._millis, stream._allocated / 1024);
+        }
+    }
+
+    private static void writeTree(Vault vault, VaultFileCredentials creds, OutputStream stream)
+            throws IOException, VaultFileException {
+        VaultFile file = new VaultFile();
+        file.setContent(vault.toJson(), creds);
+        stream.write(file.toBytes());
+    }
+
+    private static void writeStream(Vault vault, VaultFileCredentials creds, OutputStream stream)
+            throws IOException, VaultFileException {
+        VaultFile.write(stream, writer -> vault.writeJson(writer, null), creds);
+    }
+
+    private static Measurement measure(Action action) throws IOException, VaultFileException {
+        long threadId = Thread.currentThread().getId();
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long allocatedStart = bean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        action.run();
+        long end = System.nanoTime();
+        long allocatedEnd = bean.getThreadAllocatedBytes(threadId);
+
+        return new Measurement((end - start) / 1_000_000, allocatedEnd - allocatedStart);
+    }
+
+    private static void assertVaultEquals(Vault expected, Vault actual) {
+        assertEquals(expected.getEntries().getValues().size(), actual.getEntries().getValues().size());
+        for (VaultEntry entry : expected.getEntries()) {
+            assertEquals(entry, actual.getEntries().getByUUID(entry.getUUID()));
+        }
+    }
+
+    private static Vault generateVault(int size) throws OtpInfoException {
+        Vault vault = new Vault();
+        for (int i = 0; i < size; i++) {
+            VaultEntry entry = new VaultEntry(new TotpInfo(CryptoUtils.generateRandomBytes(20)), "name" + i, "issuer" + i);
+            entry.setIcon(new VaultEntryIcon(CryptoUtils.generateRandomBytes(ICON_SIZE), IconType.PNG));
+            vault.getEntries().add(entry);
+        }
+        return vault;
+    }
+
+    private interface Action {
+        void run() throws IOException, VaultFileException;
+    }
+
+    private static class Measurement {
+        private final long _millis;
+        private final long _allocated;
+
+        private Measurement(long millis, long allocated) {
+            _millis = millis;
+            _allocated = allocated;
+        }
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.beemdevelopment.aegis.vault;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.icons.IconType;
+import com.beemdevelopment.aegis.vectors.VaultEntries;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+@RunWith(RobolectricTestRunner.class)
+public class VaultJournalTest {
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private VaultFileCredentials _creds;
+    private byte[] _nonce;
+    private File _file;
+
+    @Before
+    public void init() {
+        _creds = new VaultFileCredentials();
+        _nonce = CryptoUtils.generateRandomBytes(CryptoUtils.CRYPTO_AEAD_NONCE_SIZE);
+        _file = new File(_folder.getRoot(), VaultJournal.FILENAME);
+    }
+
+    @Test
+    public void testReplay() throws IOException, VaultException, VaultFileException {
+        Vault vault = createVault();
+        Vault snapshot = Vault.fromJson(vault.toJson());
+        VaultJournal journal = VaultJournal.create(_file, _nonce);
+
+        List<VaultEntry> entries = new ArrayList<>(vault.getEntries().getValues());
+        VaultChanges changes = new VaultChanges();
+        VaultGroup group = new VaultGroup("group");
+        vault.getGroups().add(group);
+        changes.markGroupsChanged();
+        entries.get(0).setName("renamed");
+        changes.markEntryChanged(entries.get(0).getUUID());
+        entries.get(1).addGroup(group.getUUID());
+        changes.markEntryChanged(entries.get(1).getUUID());
+        vault.getEntries().remove(entries.get(2));
+        changes.markEntryRemoved(entries.get(2).getUUID());
+        vault.getEntries().move(entries.get(4), entries.get(3));
+        changes.markOrderChanged();
+        assertTrue(journal.append(vault, changes, _creds));
+
+        changes = new VaultChanges();
+        VaultEntry newEntry = VaultEntries.get().get(0);
+        vault.getEntries().add(newEntry);
+        changes.markEntryChanged(newEntry.getUUID());
+        assertTrue(journal.append(vault, changes, _creds));
+
+        VaultJournal.replay(_file, _nonce, snapshot, _creds);
+        assertVaultEquals(vault, snapshot);
+    }
+
+    @Test
+    public void testTornTail() throws IOException, VaultException, VaultFileException {
+        Vault vault = createVault();
+        Vault snapshot = Vault.fromJson(vault.toJson());
+        VaultJournal journal = VaultJournal.create(_file, _nonce);
+
+        List<VaultEntry> entries = new ArrayList<>(vault.getEntries().getValues());
+        entries.get(0).setName("renamed");
+        assertTrue(journal.append(vault, entryChanged(entries.get(0)), _creds));
+        Vault expected = Vault.fromJson(vault.toJson());
+        long validLength = _file.length();
+
+        entries.get(1).setName("renamed");
+        assertTrue(journal.append(vault, entryChanged(entries.get(1)), _creds));
+
+        // simulate a crash halfway through writing the last record
+        try (RandomAccessFile file = new RandomAccessFile(_file, "rw")) {
+            file.setLength(validLength + (file.length() - validLength) / 2);
+        }
+
+        journal = VaultJournal.replay(_file, _nonce, snapshot, _creds);
+        assertVaultEquals(expected, snapshot);
+
+        // appending after a torn tail is not allowed, a new snapshot is needed instead
+        assertFalse(journal.append(snapshot, new VaultChanges(), _creds));
+    }
+
+    @Test
+    public void testOtherSnapshot() throws IOException, VaultException, VaultFileException {
+        Vault vault = createVault();
+        Vault snapshot = Vault.fromJson(vault.toJson());
+        VaultJournal journal = VaultJournal.create(_file, _nonce);
+
+        VaultEntry entry = new ArrayList<>(vault.getEntries().getValues()).get(0);
+        entry.setName("renamed");
+        assertTrue(journal.append(vault, entryChanged(entry), _creds));
+
+        // the journal must be ignored if it doesn't belong to the snapshot
+        Vault expected = Vault.fromJson(snapshot.toJson());
+        byte[] otherNonce = CryptoUtils.generateRandomBytes(CryptoUtils.CRYPTO_AEAD_NONCE_SIZE);
+        VaultJournal.replay(_file, otherNonce, snapshot, _creds);
+        assertVaultEquals(expected, snapshot);
+    }
+
+    @Test
+    public void testLargeIcon() throws IOException, VaultException, VaultFileException {
+        Vault vault = createVault();
+        Vault snapshot = Vault.fromJson(vault.toJson());
+        VaultJournal journal = VaultJournal.create(_file, _nonce);
+
+        // a large icon that still fits in a single record
+        VaultEntry entry = VaultEntries.get().get(0);
+        entry.setIcon(new VaultEntryIcon(CryptoUtils.generateRandomBytes(512 * 1024), IconType.PNG));
+        vault.getEntries().add(entry);
+        assertTrue(journal.append(vault, entryChanged(entry), _creds));
+
+        VaultJournal.replay(_file, _nonce, snapshot, _creds);
+        assertVaultEquals(vault, snapshot);
+
+        // a record that replay wouldn't accept has to go into a snapshot instead
+        long length = _file.length();
+        VaultEntry otherEntry = VaultEntries.get().get(1);
+        otherEntry.setIcon(new VaultEntryIcon(CryptoUtils.generateRandomBytes(1024 * 1024), IconType.PNG));
+        vault.getEntries().add(otherEntry);
+        assertFalse(journal.append(vault, entryChanged(otherEntry), _creds));
+        assertEquals(length, _file.length());
+    }
+
+    @Test
+    public void testCompaction() throws IOException, VaultException, VaultFileException {
+        Vault vault = createVault();
+        VaultJournal journal = VaultJournal.create(_file, _nonce);
+
+        // nothing to compact if nothing was journaled
+        VaultChanges changes = new VaultChanges();
+        changes.requestCompaction();
+        assertTrue(journal.append(vault, changes, _creds));
+
+        VaultEntry entry = new ArrayList<>(vault.getEntries().getValues()).get(0);
+        entry.setName("renamed");
+        assertTrue(journal.append(vault, entryChanged(entry), _creds));
+
+        changes = new VaultChanges();
+        changes.requestCompaction();
+        assertFalse(journal.append(vault, changes, _creds));
+    }
+
+    private static VaultChanges entryChanged(VaultEntry entry) {
+        VaultChanges changes = new VaultChanges();
+        changes.markEntryChanged(entry.getUUID());
+        return changes;
+    }
+
+    private static Vault createVault() {
+        Vault vault = new Vault();
+        for (VaultEntry entry : VaultEntries.get()) {
+            vault.getEntries().add(entry);
+        }
+        return vault;
+    }
+
+    private static void assertVaultEquals(Vault expected, Vault actual) {
+        List<UUID> expectedOrder = new ArrayList<>();
+        for (VaultEntry entry : expected.getEntries()) {
+            expectedOrder.add(entry.getUUID());
+            assertEquals(entry, actual.getEntries().getByUUID(entry.getUUID()));
+        }
+
+        List<UUID> actualOrder = new ArrayList<>();
+        for (VaultEntry entry : actual.getEntries()) {
+            actualOrder.add(entry.getUUID());
+        }
+
+        assertEquals(expectedOrder, actualOrder);
+        assertEquals(expected.getGroups().getValues().size(), actual.getGroups().getValues().size());
+    }
+}
@@ -1,14 +1,23 @@
 package com.beemdevelopment.aegis.vault;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.icons.IconType;
+import com.beemdevelopment.aegis.otp.OtpInfoException;
+import com.beemdevelopment.aegis.otp.TotpInfo;
 import com.beemdevelopment.aegis.util.IOUtils;
+import com.beemdevelopment.aegis.vectors.VaultEntries;
 
 import org.junit.Test;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 public class VaultTest {
@@ -29,6 +38,26 @@ public class VaultTest {
         checkGroups(vault);
     }
 
+    @Test
+    public void testEntryClone() throws OtpInfoException {
+        VaultEntry entry = VaultEntries.get().get(1);
+        entry.setIcon(new VaultEntryIcon(CryptoUtils.generateRandomBytes(64), IconType.PNG));
+        entry.addGroup(UUID.randomUUID());
+
+        VaultEntry clone = entry.clone();
+        assertEquals(entry, clone);
+        assertNotSame(entry.getInfo(), clone.getInfo());
+        assertSame(entry.getIcon(), clone.getIcon());
+
+        // changes to the clone must not affect the original entry
+        clone.addGroup(UUID.randomUUID());
+        clone.getInfo().getSecret()[0] ^= 1;
+        ((TotpInfo) clone.getInfo()).setPeriod(60);
+        assertNotEquals(entry.getGroups(), clone.getGroups());
+        assertNotEquals(entry.getInfo(), clone.getInfo());
+        assertEquals(20, ((TotpInfo) entry.getInfo()).getPeriod());
+    }
+
     private static void checkGroups(Vault vault) {
         // No old groups should be present anymore
         assertEquals(0, vault.getEntries().getValues().stream()
@@ -1,8 +1,10 @@
 package com.beemdevelopment.aegis.vault.slots;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThrows;
 
+import com.beemdevelopment.aegis.crypto.Argon2idParameters;
 import com.beemdevelopment.aegis.crypto.CryptoUtils;
 import com.beemdevelopment.aegis.crypto.MasterKey;
 import com.beemdevelopment.aegis.crypto.SCryptParameters;
@@ -67,6 +69,34 @@ public class SlotTest {
         assertArrayEquals(_masterKey.getBytes(), decryptedKey.getBytes());
     }
 
+    @Test
+    public void testArgon2PasswordSlotCrypto() throws
+            InvalidAlgorithmParameterException, NoSuchAlgorithmException,
+            InvalidKeyException, NoSuchPaddingException,
+            SlotException, SlotIntegrityException {
+        final char[] password = "test".toCharArray();
+        final Argon2idParameters argon2Params = new Argon2idParameters(
+                CryptoUtils.CRYPTO_ARGON2_m,
+                CryptoUtils.CRYPTO_ARGON2_t,
+                CryptoUtils.CRYPTO_ARGON2_p,
+                new byte[CryptoUtils.CRYPTO_AEAD_KEY_SIZE]
+        );
+
+        PasswordSlot slot = new PasswordSlot();
+        SecretKey passwordKey = slot.deriveKey(password, argon2Params);
+        Cipher cipher = CryptoUtils.createEncryptCipher(passwordKey);
+        slot.setKey(_masterKey, cipher);
+
+        // the KDF and its parameters must survive a round trip through JSON
+        PasswordSlot parsedSlot = (PasswordSlot) Slot.fromJson(slot.toJson());
+        assertEquals(argon2Params, parsedSlot.getKdfParameters());
+
+        cipher = parsedSlot.createDecryptCipher(parsedSlot.deriveKey(password));
+        MasterKey decryptedKey = parsedSlot.getKey(cipher);
+
+        assertArrayEquals(_masterKey.getBytes(), decryptedKey.getBytes());
+    }
+
     @Test
     public void testSlotIntegrity() throws
             InvalidAlgorithmParameterException, NoSuchAlgorithmException,
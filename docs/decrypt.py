@@ -1,6 +1,6 @@
 #!/usr/bin/env python3
 
-# this depends on the 'cryptography' package
+# this depends on the 'cryptography' package (version 44 or newer for Argon2id slots)
 # pip install cryptography
 
 # example usage: ./scripts/decrypt.py --input ./app/src/test/resources/com/beemdevelopment/aegis/importers/aegis_encrypted.json
@@ -11,7 +11,9 @@ import base64
 import getpass
 import io
 import json
+import struct
 import sys
+import zlib
 
 from cryptography.hazmat.primitives.ciphers.aead import AESGCM
 from cryptography.hazmat.primitives.kdf.scrypt import Scrypt
@@ -23,36 +25,135 @@ def die(msg, code=1):
     print(msg, file=sys.stderr)
     exit(code)
 
+def derive_key(slot, password):
+    salt = bytes.fromhex(slot["salt"])
+    kdf_name = slot.get("kdf", "scrypt")
+    if kdf_name == "scrypt":
+        kdf = Scrypt(
+            salt=salt,
+            length=32,
+            n=slot["n"],
+            r=slot["r"],
+            p=slot["p"],
+            backend=backend
+        )
+    elif kdf_name == "argon2id":
+        try:
+            from cryptography.hazmat.primitives.kdf.argon2 import Argon2id
+        except ImportError:
+            die("error: Argon2id slots require version 44 or newer of the 'cryptography' package")
+        kdf = Argon2id(
+            salt=salt,
+            length=32,
+            iterations=slot["t"],
+            lanes=slot["p"],
+            memory_cost=slot["m"]
+        )
+    else:
+        die("error: unsupported kdf: %s" % kdf_name)
+
+    return kdf.derive(password)
+
+def read_vault(path):
+    with io.open(path, "rb") as f:
+        data = f.read()
+
+    # the binary container is laid out as: "AEGB" | version (1 byte) | ciphertext | header | header length (4 bytes, big-endian)
+    if data[:4] == b"AEGB":
+        if len(data) < 9:
+            die("error: truncated vault file")
+        if data[4] > 3:
+            die("error: unsupported version of the binary container: %d" % data[4])
+
+        header_end = len(data) - 4
+        header_len = struct.unpack(">I", data[header_end:])[0]
+        if header_len > header_end - 5:
+            die("error: truncated vault file")
+
+        header = json.loads(data[header_end - header_len:header_end].decode("utf-8"))
+        return header, data[5:header_end - header_len]
+
+    # otherwise, the vault file is JSON with the base64 encoded ciphertext under "db"
+    data = json.loads(data.decode("utf-8"))
+    if data["version"] > 3:
+        die("error: unsupported version of the vault file: %d" % data["version"])
+    return data["header"], base64.b64decode(data["db"])
+
+def apply_record(db, record):
+    entries = db["entries"]
+    op = record["op"]
+    if op == "groups":
+        db["groups"] = record["groups"]
+    elif op == "put":
+        entry = record["entry"]
+        for i, e in enumerate(entries):
+            if e["uuid"] == entry["uuid"]:
+                entries[i] = entry
+                break
+        else:
+            entries.append(entry)
+    elif op == "remove":
+        db["entries"] = [e for e in entries if e["uuid"] != record["uuid"]]
+    elif op == "order":
+        by_uuid = {e["uuid"]: e for e in entries}
+        ordered = [by_uuid.pop(uuid) for uuid in dict.fromkeys(record["uuids"]) if uuid in by_uuid]
+        db["entries"] = ordered + [e for e in entries if e["uuid"] in by_uuid]
+    else:
+        raise ValueError("unknown journal operation: %s" % op)
+
+def replay_journal(path, master_key, base_nonce, db):
+    with io.open(path, "rb") as f:
+        journal = f.read()
+
+    # every record is framed as: length (4 bytes, big-endian) | nonce | tag | ciphertext
+    cipher = AESGCM(master_key)
+    offset, seq = 0, 0
+    while offset + 4 <= len(journal):
+        length = struct.unpack(">I", journal[offset:offset + 4])[0]
+        frame = journal[offset + 4:offset + 4 + length]
+        if length < 28 or length > 1024 * 1024 or len(frame) != length:
+            break
+
+        try:
+            record = cipher.decrypt(nonce=frame[:12], data=frame[28:] + frame[12:28], associated_data=None)
+        except cryptography.exceptions.InvalidTag:
+            break
+
+        # stop at the first record that doesn't belong to this snapshot, like Aegis does
+        record = json.loads(record.decode("utf-8"))
+        if record["version"] > 1 or bytes.fromhex(record["base"]) != base_nonce or record["seq"] != seq:
+            break
+
+        apply_record(db, record)
+        offset += 4 + length
+        seq += 1
+
+    # remove any references to groups that no longer exist
+    groups = {group["uuid"] for group in db["groups"]}
+    for entry in db["entries"]:
+        entry["groups"] = [uuid for uuid in entry.get("groups", []) if uuid in groups]
+
 def main():
     parser = argparse.ArgumentParser(description="Decrypt an Aegis vault")
-    parser.add_argument("--input", dest="input", required=True, help="encrypted Aegis vault file")
+    parser.add_argument("--input", dest="input", required=True, help="encrypted Aegis vault file (JSON or binary)")
     parser.add_argument("--output", dest="output", default="-", help="output file ('-' for stdout)")
+    parser.add_argument("--journal", dest="journal", help="journal file (aegis.journal) to apply to the vault")
     args = parser.parse_args()
 
     # parse the Aegis vault file
-    with io.open(args.input, "r") as f:
-        data = json.load(f)
+    header, content = read_vault(args.input)
 
     # ask the user for a password
     password = getpass.getpass().encode("utf-8")
 
     # extract all password slots from the header
-    header = data["header"]
     slots = [slot for slot in header["slots"] if slot["type"] == 1]
 
     # try the given password on every slot until one succeeds
     master_key = None
     for slot in slots:
         # derive a key from the given password
-        kdf = Scrypt(
-            salt=bytes.fromhex(slot["salt"]),
-            length=32,
-            n=slot["n"],
-            r=slot["r"],
-            p=slot["p"],
-            backend=backend
-        )
-        key = kdf.derive(password)
+        key = derive_key(slot, password)
 
         # try to use the derived key to decrypt the master key
         cipher = AESGCM(key)
@@ -70,9 +171,6 @@ def main():
     if master_key is None:
         die("error: unable to decrypt the master key with the given password")
 
-    # decode the base64 vault contents
-    content = base64.b64decode(data["db"])
-
     # decrypt the vault contents using the master key
     params = header["params"]
     cipher = AESGCM(master_key)
@@ -82,7 +180,19 @@ def main():
         associated_data=None
     )
 
+    # decompress the vault contents if they were compressed before encryption
+    compression = header.get("compression", "none")
+    if compression == "deflate":
+        db = zlib.decompress(db, -zlib.MAX_WBITS)
+    elif compression != "none":
+        die("error: unsupported compression: %s" % compression)
+
     db = db.decode("utf-8")
+    if args.journal:
+        db = json.loads(db)
+        replay_journal(args.journal, master_key, bytes.fromhex(params["nonce"]), db)
+        db = json.dumps(db, indent=4)
+
     if args.output != "-":
         with io.open(args.output, "w") as f:
             f.write(db)